@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link PaymentTransport} over {@link HttpURLConnection}, with its own
+ * bounded thread pool rather than the shared bitcoinj pool.</p>
+ *
+ * <ul>
+ * <li>Every response body is read to the end and closed, error responses
+ * included, so the JDK can keep the connection alive and reuse it. The JDK
+ * keeps at most {@code http.maxConnections} (default 5) idle connections per
+ * host, so per-host limits above that gain little reuse.</li>
+ * <li>At most {@code maxPerHost} requests run against any one host; further
+ * requests queue without holding a thread, so one slow merchant cannot
+ * starve requests to the others.</li>
+ * <li>Connect and read timeouts are always set, and responses larger than
+ * {@code maxResponseBytes} are rejected.</li>
+ * </ul>
+ */
+public class HttpPaymentTransport implements PaymentTransport {
+    public static final int DEFAULT_MAX_CONNECTIONS = 32;
+    public static final int DEFAULT_MAX_PER_HOST = 4;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+    /** BIP 70 recommends payment requests be no larger than 50,000 bytes; leave room for other messages. */
+    public static final int DEFAULT_MAX_RESPONSE_BYTES = 1024 * 1024;
+
+    private final ExecutorService executor;
+    private final int maxPerHost;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxResponseBytes;
+
+    // Guarded by itself
+    private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+
+    public HttpPaymentTransport() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_PER_HOST, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_RESPONSE_BYTES);
+    }
+
+    /**
+     * @param maxConnections requests in flight across all hosts, and so the number of threads used.
+     * @param maxPerHost requests in flight to any one host (scheme, host and port).
+     * @param connectTimeoutMillis timeout for establishing a connection.
+     * @param readTimeoutMillis timeout for each read from the connection.
+     * @param maxResponseBytes largest response body accepted.
+     */
+    public HttpPaymentTransport(int maxConnections, int maxPerHost, int connectTimeoutMillis,
+                                int readTimeoutMillis, int maxResponseBytes) {
+        checkArgument(maxConnections > 0, "maxConnections must be positive");
+        checkArgument(maxPerHost > 0, "maxPerHost must be positive");
+        checkArgument(connectTimeoutMillis >= 0 && readTimeoutMillis >= 0, "timeouts must not be negative");
+        this.maxPerHost = maxPerHost;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxResponseBytes = maxResponseBytes;
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("payment-transport-%d").build());
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    @Override
+    public ListenableFuture<byte[]> get(final URL url, final String accept) {
+        return submit(url, null, accept, null);
+    }
+
+    @Override
+    public ListenableFuture<byte[]> post(URL url, String contentType, String accept, byte[] body) {
+        return submit(url, contentType, accept, body);
+    }
+
+    /** Stops the worker threads once queued requests have run. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private ListenableFuture<byte[]> submit(final URL url, final String contentType, final String accept,
+                                           final byte[] body) {
+        final String hostKey = getHostKey(url);
+        final Request request = new Request(hostKey) {
+            @Override
+            byte[] call() throws IOException {
+                return execute(url, contentType, accept, body);
+            }
+        };
+
+        final boolean startNow;
+        synchronized (hosts) {
+            HostQueue queue = hosts.get(hostKey);
+            if (queue == null) {
+                queue = new HostQueue();
+                hosts.put(hostKey, queue);
+            }
+            startNow = queue.active < maxPerHost;
+            if (startNow)
+                queue.active++;
+            else
+                queue.pending.add(request);
+        }
+        if (startNow)
+            start(request);
+        return request.future;
+    }
+
+    private void start(Request request) {
+        try {
+            executor.execute(request);
+        } catch (RejectedExecutionException e) {
+            // e.g. after shutdown; the request never runs, so release its slot here.
+            request.future.setException(e);
+            finished(request.hostKey);
+        }
+    }
+
+    private void finished(String hostKey) {
+        final Request next;
+        synchronized (hosts) {
+            HostQueue queue = hosts.get(hostKey);
+            next = queue.pending.poll();
+            if (next == null) {
+                queue.active--;
+                if (queue.active == 0)
+                    hosts.remove(hostKey);
+            }
+        }
+        if (next != null)
+            start(next);
+    }
+
+    private byte[] execute(URL url, String contentType, String accept, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Accept", accept);
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            drain(connection.getErrorStream());
+            throw new IOException("HTTP " + status + " from " + url);
+        }
+        InputStream in = connection.getInputStream();
+        try {
+            byte[] response = ByteStreams.toByteArray(ByteStreams.limit(in, maxResponseBytes + 1L));
+            if (response.length > maxResponseBytes) {
+                // Reading on would only waste bandwidth, so drop the connection.
+                connection.disconnect();
+                throw new IOException("Response from " + url + " is larger than " + maxResponseBytes + " bytes");
+            }
+            return response;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Reads an error body to the end, so the connection can go back to the keep-alive pool. */
+    private void drain(InputStream in) {
+        if (in == null)
+            return;
+        try {
+            ByteStreams.copy(ByteStreams.limit(in, maxResponseBytes), ByteStreams.nullOutputStream());
+        } catch (IOException e) {
+            // The connection is unusable and will not be pooled; nothing more to do.
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignored, as above.
+            }
+        }
+    }
+
+    private static String getHostKey(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    private static class HostQueue {
+        int active;
+        final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+    }
+
+    private abstract class Request implements Runnable {
+        final String hostKey;
+        final SettableFuture<byte[]> future = SettableFuture.create();
+
+        Request(String hostKey) {
+            this.hostKey = hostKey;
+        }
+
+        abstract byte[] call() throws IOException;
+
+        // The per-host slot is released before the future completes, so listeners running on this thread do not
+        // hold up the next request to the host.
+        @Override
+        public void run() {
+            byte[] response = null;
+            Throwable failure = null;
+            try {
+                if (!future.isCancelled())
+                    response = call();
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                finished(hostKey);
+            }
+            if (failure != null)
+                future.setException(failure);
+            else
+                future.set(response);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Transaction;
+import org.libdohj.core.AltcoinBlockCursor;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.bitcoin.protocols.payments.Protos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Parses the transactions of untrusted Payment messages. All limits are
+ * checked, and the structure of every transaction walked with
+ * {@link AltcoinBlockCursor#getTransactionLength(byte[], int, int)}, before any
+ * {@link Transaction} is created. A message that claims millions of inputs, or
+ * a script larger than the transaction holding it, is rejected without
+ * allocating for it.</p>
+ *
+ * <p>bitcoinj only parses transactions from byte arrays, so for a serialized
+ * message the transactions are checked and parsed in place from the message's
+ * own array; for an already parsed {@link Protos.Payment} each transaction is
+ * copied out of its {@link ByteString} once, after its size has been checked.</p>
+ */
+final class PaymentMessageParser {
+    private static final int TRANSACTIONS_FIELD = Protos.Payment.TRANSACTIONS_FIELD_NUMBER;
+    private static final int TRANSACTIONS_TAG = WireFormat.makeTag(TRANSACTIONS_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private PaymentMessageParser() {
+    }
+
+    static List<Transaction> parseTransactions(NetworkParameters params, byte[] serializedPayment,
+                                               int maxTransactions, int maxTransactionSize)
+            throws PaymentProtocolException {
+        // First pass: find where each transaction lies in the message, allocating nothing per transaction.
+        int[] offsets = new int[Math.min(maxTransactions, 4)];
+        int[] lengths = new int[offsets.length];
+        int count = 0;
+        try {
+            final CodedInputStream in = CodedInputStream.newInstance(serializedPayment);
+            for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                if (tag != TRANSACTIONS_TAG) {
+                    in.skipField(tag);
+                    continue;
+                }
+                if (count == maxTransactions)
+                    throw new PaymentProtocolException.InvalidTransactions("More than " + maxTransactions + " transactions");
+                final int length = in.readRawVarint32();
+                checkSize(length, maxTransactionSize);
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, Math.min(count * 2, maxTransactions));
+                    lengths = Arrays.copyOf(lengths, offsets.length);
+                }
+                offsets[count] = in.getTotalBytesRead();
+                lengths[count] = length;
+                in.skipRawBytes(length);
+                count++;
+            }
+        } catch (IOException x) {
+            throw new PaymentProtocolException.InvalidTransactions(x);
+        }
+
+        for (int i = 0; i < count; i++)
+            checkStructure(serializedPayment, offsets[i], lengths[i]);
+
+        final List<Transaction> transactions = new ArrayList<Transaction>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(parse(params, serializedPayment, offsets[i], lengths[i]));
+        return transactions;
+    }
+
+    static List<Transaction> parseTransactions(NetworkParameters params, Protos.Payment payment,
+                                               int maxTransactions, int maxTransactionSize)
+            throws PaymentProtocolException {
+        final int count = payment.getTransactionsCount();
+        if (count > maxTransactions)
+            throw new PaymentProtocolException.InvalidTransactions("More than " + maxTransactions + " transactions");
+        for (final ByteString transaction : payment.getTransactionsList())
+            checkSize(transaction.size(), maxTransactionSize);
+
+        final byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            payloads[i] = payment.getTransactions(i).toByteArray();
+            checkStructure(payloads[i], 0, payloads[i].length);
+        }
+
+        final List<Transaction> transactions = new ArrayList<Transaction>(count);
+        for (final byte[] payload : payloads)
+            transactions.add(parse(params, payload, 0, payload.length));
+        return transactions;
+    }
+
+    private static Transaction parse(NetworkParameters params, byte[] payload, int offset, int length)
+            throws PaymentProtocolException {
+        try {
+            final Transaction transaction = new Transaction(params, payload, offset);
+            if (transaction.getMessageSize() != length)
+                throw new PaymentProtocolException.InvalidTransactions("Transaction length does not match its field");
+            return transaction;
+        } catch (ProtocolException x) {
+            throw new PaymentProtocolException.InvalidTransactions(x);
+        }
+    }
+
+    private static void checkSize(int length, int maxTransactionSize) throws PaymentProtocolException {
+        if (length <= 0 || length > maxTransactionSize)
+            throw new PaymentProtocolException.InvalidTransactions("Transaction of " + length + " bytes, limit is "
+                    + maxTransactionSize);
+    }
+
+    /**
+     * Walks a serialized transaction without copying any of it, checking that every count and length fits in the
+     * bytes of its field and that nothing follows the lock time.
+     */
+    private static void checkStructure(byte[] payload, int offset, int length) throws PaymentProtocolException {
+        final int transactionLength;
+        try {
+            transactionLength = AltcoinBlockCursor.getTransactionLength(payload, offset, length);
+        } catch (ProtocolException x) {
+            throw new PaymentProtocolException.InvalidTransactions(x);
+        }
+        if (transactionLength != length)
+            throw new PaymentProtocolException.InvalidTransactions((length - transactionLength)
+                    + " bytes after end of transaction");
+    }
+}
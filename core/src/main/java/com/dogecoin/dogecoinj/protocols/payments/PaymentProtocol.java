@@ -51,6 +51,11 @@ public class PaymentProtocol {
     public static final String MIMETYPE_PAYMENT = "application/vnd.doge.payment.payment";
     public static final String MIMETYPE_PAYMENTACK = "application/vnd.doge.payment.ack";
 
+    /** Most transactions accepted in one payment message by the limit checking parsers. */
+    public static final int DEFAULT_MAX_PAYMENT_TRANSACTIONS = 16;
+    /** Largest transaction accepted in a payment message by the limit checking parsers. */
+    public static final int DEFAULT_MAX_PAYMENT_TRANSACTION_SIZE = Transaction.MAX_STANDARD_TX_SIZE;
+
     /**
      * Create a payment request with one standard pay to address output. You may want to sign the request using
      * {@link #signPaymentRequest}. Use {@link Protos.PaymentRequest.Builder#build} to get the actual payment
@@ -153,6 +158,8 @@ public class PaymentProtocol {
 
     /**
      * Uses the provided PKI method to find the corresponding public key and verify the provided signature.
+     * Certificate chains which have already been validated against a trust store with the same certificates are taken from
+     * {@link PkiVerificationCache#DEFAULT}.
      * 
      * @param paymentRequest Payment request to verify.
      * @param trustStore KeyStore of trusted root certificate authorities.
@@ -161,6 +168,21 @@ public class PaymentProtocol {
      */
     public static @Nullable PkiVerificationData verifyPaymentRequestPki(Protos.PaymentRequest paymentRequest, KeyStore trustStore)
             throws PaymentProtocolException {
+        return verifyPaymentRequestPki(paymentRequest, trustStore, PkiVerificationCache.DEFAULT);
+    }
+
+    /**
+     * Uses the provided PKI method to find the corresponding public key and verify the provided signature.
+     * 
+     * @param paymentRequest Payment request to verify.
+     * @param trustStore KeyStore of trusted root certificate authorities.
+     * @param cache certificate chains already validated against the trust store, or null to always validate.
+     *              The signature is checked whether or not the chain is cached.
+     * @return verification data, or null if no PKI method was specified in the {@link Protos.PaymentRequest}.
+     * @throws PaymentProtocolException if payment request could not be verified.
+     */
+    public static @Nullable PkiVerificationData verifyPaymentRequestPki(Protos.PaymentRequest paymentRequest, KeyStore trustStore,
+            @Nullable PkiVerificationCache cache) throws PaymentProtocolException {
         List<X509Certificate> certs = null;
         try {
             final String pkiType = paymentRequest.getPkiType();
@@ -176,28 +198,44 @@ public class PaymentProtocol {
             else
                 throw new PaymentProtocolException.InvalidPkiType("Unsupported PKI type: " + pkiType);
 
-            Protos.X509Certificates protoCerts = Protos.X509Certificates.parseFrom(paymentRequest.getPkiData());
-            if (protoCerts.getCertificateCount() == 0)
-                throw new PaymentProtocolException.InvalidPkiData("No certificates provided in message: server config error");
-
-            // Parse the certs and turn into a certificate chain object. Cert factories can parse both DER and base64.
-            // The ordering of certificates is defined by the payment protocol spec to be the same as what the Java
-            // crypto API requires - convenient!
-            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-            certs = Lists.newArrayList();
-            for (ByteString bytes : protoCerts.getCertificateList())
-                certs.add((X509Certificate) certificateFactory.generateCertificate(bytes.newInput()));
-            CertPath path = certificateFactory.generateCertPath(certs);
-
-            // Retrieves the most-trusted CAs from keystore.
-            PKIXParameters params = new PKIXParameters(trustStore);
-            // Revocation not supported in the current version.
-            params.setRevocationEnabled(false);
-
-            // Now verify the certificate chain is correct and trusted. This let's us get an identity linked pubkey.
-            CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-            PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) validator.validate(path, params);
-            PublicKey publicKey = result.getPublicKey();
+            final PkiVerificationCache.Key cacheKey = cache != null
+                    ? new PkiVerificationCache.Key(trustStore, paymentRequest.getPkiData()) : null;
+            PkiVerificationCache.ValidatedChain chain = cache != null ? cache.get(cacheKey) : null;
+            final PublicKey publicKey;
+            final TrustAnchor trustAnchor;
+            final String displayName;
+            if (chain != null) {
+                publicKey = chain.publicKey;
+                trustAnchor = chain.trustAnchor;
+                displayName = chain.displayName;
+            } else {
+                Protos.X509Certificates protoCerts = Protos.X509Certificates.parseFrom(paymentRequest.getPkiData());
+                if (protoCerts.getCertificateCount() == 0)
+                    throw new PaymentProtocolException.InvalidPkiData("No certificates provided in message: server config error");
+
+                // Parse the certs and turn into a certificate chain object. Cert factories can parse both DER and base64.
+                // The ordering of certificates is defined by the payment protocol spec to be the same as what the Java
+                // crypto API requires - convenient!
+                CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+                certs = Lists.newArrayList();
+                for (ByteString bytes : protoCerts.getCertificateList())
+                    certs.add((X509Certificate) certificateFactory.generateCertificate(bytes.newInput()));
+                CertPath path = certificateFactory.generateCertPath(certs);
+
+                // Retrieves the most-trusted CAs from keystore.
+                PKIXParameters params = new PKIXParameters(trustStore);
+                // Revocation not supported in the current version.
+                params.setRevocationEnabled(false);
+
+                // Now verify the certificate chain is correct and trusted. This let's us get an identity linked pubkey.
+                CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+                PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) validator.validate(path, params);
+                publicKey = result.getPublicKey();
+                trustAnchor = result.getTrustAnchor();
+                displayName = X509Utils.getDisplayNameFromCertificate(certs.get(0), true);
+                if (cache != null)
+                    cache.put(cacheKey, certs, publicKey, trustAnchor, displayName);
+            }
             // OK, we got an identity, now check it was used to sign this message.
             Signature signature = Signature.getInstance(algorithm);
             // Note that we don't use signature.initVerify(certs.get(0)) here despite it being the most obvious
@@ -210,13 +248,11 @@ public class PaymentProtocol {
             if (!signature.verify(paymentRequest.getSignature().toByteArray()))
                 throw new PaymentProtocolException.PkiVerificationException("Invalid signature, this payment request is not valid.");
 
-            // Signature verifies, get the names from the identity we just verified for presentation to the user.
-            final X509Certificate cert = certs.get(0);
-            String displayName = X509Utils.getDisplayNameFromCertificate(cert, true);
+            // Signature verifies, check we have a name from the identity we verified for presentation to the user.
             if (displayName == null)
                 throw new PaymentProtocolException.PkiVerificationException("Could not extract name from certificate");
             // Everything is peachy. Return some useful data to the caller.
-            return new PkiVerificationData(displayName, publicKey, result.getTrustAnchor());
+            return new PkiVerificationData(displayName, publicKey, trustAnchor);
         } catch (InvalidProtocolBufferException e) {
             // Data structures are malformed.
             throw new PaymentProtocolException.InvalidPkiData(e);
@@ -330,7 +366,8 @@ public class PaymentProtocol {
     }
 
     /**
-     * Parse transactions from payment message.
+     * Parse transactions from payment message. Nothing is checked before parsing, so for messages from untrusted
+     * sources use {@link #parseTransactionsFromPaymentMessage(NetworkParameters, byte[])} instead.
      * 
      * @param params network parameters (needed for transaction deserialization)
      * @param paymentMessage payment message to parse
@@ -344,6 +381,47 @@ public class PaymentProtocol {
         return transactions;
     }
 
+    /**
+     * Parse transactions from an untrusted payment message, checking them against
+     * {@link #DEFAULT_MAX_PAYMENT_TRANSACTIONS} and {@link #DEFAULT_MAX_PAYMENT_TRANSACTION_SIZE}. See
+     * {@link #parseTransactionsFromPaymentMessage(NetworkParameters, Protos.Payment, int, int)}.
+     */
+    public static List<Transaction> parseTransactionsFromPaymentMessage(NetworkParameters params,
+            byte[] serializedPaymentMessage) throws PaymentProtocolException {
+        return parseTransactionsFromPaymentMessage(params, serializedPaymentMessage, DEFAULT_MAX_PAYMENT_TRANSACTIONS,
+                DEFAULT_MAX_PAYMENT_TRANSACTION_SIZE);
+    }
+
+    /**
+     * Parse transactions from an untrusted, serialized payment message, without parsing the rest of the message.
+     * Transactions are parsed directly from the message bytes rather than copied out first. See
+     * {@link #parseTransactionsFromPaymentMessage(NetworkParameters, Protos.Payment, int, int)}.
+     */
+    public static List<Transaction> parseTransactionsFromPaymentMessage(NetworkParameters params,
+            byte[] serializedPaymentMessage, int maxTransactions, int maxTransactionSize)
+            throws PaymentProtocolException {
+        return PaymentMessageParser.parseTransactions(params, serializedPaymentMessage, maxTransactions,
+                maxTransactionSize);
+    }
+
+    /**
+     * Parse transactions from an untrusted payment message. The transaction count and sizes are checked, and the
+     * structure of each transaction is checked in place, before any transaction is parsed; so a malformed message
+     * is rejected without allocating for the counts and lengths it claims.
+     *
+     * @param params network parameters (needed for transaction deserialization)
+     * @param paymentMessage payment message to parse
+     * @param maxTransactions most transactions to accept
+     * @param maxTransactionSize largest transaction to accept, in bytes
+     * @return list of transactions
+     * @throws PaymentProtocolException.InvalidTransactions if a limit is exceeded or a transaction is malformed
+     */
+    public static List<Transaction> parseTransactionsFromPaymentMessage(NetworkParameters params,
+            Protos.Payment paymentMessage, int maxTransactions, int maxTransactionSize)
+            throws PaymentProtocolException {
+        return PaymentMessageParser.parseTransactions(params, paymentMessage, maxTransactions, maxTransactionSize);
+    }
+
     /**
      * Message returned by the merchant in response to a Payment message.
      */
@@ -72,6 +72,16 @@ public class PaymentProtocolException extends Exception {
         }
     }
 
+    public static class InvalidTransactions extends PaymentProtocolException {
+        public InvalidTransactions(String msg) {
+            super(msg);
+        }
+
+        public InvalidTransactions(Exception e) {
+            super(e);
+        }
+    }
+
     public static class InvalidPkiType extends PaymentProtocolException {
         public InvalidPkiType(String msg) {
             super(msg);
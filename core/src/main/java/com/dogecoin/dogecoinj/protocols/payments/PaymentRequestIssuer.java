@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Utils;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import org.bitcoin.protocols.payments.Protos;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Issues payment requests in bulk, for merchants which create many requests
+ * with the same certificate chain and payment details. Everything which does not
+ * change between requests is prepared once in a {@link Template}; issuing a
+ * request only stamps in the outputs, merchant data and timestamps, then signs.</p>
+ *
+ * <p>The bytes to sign are written straight from the template's pre-built
+ * message into a per-thread buffer, rather than building, serializing and then
+ * rebuilding a request as {@link PaymentProtocol#signPaymentRequest} does. Each
+ * worker thread keeps its own initialised {@link Signature} per template.
+ * Requests produced here verify with
+ * {@link PaymentProtocol#verifyPaymentRequestPki(Protos.PaymentRequest, java.security.KeyStore)}
+ * exactly as ones produced by {@link PaymentProtocol#createPaymentRequest} and
+ * {@link PaymentProtocol#signPaymentRequest}.</p>
+ */
+public class PaymentRequestIssuer {
+    private static final int SERIALIZED_PAYMENT_DETAILS_FIELD = Protos.PaymentRequest.SERIALIZED_PAYMENT_DETAILS_FIELD_NUMBER;
+    private static final int SIGNATURE_FIELD = Protos.PaymentRequest.SIGNATURE_FIELD_NUMBER;
+
+    private final ListeningExecutorService executor;
+
+    private final ThreadLocal<byte[]> signingBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4096];
+        }
+    };
+
+    /**
+     * @param threads number of worker threads used by {@link #issueAsync} and {@link #issueBatch}.
+     */
+    public PaymentRequestIssuer(int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+        this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("payment-request-issuer-%d").build()));
+    }
+
+    /**
+     * Create a template for signed payment requests.
+     *
+     * @param params network the requests are for.
+     * @param certificateChain certificate chain to send with the requests, ordered from merchant certificate to
+     *            root certificate. The root certificate itself may be omitted.
+     * @param privateKey the RSA key to sign with, matching the first certificate of the chain.
+     * @param memo memo for every request, or null if none.
+     * @param paymentUrl URL to send payment messages to, or null if none.
+     * @param expirySeconds how long each request is valid for after it is issued, or 0 for no expiry.
+     */
+    public static Template createTemplate(NetworkParameters params, X509Certificate[] certificateChain,
+                                          PrivateKey privateKey, @Nullable String memo, @Nullable String paymentUrl,
+                                          long expirySeconds) {
+        if (!privateKey.getAlgorithm().equalsIgnoreCase("RSA"))
+            throw new IllegalStateException(privateKey.getAlgorithm());
+        try {
+            final Protos.X509Certificates.Builder certificates = Protos.X509Certificates.newBuilder();
+            for (final Certificate certificate : certificateChain)
+                certificates.addCertificate(ByteString.copyFrom(certificate.getEncoded()));
+            final Protos.PaymentRequest requestPrototype = Protos.PaymentRequest.newBuilder()
+                    .setPkiType("x509+sha256")
+                    .setPkiData(certificates.build().toByteString())
+                    .build();
+            return new Template(requestPrototype, createDetailsPrototype(params, memo, paymentUrl), expirySeconds,
+                    privateKey, "SHA256withRSA");
+        } catch (final GeneralSecurityException x) {
+            // Should never happen so don't make users have to think about it.
+            throw new RuntimeException(x);
+        }
+    }
+
+    /**
+     * Create a template for unsigned payment requests. See
+     * {@link #createTemplate(NetworkParameters, X509Certificate[], PrivateKey, String, String, long)}.
+     */
+    public static Template createUnsignedTemplate(NetworkParameters params, @Nullable String memo,
+                                                  @Nullable String paymentUrl, long expirySeconds) {
+        return new Template(Protos.PaymentRequest.getDefaultInstance(), createDetailsPrototype(params, memo, paymentUrl),
+                expirySeconds, null, null);
+    }
+
+    private static Protos.PaymentDetails createDetailsPrototype(NetworkParameters params, @Nullable String memo,
+                                                                @Nullable String paymentUrl) {
+        final Protos.PaymentDetails.Builder details = Protos.PaymentDetails.newBuilder();
+        details.setNetwork(params.getPaymentProtocolId());
+        if (memo != null)
+            details.setMemo(memo);
+        if (paymentUrl != null)
+            details.setPaymentUrl(paymentUrl);
+        // Time is required, and stamped when each request is issued
+        details.setTime(0);
+        return details.build();
+    }
+
+    /**
+     * Issue a payment request on the calling thread.
+     *
+     * @param outputs outputs to request coins to.
+     * @param merchantData arbitrary merchant data, or null if none.
+     */
+    public Protos.PaymentRequest issue(Template template, List<Protos.Output> outputs, @Nullable byte[] merchantData) {
+        final long now = Utils.currentTimeSeconds();
+        final Protos.PaymentDetails.Builder details = template.detailsPrototype.toBuilder()
+                .addAllOutputs(outputs)
+                .setTime(now);
+        if (template.expirySeconds > 0)
+            details.setExpires(now + template.expirySeconds);
+        if (merchantData != null)
+            details.setMerchantData(ByteString.copyFrom(merchantData));
+        final ByteString serializedDetails = details.build().toByteString();
+
+        final Protos.PaymentRequest.Builder request = template.requestPrototype.toBuilder()
+                .setSerializedPaymentDetails(serializedDetails);
+        if (template.privateKey != null) {
+            try {
+                request.setSignature(ByteString.copyFrom(sign(template, serializedDetails)));
+            } catch (final GeneralSecurityException x) {
+                throw new RuntimeException(x);
+            } catch (final IOException x) {
+                // Writing to an array of the computed size cannot fail.
+                throw new RuntimeException(x);
+            }
+        }
+        return request.build();
+    }
+
+    /** Issue a payment request on a worker thread. */
+    public ListenableFuture<Protos.PaymentRequest> issueAsync(final Template template, final List<Protos.Output> outputs,
+                                                              @Nullable final byte[] merchantData) {
+        return executor.submit(new Callable<Protos.PaymentRequest>() {
+            @Override
+            public Protos.PaymentRequest call() {
+                return issue(template, outputs, merchantData);
+            }
+        });
+    }
+
+    /**
+     * Issue one payment request per list of outputs, spread across the worker threads.
+     *
+     * @return the requests, in the same order as the outputs.
+     */
+    public ListenableFuture<List<Protos.PaymentRequest>> issueBatch(final Template template,
+                                                                    List<List<Protos.Output>> outputsPerRequest) {
+        final List<ListenableFuture<Protos.PaymentRequest>> requests =
+                new ArrayList<ListenableFuture<Protos.PaymentRequest>>(outputsPerRequest.size());
+        for (List<Protos.Output> outputs : outputsPerRequest)
+            requests.add(issueAsync(template, outputs, null));
+        return Futures.allAsList(requests);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Sign the request as it serializes with an empty signature: the template's fields, the payment details, then
+     * the empty signature field. Fields are written in field number order, matching the canonical encoding that
+     * the verifier reproduces.
+     */
+    private byte[] sign(Template template, ByteString serializedDetails) throws GeneralSecurityException, IOException {
+        final int size = template.requestPrototype.getSerializedSize()
+                + CodedOutputStream.computeBytesSize(SERIALIZED_PAYMENT_DETAILS_FIELD, serializedDetails)
+                + CodedOutputStream.computeBytesSize(SIGNATURE_FIELD, ByteString.EMPTY);
+        byte[] buffer = signingBuffer.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+            signingBuffer.set(buffer);
+        }
+
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer, 0, size);
+        template.requestPrototype.writeTo(out);
+        out.writeBytes(SERIALIZED_PAYMENT_DETAILS_FIELD, serializedDetails);
+        out.writeBytes(SIGNATURE_FIELD, ByteString.EMPTY);
+        out.checkNoSpaceLeft();
+
+        final Signature signature = template.signature.get();
+        signature.update(buffer, 0, size);
+        return signature.sign();
+    }
+
+    /**
+     * The parts of a payment request which are the same for every request a merchant issues. Immutable, and may be
+     * shared between threads.
+     */
+    public static final class Template {
+        private final Protos.PaymentRequest requestPrototype;
+        private final Protos.PaymentDetails detailsPrototype;
+        private final long expirySeconds;
+        @Nullable private final PrivateKey privateKey;
+        // Signature objects are not thread safe, so each thread initialises its own.
+        private final ThreadLocal<Signature> signature;
+
+        private Template(Protos.PaymentRequest requestPrototype, Protos.PaymentDetails detailsPrototype,
+                         long expirySeconds, @Nullable final PrivateKey privateKey, @Nullable final String algorithm) {
+            this.requestPrototype = requestPrototype;
+            this.detailsPrototype = detailsPrototype;
+            this.expirySeconds = expirySeconds;
+            this.privateKey = privateKey;
+            this.signature = new ThreadLocal<Signature>() {
+                @Override
+                protected Signature initialValue() {
+                    try {
+                        final Signature signature = Signature.getInstance(algorithm);
+                        signature.initSign(privateKey);
+                        return signature;
+                    } catch (final GeneralSecurityException x) {
+                        throw new RuntimeException(x);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -22,8 +22,10 @@ import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.uri.BitcoinURI;
 import org.bitcoinj.utils.Threading;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import org.bitcoin.protocols.payments.Protos;
@@ -36,7 +38,8 @@ import java.security.KeyStoreException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * <p>Provides a standard implementation of the Payment Protocol (BIP 0070)</p>
@@ -63,10 +66,14 @@ import java.util.concurrent.Callable;
  * as a confirmation message that the payment is now "processing" or that an error occurred, and then broadcast the
  * tx itself later if needed.</p>
  *
+ * <p>Requests to the merchant go through a {@link PaymentTransport}; unless another is given, a shared
+ * {@link HttpPaymentTransport} with its own bounded thread pool and timeouts is used.</p>
+ *
  * @see <a href="https://github.com/bitcoin/bips/blob/master/bip-0070.mediawiki">BIP 0070</a>
  */
 public class PaymentSession {
-    private static ListeningExecutorService executor = Threading.THREAD_POOL;
+    private static final PaymentTransport DEFAULT_TRANSPORT = new HttpPaymentTransport();
+    private PaymentTransport transport = DEFAULT_TRANSPORT;
     private NetworkParameters params;
     private final TrustStoreLoader trustStoreLoader;
     private Protos.PaymentRequest paymentRequest;
@@ -116,11 +123,21 @@ public class PaymentSession {
      */
     public static ListenableFuture<PaymentSession> createFromBitcoinUri(final BitcoinURI uri, final boolean verifyPki, @Nullable final TrustStoreLoader trustStoreLoader)
             throws PaymentProtocolException {
+        return createFromBitcoinUri(uri, verifyPki, trustStoreLoader, DEFAULT_TRANSPORT);
+    }
+
+    /**
+     * As {@link #createFromBitcoinUri(BitcoinURI, boolean, TrustStoreLoader)}, but fetches the payment request
+     * through the given transport. The session also uses that transport for {@link #sendPayment}.
+     */
+    public static ListenableFuture<PaymentSession> createFromBitcoinUri(final BitcoinURI uri, final boolean verifyPki,
+            @Nullable final TrustStoreLoader trustStoreLoader, final PaymentTransport transport)
+            throws PaymentProtocolException {
         String url = uri.getPaymentRequestUrl();
         if (url == null)
             throw new PaymentProtocolException.InvalidPaymentRequestURL("No payment request URL (r= parameter) in BitcoinURI " + uri);
         try {
-            return fetchPaymentRequest(new URI(url), verifyPki, trustStoreLoader);
+            return fetchPaymentRequest(new URI(url), verifyPki, trustStoreLoader, transport);
         } catch (URISyntaxException e) {
             throw new PaymentProtocolException.InvalidPaymentRequestURL(e);
         }
@@ -159,28 +176,86 @@ public class PaymentSession {
      */
     public static ListenableFuture<PaymentSession> createFromUrl(final String url, final boolean verifyPki, @Nullable final TrustStoreLoader trustStoreLoader)
             throws PaymentProtocolException {
+        return createFromUrl(url, verifyPki, trustStoreLoader, DEFAULT_TRANSPORT);
+    }
+
+    /**
+     * As {@link #createFromUrl(String, boolean, TrustStoreLoader)}, but fetches the payment request through the
+     * given transport. The session also uses that transport for {@link #sendPayment}.
+     */
+    public static ListenableFuture<PaymentSession> createFromUrl(final String url, final boolean verifyPki,
+            @Nullable final TrustStoreLoader trustStoreLoader, final PaymentTransport transport)
+            throws PaymentProtocolException {
         if (url == null)
             throw new PaymentProtocolException.InvalidPaymentRequestURL("null paymentRequestUrl");
         try {
-            return fetchPaymentRequest(new URI(url), verifyPki, trustStoreLoader);
+            return fetchPaymentRequest(new URI(url), verifyPki, trustStoreLoader, transport);
         } catch(URISyntaxException e) {
             throw new PaymentProtocolException.InvalidPaymentRequestURL(e);
         }
     }
 
-    private static ListenableFuture<PaymentSession> fetchPaymentRequest(final URI uri, final boolean verifyPki, @Nullable final TrustStoreLoader trustStoreLoader) {
-        return executor.submit(new Callable<PaymentSession>() {
+    private static ListenableFuture<PaymentSession> fetchPaymentRequest(final URI uri, final boolean verifyPki,
+            @Nullable final TrustStoreLoader trustStoreLoader, final PaymentTransport transport) {
+        final ListenableFuture<byte[]> response;
+        try {
+            response = transport.get(uri.toURL(), PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
+        } catch (MalformedURLException e) {
+            return Futures.immediateFailedFuture(new PaymentProtocolException.InvalidPaymentRequestURL(e));
+        } catch (IllegalArgumentException e) {
+            // Thrown by toURL() for relative URIs
+            return Futures.immediateFailedFuture(new PaymentProtocolException.InvalidPaymentRequestURL(e));
+        }
+        return parseResponse(response, new ResponseParser<PaymentSession>() {
             @Override
-            public PaymentSession call() throws Exception {
-                HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
-                connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
-                connection.setUseCaches(false);
-                Protos.PaymentRequest paymentRequest = Protos.PaymentRequest.parseFrom(connection.getInputStream());
-                return new PaymentSession(paymentRequest, verifyPki, trustStoreLoader);
+            public PaymentSession parse(byte[] body) throws Exception {
+                Protos.PaymentRequest paymentRequest = Protos.PaymentRequest.parseFrom(body);
+                PaymentSession session = new PaymentSession(paymentRequest, verifyPki, trustStoreLoader);
+                session.setTransport(transport);
+                return session;
             }
         });
     }
 
+    /**
+     * Parses a response from the merchant on the bitcoinj thread pool, so that PKI verification does not hold up
+     * the transport's threads. A {@link com.google.common.base.Function} given to {@link Futures#transform} cannot
+     * throw the checked exceptions parsing does, so the result is completed here, failing with the parser's own
+     * exception, such as a {@link PaymentProtocolException}.
+     */
+    private static <T> ListenableFuture<T> parseResponse(final ListenableFuture<byte[]> response,
+                                                         final ResponseParser<T> parser) {
+        final SettableFuture<T> result = SettableFuture.create();
+        Futures.addCallback(response, new FutureCallback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] body) {
+                try {
+                    result.set(parser.parse(body));
+                } catch (Exception e) {
+                    result.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.setException(t);
+            }
+        }, Threading.THREAD_POOL);
+        // Cancelling the result cancels the request, as it would with Futures.transform
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled())
+                    response.cancel(false);
+            }
+        }, Threading.SAME_THREAD);
+        return result;
+    }
+
+    private interface ResponseParser<T> {
+        T parse(byte[] body) throws Exception;
+    }
+
     /**
      * Creates a PaymentSession from the provided {@link Protos.PaymentRequest}.
      * Verifies PKI by default.
@@ -350,31 +425,24 @@ public class PaymentSession {
 
     @VisibleForTesting
     protected ListenableFuture<PaymentProtocol.Ack> sendPayment(final URL url, final Protos.Payment payment) {
-        return executor.submit(new Callable<PaymentProtocol.Ack>() {
+        ListenableFuture<byte[]> response = transport.post(url, PaymentProtocol.MIMETYPE_PAYMENT,
+                PaymentProtocol.MIMETYPE_PAYMENTACK, payment.toByteArray());
+        return parseResponse(response, new ResponseParser<PaymentProtocol.Ack>() {
             @Override
-            public PaymentProtocol.Ack call() throws Exception {
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", PaymentProtocol.MIMETYPE_PAYMENT);
-                connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTACK);
-                connection.setRequestProperty("Content-Length", Integer.toString(payment.getSerializedSize()));
-                connection.setUseCaches(false);
-                connection.setDoInput(true);
-                connection.setDoOutput(true);
-
-                // Send request.
-                DataOutputStream outStream = new DataOutputStream(connection.getOutputStream());
-                payment.writeTo(outStream);
-                outStream.flush();
-                outStream.close();
-
-                // Get response.
-                Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(connection.getInputStream());
+            public PaymentProtocol.Ack parse(byte[] body) throws Exception {
+                Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(body);
                 return PaymentProtocol.parsePaymentAck(paymentAck);
             }
         });
     }
 
+    /**
+     * Sets the transport used to send the Payment message to the merchant.
+     */
+    public void setTransport(PaymentTransport transport) {
+        this.transport = checkNotNull(transport);
+    }
+
     private void parsePaymentRequest(Protos.PaymentRequest request) throws PaymentProtocolException {
         try {
             if (request == null)
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.net.URL;
+
+/**
+ * Carries payment protocol messages to and from a merchant. {@link PaymentSession}
+ * uses {@link HttpPaymentTransport} unless given another implementation, for
+ * example one backed by an application's existing HTTP client.
+ *
+ * <p>Implementations must not block the calling thread; the returned futures
+ * complete with the raw response body once it has been read in full.</p>
+ */
+public interface PaymentTransport {
+    /**
+     * Fetch a resource, such as a serialized payment request.
+     *
+     * @param accept the MIME type to ask for.
+     */
+    ListenableFuture<byte[]> get(URL url, String accept);
+
+    /**
+     * Post a body, such as a serialized payment, and return the response.
+     */
+    ListenableFuture<byte[]> post(URL url, String contentType, String accept, byte[] body);
+}
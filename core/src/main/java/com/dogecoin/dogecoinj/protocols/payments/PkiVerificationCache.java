@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import org.bitcoinj.core.Sha256Hash;
+import com.google.protobuf.ByteString;
+
+import javax.annotation.Nullable;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers certificate chains which passed PKIX path validation, so that
+ * repeated payment requests from the same merchant skip the validation. Entries
+ * are keyed by the SHA-256 digest of the request's PKI data together with a
+ * digest of the trusted certificates in the trust store it was validated
+ * against, and expire after the configured time to live or when the first
+ * certificate in the chain (trust anchor included) expires, whichever is
+ * sooner.</p>
+ *
+ * <p>Only path validation is cached. The signature over each payment request is
+ * still checked every time, in
+ * {@link PaymentProtocol#verifyPaymentRequestPki(org.bitcoin.protocols.payments.Protos.PaymentRequest, KeyStore, PkiVerificationCache)}.</p>
+ *
+ * <p>Trust stores are compared by contents, not identity, so that trust
+ * stores loaded afresh for each payment request, as bitcoinj's
+ * {@link org.bitcoinj.crypto.TrustStoreLoader}s load them, share entries. The
+ * cache keeps no reference to the trust stores themselves.</p>
+ */
+public class PkiVerificationCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** The cache used by {@link PaymentProtocol#verifyPaymentRequestPki(org.bitcoin.protocols.payments.Protos.PaymentRequest, KeyStore)}. */
+    public static final PkiVerificationCache DEFAULT = new PkiVerificationCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+
+    private final long ttlMillis;
+    private final Map<Key, ValidatedChain> entries;
+
+    public PkiVerificationCache(final int maxEntries, long ttlMillis) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        checkArgument(ttlMillis >= 0, "ttlMillis must not be negative");
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Key, ValidatedChain>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ValidatedChain> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Nullable
+    ValidatedChain get(KeyStore trustStore, ByteString pkiData) throws KeyStoreException {
+        return get(new Key(trustStore, pkiData));
+    }
+
+    @Nullable
+    synchronized ValidatedChain get(Key key) {
+        final ValidatedChain chain = entries.get(key);
+        if (chain != null && System.currentTimeMillis() >= chain.expiresAtMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return chain;
+    }
+
+    synchronized void put(Key key, List<X509Certificate> certs, PublicKey publicKey, TrustAnchor trustAnchor,
+                          @Nullable String displayName) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        for (X509Certificate cert : certs)
+            expiresAt = Math.min(expiresAt, cert.getNotAfter().getTime());
+        if (trustAnchor.getTrustedCert() != null)
+            expiresAt = Math.min(expiresAt, trustAnchor.getTrustedCert().getNotAfter().getTime());
+        entries.put(key, new ValidatedChain(publicKey, trustAnchor, displayName, expiresAt));
+    }
+
+    /** Number of chains currently cached, including any which have expired but not yet been looked up. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** The outcome of validating a chain, everything needed to check a signature made with it. */
+    static class ValidatedChain {
+        final PublicKey publicKey;
+        final TrustAnchor trustAnchor;
+        @Nullable final String displayName;
+        final long expiresAtMillis;
+
+        private ValidatedChain(PublicKey publicKey, TrustAnchor trustAnchor, @Nullable String displayName,
+                               long expiresAtMillis) {
+            this.publicKey = publicKey;
+            this.trustAnchor = trustAnchor;
+            this.displayName = displayName;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /** A certificate chain, and the trust store it is validated against. */
+    static class Key {
+        private final Sha256Hash trustStoreDigest;
+        private final Sha256Hash chainDigest;
+
+        Key(KeyStore trustStore, ByteString pkiData) throws KeyStoreException {
+            this.trustStoreDigest = digestTrustedCertificates(trustStore);
+            this.chainDigest = Sha256Hash.of(pkiData.toByteArray());
+        }
+
+        /** Digest the trusted certificates, which are what PKIX path validation uses, in alias order. */
+        private static Sha256Hash digestTrustedCertificates(KeyStore trustStore) throws KeyStoreException {
+            final List<String> aliases = Collections.list(trustStore.aliases());
+            Collections.sort(aliases);
+            final MessageDigest digest = Sha256Hash.newDigest();
+            try {
+                for (String alias : aliases) {
+                    if (!trustStore.isCertificateEntry(alias))
+                        continue;
+                    final Certificate cert = trustStore.getCertificate(alias);
+                    if (cert != null)
+                        digest.update(cert.getEncoded());
+                }
+            } catch (CertificateEncodingException x) {
+                throw new KeyStoreException(x);
+            }
+            return Sha256Hash.wrap(digest.digest());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key other = (Key) o;
+            return trustStoreDigest.equals(other.trustStoreDigest) && chainDigest.equals(other.chainDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * trustStoreDigest.hashCode() + chainDigest.hashCode();
+        }
+    }
+}
@@ -18,7 +18,11 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AltcoinNetworkParameters;
+import org.libdohj.core.AssumeValid;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.AuxPoWPruning;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.core.MerkleRootCalculator;
 import org.libdohj.core.ScryptHash;
 import org.libdohj.params.AbstractLitecoinParams;
 
@@ -28,11 +32,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.EnumSet;
 import java.util.List;
 
 import static org.bitcoinj.core.Utils.reverseBytes;
 import static org.libdohj.core.Utils.scryptDigest;
+import static org.libdohj.core.Utils.scryptDigests;
 
 /**
  * <p>A block is a group of transactions, and is one of the fundamental data structures of the Bitcoin system.
@@ -52,6 +59,10 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
 
     /** AuxPoW header element, if applicable. */
     @Nullable private AuxPoW auxpow;
+    /** Whether the AuxPoW header has passed its proof of work check. Kept when the header itself is pruned. */
+    private boolean auxpowVerified = false;
+    /** Hash of the parent block, kept when the AuxPoW header is pruned. */
+    @Nullable private Sha256Hash auxpowParentHash;
 
     /**
      * Whether the chain this block belongs to support AuxPoW, used to avoid
@@ -96,6 +107,31 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         super(params, payloadBytes, serializer, length);
     }
 
+    /**
+     * Parse an 80 byte header whose block hash is already known, such as one
+     * read back from a block store. On networks which do not use SHA-256D for
+     * block hashes, such as Dash, the hash is taken as given rather than
+     * calculated again. It is not checked, so it must come from a trusted source.
+     */
+    public AltcoinBlock(NetworkParameters params, byte[] headerBytes, MessageSerializer serializer, Sha256Hash knownHash)
+            throws ProtocolException {
+        this(params, headerBytes, serializer, knownHash, null);
+    }
+
+    /**
+     * Parse an 80 byte header whose block hash, and possibly scrypt hash, are
+     * already known, such as one read back from a block store. Neither is
+     * checked, so they must come from a trusted source.
+     *
+     * @param knownScryptHash scrypt hash of the header, or null if not known.
+     */
+    public AltcoinBlock(NetworkParameters params, byte[] headerBytes, MessageSerializer serializer, Sha256Hash knownHash,
+                        @Nullable ScryptHash knownScryptHash) throws ProtocolException {
+        this(params, headerBytes, 0, serializer, Block.HEADER_SIZE);
+        this.altcoinHash = knownHash;
+        this.scryptHash = knownScryptHash;
+    }
+
     /**
      * Construct a block initialized with all the given fields.
      * @param params Which network the block is for.
@@ -113,14 +149,20 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
     }
 
     private ScryptHash calculateScryptHash() {
+        try {
+            return new ScryptHash(reverseBytes(scryptDigest(getScryptInput())));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+    }
+
+    private byte[] getScryptInput() {
         try {
             ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
             writeHeader(bos);
-            return new ScryptHash(reverseBytes(scryptDigest(bos.toByteArray())));
+            return bos.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException(e); // Cannot happen.
-        } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e); // Cannot happen.
         }
     }
 
@@ -130,6 +172,82 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
 
     public void setAuxPoW(AuxPoW auxpow) {
         this.auxpow = auxpow;
+        this.auxpowVerified = false;
+        this.auxpowParentHash = null;
+    }
+
+    /**
+     * Returns true if the AuxPoW header of this block has passed its proof of
+     * work check, including where the header has since been pruned and
+     * {@link #getAuxPoW()} returns null. See {@link AuxPoWPruning}.
+     */
+    public boolean isAuxPoWVerified() {
+        return auxpowVerified;
+    }
+
+    /**
+     * Drop the AuxPoW header, marking it as verified. Only for block stores
+     * which restore headers stored after their AuxPoW header was verified,
+     * without keeping the header itself; public because those stores live
+     * outside this package. Nothing checks the claim, so it must only be made
+     * for headers read back from a store they were verified before being
+     * written to. See {@link AuxPoWPruning}.
+     *
+     * @param parentHash hash of the parent block, or null if not known.
+     */
+    public void setAuxPoWVerified(@Nullable Sha256Hash parentHash) {
+        this.auxpow = null;
+        this.auxpowVerified = true;
+        this.auxpowParentHash = parentHash;
+    }
+
+    @Override
+    public void setNonce(long nonce) {
+        super.setNonce(nonce);
+        headerChanged();
+    }
+
+    @Override
+    public void setTime(long time) {
+        super.setTime(time);
+        headerChanged();
+    }
+
+    @Override
+    public void setDifficultyTarget(long compactForm) {
+        super.setDifficultyTarget(compactForm);
+        headerChanged();
+    }
+
+    @Override
+    void setPrevBlockHash(Sha256Hash prevBlockHash) {
+        super.setPrevBlockHash(prevBlockHash);
+        headerChanged();
+    }
+
+    @Override
+    void setMerkleRoot(Sha256Hash value) {
+        super.setMerkleRoot(value);
+        headerChanged();
+    }
+
+    /**
+     * Forget everything calculated from the header: its hashes, and whether
+     * its AuxPoW header was verified, since that proof commits to the old hash.
+     */
+    private void headerChanged() {
+        altcoinHash = null;
+        scryptHash = null;
+        auxpowVerified = false;
+    }
+
+    /**
+     * Returns the hash of the parent block of the AuxPoW header, or null if
+     * there is no AuxPoW header or it was pruned without keeping the hash.
+     */
+    @Nullable
+    public Sha256Hash getAuxPoWParentHash() {
+        return auxpow != null ? auxpow.getParentBlockHeader().getHash() : auxpowParentHash;
     }
 
     /**
@@ -142,6 +260,49 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         return scryptHash;
     }
 
+    /**
+     * Returns the Scrypt hash of the block if it has already been calculated,
+     * otherwise null, without calculating it.
+     */
+    @Nullable
+    public ScryptHash getCachedScryptHash() {
+        return scryptHash;
+    }
+
+    /**
+     * Calculates ahead, several at a time with {@link org.libdohj.core.Utils#scryptDigests}, the scrypt hashes that
+     * checking the proof of work of the given headers needs: of each header, or of its parent block header if it is
+     * merged mined. Does nothing unless the network's proof of work is scrypt.
+     */
+    public static void calculateScryptHashes(final List<? extends Block> blocks) {
+        final List<AltcoinBlock> pending = new ArrayList<AltcoinBlock>(blocks.size());
+        for (Block block : blocks) {
+            if (!(block instanceof AltcoinBlock) || !(block.getParams() instanceof AltcoinNetworkParameters))
+                continue;
+            final AltcoinNetworkParameters altParams = (AltcoinNetworkParameters) block.getParams();
+            if (!altParams.isProofOfWorkScrypt())
+                continue;
+            final AltcoinBlock altBlock = (AltcoinBlock) block;
+            final AltcoinBlock hashed = altBlock.auxpow != null ? altBlock.auxpow.getParentBlockHeader() : altBlock;
+            if (hashed.scryptHash == null)
+                pending.add(hashed);
+        }
+        if (pending.isEmpty())
+            return;
+
+        final byte[][] inputs = new byte[pending.size()][];
+        for (int i = 0; i < inputs.length; i++)
+            inputs[i] = pending.get(i).getScryptInput();
+        final byte[][] digests;
+        try {
+            digests = scryptDigests(inputs);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+        for (int i = 0; i < digests.length; i++)
+            pending.get(i).scryptHash = new ScryptHash(reverseBytes(digests[i]));
+    }
+
     /**
      * Returns the Scrypt hash of the block.
      */
@@ -254,24 +415,90 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         }
     }
 
-    /** Returns a copy of the block, but without any transactions. */
+    /**
+     * Returns a copy of the block, but without any transactions, keeping the
+     * whole AuxPoW header.
+     */
     @Override
     public Block cloneAsHeader() {
+        return cloneAsHeader(AuxPoWPruning.NONE);
+    }
+
+    /**
+     * Returns a copy of the block, but without any transactions. If this
+     * block's AuxPoW header has been verified, the copy keeps only as much of
+     * it as the given pruning allows. Used by
+     * {@link org.libdohj.core.AuxPoWPruningBlockStore}. See {@link AuxPoWPruning}.
+     */
+    public AltcoinBlock cloneAsHeader(AuxPoWPruning pruning) {
         AltcoinBlock block = new AltcoinBlock(params, getRawVersion());
         super.copyBitcoinHeaderTo(block);
-        block.auxpow = auxpow;
+        // Same header, so the same hashes
+        block.altcoinHash = altcoinHash;
+        block.scryptHash = scryptHash;
+        block.auxpowVerified = auxpowVerified;
+        if (auxpowVerified && pruning != AuxPoWPruning.NONE) {
+            if (pruning == AuxPoWPruning.PARENT_HASH)
+                block.auxpowParentHash = getAuxPoWParentHash();
+        } else {
+            block.auxpow = auxpow;
+            block.auxpowParentHash = auxpowParentHash;
+        }
         return block;
     }
 
     /** Returns true if the hash of the block is OK (lower than difficulty target). */
     protected boolean checkProofOfWork(boolean throwException) throws VerificationException {
+        return checkProofOfWork(throwException, true);
+    }
+
+    /**
+     * Checks the proof of work of a header which has just passed
+     * {@link #checkHeaderBeforeProofOfWork()}, so that the structure of its
+     * AuxPoW header is not checked again: only the parent block's proof of
+     * work is left.
+     *
+     * @throws VerificationException if the proof of work is invalid.
+     */
+    public void checkProofOfWorkAfterHeader() throws VerificationException {
+        checkProofOfWork(true, false);
+    }
+
+    /**
+     * @param checkAuxPoWStructure false if {@link #checkHeaderBeforeProofOfWork()} has just checked the structure
+     * of the AuxPoW header.
+     */
+    private boolean checkProofOfWork(boolean throwException, boolean checkAuxPoWStructure)
+            throws VerificationException {
+        final Object event = ConsensusEvents.beginProofOfWork();
+        boolean valid = false;
+        try {
+            valid = verifyProofOfWork(throwException, checkAuxPoWStructure);
+            return valid;
+        } finally {
+            ConsensusEvents.endProofOfWork(event, params, event != null ? getHash() : null, false, valid);
+        }
+    }
+
+    private boolean verifyProofOfWork(boolean throwException, boolean checkAuxPoWStructure)
+            throws VerificationException {
         if (params instanceof AltcoinNetworkParameters) {
+            final AssumeValid assumeValid = AssumeValid.getActive();
+            if (assumeValid != null && assumeValid.isProofOfWorkAssumed(this))
+                return true;
+
             BigInteger target = getDifficultyTargetAsInteger();
 
             if (params instanceof AuxPoWNetworkParameters) {
                 final AuxPoWNetworkParameters auxParams = (AuxPoWNetworkParameters)this.params;
                 if (auxParams.isAuxPoWBlockVersion(getRawVersion()) && null != auxpow) {
-                    return auxpow.checkProofOfWork(this.getHash(), target, throwException);
+                    auxpowVerified = auxpow.checkProofOfWork(this.getHash(), target, throwException,
+                            checkAuxPoWStructure);
+                    return auxpowVerified;
+                }
+                if (auxParams.isAuxPoWBlockVersion(getRawVersion()) && auxpowVerified) {
+                    // AuxPoW header pruned after it was verified
+                    return true;
                 }
             }
 
@@ -301,7 +528,95 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
      */
     @Override
     public void verifyHeader() throws VerificationException {
-        super.verifyHeader();
+        // Includes Block's timestamp check, so the proof of work is all that is left of super.verifyHeader()
+        checkHeaderBeforeProofOfWork();
+        checkProofOfWorkAfterHeader();
+    }
+
+    /**
+     * Verifies both the header and that the transactions hash to the merkle root in the header. The transactions
+     * are checked before the proof of work, as hashing them costs less than a memory-hard hash of the header.
+     */
+    @Override
+    public void verify(final int height, final EnumSet<VerifyFlag> flags) throws VerificationException {
+        checkHeaderBeforeProofOfWork();
+        verifyTransactions(height, flags);
+        checkProofOfWorkAfterHeader();
+    }
+
+    /**
+     * Verifies the block as {@link #verify(int, EnumSet)} does, but calculates the transaction IDs and merkle root
+     * with the given calculator, on its worker threads. The result is the same, and for large blocks it comes sooner.
+     */
+    public void verify(final int height, final EnumSet<VerifyFlag> flags, final MerkleRootCalculator calculator)
+            throws VerificationException {
+        checkHeaderBeforeProofOfWork();
+        verifyTransactions(height, flags, calculator);
+        checkProofOfWorkAfterHeader();
+    }
+
+    /**
+     * Checks the transactions as {@link #verifyTransactions(int, EnumSet)} does, in the same order, but calculates
+     * the transaction IDs and merkle root with the given calculator.
+     */
+    public void verifyTransactions(final int height, final EnumSet<VerifyFlag> flags,
+                                   final MerkleRootCalculator calculator) throws VerificationException {
+        final List<Transaction> transactions = getTransactions();
+        if (transactions == null || transactions.isEmpty())
+            throw new VerificationException("Block had no transactions");
+        if (this.getOptimalEncodingMessageSize() > MAX_BLOCK_SIZE)
+            throw new VerificationException("Block larger than MAX_BLOCK_SIZE");
+
+        // The first transaction in a block must always be a coinbase transaction, and the rest must not be.
+        if (!transactions.get(0).isCoinBase())
+            throw new VerificationException("First tx is not coinbase");
+        if (flags.contains(VerifyFlag.HEIGHT_IN_COINBASE) && height >= BLOCK_HEIGHT_GENESIS)
+            transactions.get(0).checkCoinBaseHeight(height);
+        for (int i = 1; i < transactions.size(); i++) {
+            if (transactions.get(i).isCoinBase())
+                throw new VerificationException("TX " + i + " is coinbase when it should not be.");
+        }
+
+        final Sha256Hash calculatedRoot = calculator.calculateMerkleRoot(transactions);
+        if (!calculatedRoot.equals(getMerkleRoot()))
+            throw new VerificationException("Merkle hashes do not match: " + calculatedRoot + " vs " + getMerkleRoot());
+
+        int sigOps = 0;
+        for (Transaction tx : transactions)
+            sigOps += tx.getSigOpCount();
+        if (sigOps > MAX_BLOCK_SIGOPS)
+            throw new VerificationException("Block had too many Signature Operations");
+
+        for (Transaction tx : transactions)
+            tx.verify();
+    }
+
+    /**
+     * Checks the parts of the header which cost at most a few SHA-256 hashes: that the timestamp is not too far in
+     * the future, that the difficulty target is in range and, for merged mined blocks, the chain ID and everything
+     * in the AuxPoW header except the parent block's proof of work. {@link #verifyHeader()} runs these before
+     * checking the proof of work, which for scrypt coins is a memory-hard hash, so that junk headers are cheap to
+     * reject.
+     *
+     * @throws VerificationException if any of the checks fail.
+     */
+    public void checkHeaderBeforeProofOfWork() throws VerificationException {
+        final long maxTime = Utils.currentTimeSeconds() + ALLOWED_TIME_DRIFT;
+        if (getTimeSeconds() > maxTime)
+            throw new VerificationException("Block too far in future: " + getTimeSeconds() + " vs " + maxTime);
+
+        // Throws if the target is zero, negative or easier than the network allows
+        getDifficultyTargetAsInteger();
+
+        if (params instanceof AuxPoWNetworkParameters) {
+            final AuxPoWNetworkParameters auxParams = (AuxPoWNetworkParameters) this.params;
+            if (auxParams.isAuxPoWBlockVersion(getRawVersion()) && null != auxpow) {
+                if (!auxParams.isTestNet() && getChainID() != auxParams.getChainID())
+                    throw new VerificationException("Block has chain ID " + getChainID() + ", expected "
+                            + auxParams.getChainID());
+                auxpow.checkStructure(getHash(), true);
+            }
+        }
     }
 
     /**
@@ -19,6 +19,9 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.core.Metrics;
+import org.libdohj.core.ParentProofOfWorkCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -121,6 +124,18 @@ public class AuxPoW extends ChildMessage {
 
     @Override
     protected void parse() throws ProtocolException {
+        final long start = Metrics.startTimer();
+        try {
+            parseAuxPoW();
+        } catch (ProtocolException e) {
+            Metrics.increment(Metrics.AUXPOW_PARSE_FAILURE);
+            throw e;
+        } finally {
+            Metrics.recordTime(Metrics.AUXPOW_PARSE, start);
+        }
+    }
+
+    private void parseAuxPoW() throws ProtocolException {
         cursor = offset;
         transaction = new Transaction(params, payload, cursor, this, serializer, Message.UNKNOWN_LENGTH);
         cursor += transaction.getOptimalEncodingMessageSize();
@@ -243,36 +258,82 @@ public class AuxPoW extends ChildMessage {
      */
     protected boolean checkProofOfWork(Sha256Hash hashAuxBlock,
         BigInteger target, boolean throwException) throws VerificationException {
-        if (!(params instanceof AuxPoWNetworkParameters)) {
+        return checkProofOfWork(hashAuxBlock, target, throwException, true);
+    }
+
+    /**
+     * As {@link #checkProofOfWork(Sha256Hash, BigInteger, boolean)}, but
+     * optionally leaving out {@link #checkStructure}, for callers which have
+     * just checked it against the same block hash.
+     *
+     * @param checkStructure false to check only the parent block's proof of work.
+     */
+    boolean checkProofOfWork(Sha256Hash hashAuxBlock, BigInteger target,
+        boolean throwException, boolean checkStructure) throws VerificationException {
+        final long start = Metrics.startTimer();
+        final Object event = ConsensusEvents.beginProofOfWork();
+        boolean valid = false;
+        try {
+            valid = verifyProofOfWork(hashAuxBlock, target, throwException, checkStructure);
+            return valid;
+        } finally {
+            Metrics.recordTime(Metrics.AUXPOW_VERIFY, start);
+            ConsensusEvents.endProofOfWork(event, params, hashAuxBlock, true, valid);
+        }
+    }
+
+    private boolean verifyProofOfWork(Sha256Hash hashAuxBlock,
+        BigInteger target, boolean throwException, boolean checkStructure) throws VerificationException {
+        if (checkStructure && !checkStructure(hashAuxBlock, throwException)) {
+            return false;
+        }
+
+        final AuxPoWNetworkParameters altcoinParams = (AuxPoWNetworkParameters) params;
+        final ParentProofOfWorkCache cache = altcoinParams.getParentProofOfWorkCache();
+        Sha256Hash hash = cache != null
+                ? cache.getDifficultyHash(getParentBlockHeader())
+                : altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
+        BigInteger hashVal = hash.toBigInteger();
+        if (hashVal.compareTo(target) > 0) {
+            // Proof of work check failed!
+            Metrics.increment(Metrics.AUXPOW_VERIFY_FAILURE, "high-hash");
             if (throwException) {
-                // Should be impossible
-                throw new VerificationException("Network parameters are not an instance of AuxPoWNetworkParameters, AuxPoW support is not available.");
+                throw new VerificationException("Hash is higher than target: " + hash.toString() + " vs "
+                        + target.toString(16));
             }
             return false;
         }
+
+        return true;
+    }
+
+    /**
+     * Check everything about this AuxPoW header except the parent block's
+     * proof of work: the merkle branches, the coinbase and the chain IDs. This
+     * costs a handful of SHA-256 hashes, where the parent block's proof of
+     * work may cost a memory-hard one, so is checked first.
+     *
+     * @param hashAuxBlock hash of the block the AuxPoW header is attached to.
+     */
+    boolean checkStructure(Sha256Hash hashAuxBlock, boolean throwException) throws VerificationException {
+        if (!(params instanceof AuxPoWNetworkParameters)) {
+            // Should be impossible
+            return fail("not-auxpow-network", "Network parameters are not an instance of AuxPoWNetworkParameters, AuxPoW support is not available.", throwException);
+        }
         final AuxPoWNetworkParameters altcoinParams = (AuxPoWNetworkParameters) params;
         
         if (0 != this.getCoinbaseBranch().getIndex()) {
-            if (throwException) {
-                // I don't like the message, but it correlates with what's in the reference client.
-                throw new VerificationException("AuxPow is not a generate");
-            }
-            return false;
+            // I don't like the message, but it correlates with what's in the reference client.
+            return fail("not-generate", "AuxPow is not a generate", throwException);
         }
 
         if (!altcoinParams.isTestNet()
             && parentBlockHeader.getChainID() == altcoinParams.getChainID()) {
-            if (throwException) {
-                throw new VerificationException("Aux POW parent has our chain ID");
-            }
-            return false;
+            return fail("parent-has-our-chain-id", "Aux POW parent has our chain ID", throwException);
         }
 
         if (this.getChainMerkleBranch().size() > 30) {
-            if (throwException) {
-                throw new VerificationException("Aux POW chain merkle branch too long");
-            }
-            return false;
+            return fail("chain-branch-too-long", "Aux POW chain merkle branch too long", throwException);
         }
 
         Sha256Hash nRootHash = getChainMerkleBranch().calculateMerkleRoot(hashAuxBlock);
@@ -281,13 +342,11 @@ public class AuxPoW extends ChildMessage {
         // Check that the coinbase transaction is in the merkle tree of the
         // parent block header
         if (!getCoinbaseBranch().calculateMerkleRoot(getCoinbase().getHash()).equals(parentBlockHeader.getMerkleRoot())) {
-            if (throwException) {
-                throw new VerificationException("Aux POW merkle root incorrect");
-            }
-            return false;
+            return fail("coinbase-not-in-parent", "Aux POW merkle root incorrect", throwException);
         }
 
         if (this.getCoinbase().getInputs().isEmpty()) {
+            Metrics.increment(Metrics.AUXPOW_VERIFY_FAILURE, "coinbase-no-inputs");
             throw new VerificationException("Coinbase transaction has no inputs");
         }
 
@@ -304,10 +363,7 @@ public class AuxPoW extends ChildMessage {
                 // Enforce only one chain merkle root by checking that a single instance of the merged
                 // mining header exists just before.
                 if (pcHead >= 0) {
-                    if (throwException) {
-                        throw new VerificationException("Multiple merged mining headers in coinbase");
-                    }
-                    return false;
+                    return fail("multiple-merged-mining-headers", "Multiple merged mining headers in coinbase", throwException);
                 }
                 pcHead = scriptIdx;
             } else if (arrayMatch(script, scriptIdx, vchRootHash)) {
@@ -316,28 +372,19 @@ public class AuxPoW extends ChildMessage {
         }
 
         if (pc == -1) {
-            if (throwException) {
-                throw new VerificationException("Aux POW missing chain merkle root in parent coinbase");
-            }
-            return false;
+            return fail("missing-chain-root", "Aux POW missing chain merkle root in parent coinbase", throwException);
         }
 
         if (pcHead != -1) {
             if (pcHead + MERGED_MINING_HEADER.length != pc) {
-                if (throwException) {
-                    throw new VerificationException("Merged mining header is not just before chain merkle root");
-                }
-                return false;
+                return fail("misplaced-merged-mining-header", "Merged mining header is not just before chain merkle root", throwException);
             }
         } else {
             // For backward compatibility.
             // Enforce only one chain merkle root by checking that it starts early in the coinbase.
             // 8-12 bytes are enough to encode extraNonce and nBits.
             if (pc > MAX_INDEX_PC_BACKWARDS_COMPATIBILITY) {
-                if (throwException) {
-                    throw new VerificationException("Aux POW chain merkle root must start in the first 20 bytes of the parent coinbase");
-                }
-                return false;
+                return fail("chain-root-too-late", "Aux POW chain merkle root must start in the first 20 bytes of the parent coinbase", throwException);
             }
         }
 
@@ -345,24 +392,19 @@ public class AuxPoW extends ChildMessage {
         // a nonce and our chain ID and comparing to the index.
         pc += vchRootHash.length;
         if ((script.length - pc) < 8) {
-            if (throwException) {
-                throw new VerificationException("Aux POW missing chain merkle tree size and nonce in parent coinbase");
-            }
-            return false;
+            return fail("missing-size-and-nonce", "Aux POW missing chain merkle tree size and nonce in parent coinbase", throwException);
         }
 
         byte[] sizeBytes = Utils.reverseBytes(Arrays.copyOfRange(script, pc, pc + 4));
         int branchSize = ByteBuffer.wrap(sizeBytes).getInt();
         if (branchSize != (1 << getChainMerkleBranch().size())) {
-            if (throwException) {
-                throw new VerificationException("Aux POW merkle branch size does not match parent coinbase");
-            }
-            return false;
+            return fail("branch-size-mismatch", "Aux POW merkle branch size does not match parent coinbase", throwException);
         }
 
         long nonce = getNonceFromScript(script, pc);
 
         if (getChainMerkleBranch().getIndex() != getExpectedIndex(nonce, ((AuxPoWNetworkParameters) params).getChainID(), getChainMerkleBranch().size())) {
+            Metrics.increment(Metrics.AUXPOW_VERIFY_FAILURE, "wrong-chain-index");
             if (throwException) {
                 throw new VerificationException("Aux POW wrong index in chain merkle branch for chain ID "
                     + ((AuxPoWNetworkParameters) params).getChainID() + ". Was "
@@ -372,20 +414,22 @@ public class AuxPoW extends ChildMessage {
             return false;
         }
 
-        Sha256Hash hash = altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
-        BigInteger hashVal = hash.toBigInteger();
-        if (hashVal.compareTo(target) > 0) {
-            // Proof of work check failed!
-            if (throwException) {
-                throw new VerificationException("Hash is higher than target: " + hash.toString() + " vs "
-                        + target.toString(16));
-            }
-            return false;
-        }
-
         return true;
     }
 
+    /**
+     * Count a failed proof of work check by reason, then throw or return false
+     * as the caller asked. Checks with messages that are costly to build count
+     * and throw inline instead, so the message is only built when needed.
+     */
+    private static boolean fail(String reason, String message, boolean throwException) throws VerificationException {
+        Metrics.increment(Metrics.AUXPOW_VERIFY_FAILURE, reason);
+        if (throwException) {
+            throw new VerificationException(message);
+        }
+        return false;
+    }
+
     /**
      * Get the nonce value from the coinbase transaction script.
      *
@@ -460,6 +504,22 @@ public class AuxPoW extends ChildMessage {
         this.coinbaseBranch = merkleBranch;
     }
 
+    /**
+     * Set the merkle branch used to connect the block this header is
+     * attached to with the chain merkle root in the coinbase transaction.
+     */
+    public void setChainMerkleBranch(final MerkleBranch merkleBranch) {
+        this.chainMerkleBranch = merkleBranch;
+    }
+
+    /**
+     * Set the coinbase transaction of the parent block, which commits to the
+     * chain merkle root.
+     */
+    public void setCoinbase(final Transaction coinbase) {
+        this.transaction = coinbase;
+    }
+
     /**
      * Set the parent chain block header.
      */
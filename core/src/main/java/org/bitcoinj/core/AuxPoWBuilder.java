@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.libdohj.core.AltcoinNetworkParameters;
+import org.libdohj.core.AuxPoWNetworkParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>Merge mines one or more child blocks, attaching to each an AuxPoW header
+ * which passes {@link AltcoinBlock#verifyHeader()}. The children are put in a
+ * chain merkle tree, each at the slot {@link AuxPoW#getExpectedIndex} gives its
+ * chain ID; its root, preceded by {@link AuxPoW#MERGED_MINING_HEADER} and
+ * followed by the tree size and nonce, goes in the coinbase of a parent block
+ * whose nonce is then ground until its proof of work meets every child's
+ * target. For regtest and test networks, where that takes a few tries:</p>
+ *
+ * <pre>
+ * new AuxPoWBuilder().addChild(block).build();
+ * block.verifyHeader();
+ * </pre>
+ *
+ * <p>The children must use the same proof of work hash function for their
+ * parent blocks, for example all scrypt. The parent block is hashed with the
+ * first child's network parameters. Builders are not thread safe.</p>
+ */
+public class AuxPoWBuilder {
+    /** Parent block version. Its chain ID, 0x2000, is not that of any merged mined chain. */
+    public static final long DEFAULT_PARENT_VERSION = 0x20000000L;
+
+    /** Deepest chain merkle tree an AuxPoW header may have. */
+    private static final int MAX_CHAIN_MERKLE_HEIGHT = 30;
+
+    private final List<AltcoinBlock> children = new ArrayList<AltcoinBlock>();
+    private long parentVersion = DEFAULT_PARENT_VERSION;
+    private Sha256Hash parentPrevBlockHash = Sha256Hash.ZERO_HASH;
+    private long mergedMiningNonce = 0;
+    private byte[] coinbaseData = new byte[0];
+
+    /**
+     * Add a block to merge mine. Its hash is calculated now, so the block
+     * header must not change before {@link #build()}.
+     */
+    public AuxPoWBuilder addChild(AltcoinBlock child) {
+        final NetworkParameters params = child.getParams();
+        checkArgument(params instanceof AuxPoWNetworkParameters, "Network does not support AuxPoW");
+        checkArgument(((AuxPoWNetworkParameters) params).isAuxPoWBlockVersion(child.getRawVersion()),
+                "Block version is not an AuxPoW version: %s", child.getRawVersion());
+        // Once an AuxPoW header is attached, it would be hashed as part of the block header
+        child.getHash();
+        children.add(child);
+        return this;
+    }
+
+    /** Set the version of the parent block. */
+    public AuxPoWBuilder setParentVersion(long parentVersion) {
+        this.parentVersion = parentVersion;
+        return this;
+    }
+
+    /** Set the previous block hash of the parent block, by default zero. */
+    public AuxPoWBuilder setParentPrevBlockHash(Sha256Hash parentPrevBlockHash) {
+        this.parentPrevBlockHash = parentPrevBlockHash;
+        return this;
+    }
+
+    /**
+     * Set the nonce which, with each chain ID, chooses the child's slot in the
+     * chain merkle tree. If two children clash, a deeper tree is used.
+     */
+    public AuxPoWBuilder setMergedMiningNonce(long mergedMiningNonce) {
+        checkArgument(mergedMiningNonce >= 0 && mergedMiningNonce <= 0xffffffffL, "Nonce must fit in 32 bits");
+        this.mergedMiningNonce = mergedMiningNonce;
+        return this;
+    }
+
+    /**
+     * Set data for the parent coinbase script, before the merged mining
+     * header, as a pool would put its extra nonce there. Parent blocks with
+     * the same children and data are identical.
+     */
+    public AuxPoWBuilder setCoinbaseData(byte[] coinbaseData) {
+        checkArgument(coinbaseData.length <= 40, "Coinbase data too long");
+        this.coinbaseData = coinbaseData.clone();
+        return this;
+    }
+
+    /**
+     * Build the AuxPoW headers and attach one to each child.
+     *
+     * @return the AuxPoW headers, in the order the children were added.
+     */
+    public List<AuxPoW> build() {
+        checkState(!children.isEmpty(), "No child blocks to merge mine");
+        final int[] chainIds = new int[children.size()];
+        final Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < chainIds.length; i++) {
+            chainIds[i] = ((AuxPoWNetworkParameters) children.get(i).getParams()).getChainID();
+            checkArgument(seen.add(chainIds[i]), "Two children with chain ID %s", chainIds[i]);
+        }
+
+        final int height = getChainMerkleHeight(chainIds);
+        final int[] slots = new int[chainIds.length];
+        final byte[][] leaves = new byte[1 << height][];
+        for (int i = 0; i < chainIds.length; i++) {
+            slots[i] = AuxPoW.getExpectedIndex(mergedMiningNonce, chainIds[i], height);
+            leaves[slots[i]] = children.get(i).getHash().getReversedBytes();
+        }
+        for (int slot = 0; slot < leaves.length; slot++) {
+            if (leaves[slot] == null)
+                leaves[slot] = Sha256Hash.ZERO_HASH.getBytes();
+        }
+        final byte[][][] tree = buildTree(leaves, height);
+        final Sha256Hash chainMerkleRoot = Sha256Hash.wrapReversed(tree[height][0]);
+
+        final NetworkParameters params = children.get(0).getParams();
+        final Transaction coinbase = buildCoinbase(params, chainMerkleRoot, height);
+        final byte[] parentHeader = mineParentHeader(params, coinbase.getHash());
+
+        final List<AuxPoW> auxpows = new ArrayList<AuxPoW>(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            final AltcoinBlock child = children.get(i);
+            final NetworkParameters childParams = child.getParams();
+            final AuxPoW auxpow = new AuxPoW(childParams, child);
+            auxpow.setCoinbase(i == 0 ? coinbase : new Transaction(childParams, coinbase.bitcoinSerialize()));
+            // The coinbase is the only transaction in the parent block
+            auxpow.setCoinbaseBranch(new MerkleBranch(childParams, auxpow, new ArrayList<Sha256Hash>(), 0));
+            auxpow.setChainMerkleBranch(new MerkleBranch(childParams, auxpow, getBranch(tree, slots[i], height), slots[i]));
+            auxpow.setParentBlockHeader(new AltcoinBlock(childParams, parentHeader, 0, auxpow,
+                    childParams.getDefaultSerializer(), Block.HEADER_SIZE));
+            child.setAuxPoW(auxpow);
+            auxpows.add(auxpow);
+        }
+        return auxpows;
+    }
+
+    /** Find the shallowest chain merkle tree in which no two chain IDs have the same slot. */
+    private int getChainMerkleHeight(int[] chainIds) {
+        for (int height = 0; height <= MAX_CHAIN_MERKLE_HEIGHT; height++) {
+            if ((1 << height) < chainIds.length)
+                continue;
+            final Set<Integer> slots = new HashSet<Integer>();
+            boolean clash = false;
+            for (int chainId : chainIds)
+                clash |= !slots.add(AuxPoW.getExpectedIndex(mergedMiningNonce, chainId, height));
+            if (!clash)
+                return height;
+        }
+        throw new IllegalStateException("No chain merkle tree fits chain IDs " + Arrays.toString(chainIds)
+                + " with nonce " + mergedMiningNonce);
+    }
+
+    /** Build every level of a merkle tree, from the leaves to the root, in little endian byte order. */
+    private static byte[][][] buildTree(byte[][] leaves, int height) {
+        final byte[][][] tree = new byte[height + 1][][];
+        tree[0] = leaves;
+        for (int level = 1; level <= height; level++) {
+            final byte[][] below = tree[level - 1];
+            tree[level] = new byte[below.length / 2][];
+            for (int i = 0; i < tree[level].length; i++)
+                tree[level][i] = Sha256Hash.hashTwice(below[2 * i], 0, 32, below[2 * i + 1], 0, 32);
+        }
+        return tree;
+    }
+
+    /** Get the branch from a leaf to the root, as {@link MerkleBranch#calculateMerkleRoot} applies it. */
+    private static List<Sha256Hash> getBranch(byte[][][] tree, int slot, int height) {
+        final List<Sha256Hash> branch = new ArrayList<Sha256Hash>(height);
+        int index = slot;
+        for (int level = 0; level < height; level++) {
+            branch.add(Sha256Hash.wrapReversed(tree[level][index ^ 1]));
+            index >>= 1;
+        }
+        return branch;
+    }
+
+    private Transaction buildCoinbase(NetworkParameters params, Sha256Hash chainMerkleRoot, int height) {
+        final ByteArrayOutputStream script = new ByteArrayOutputStream();
+        try {
+            script.write(coinbaseData);
+            script.write(AuxPoW.MERGED_MINING_HEADER);
+            script.write(chainMerkleRoot.getBytes());
+            Utils.uint32ToByteStreamLE(1L << height, script);
+            Utils.uint32ToByteStreamLE(mergedMiningNonce, script);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+        final Transaction coinbase = new Transaction(params);
+        coinbase.addInput(new TransactionInput(params, coinbase, script.toByteArray()));
+        coinbase.addOutput(Coin.ZERO, new ScriptBuilder().op(ScriptOpCodes.OP_TRUE).build());
+        return coinbase;
+    }
+
+    /**
+     * Grind the nonce of a parent block header committing to the coinbase
+     * until its proof of work meets the hardest of the children's targets.
+     */
+    private byte[] mineParentHeader(NetworkParameters params, Sha256Hash coinbaseHash) {
+        BigInteger target = null;
+        long bits = 0;
+        long time = 0;
+        for (AltcoinBlock child : children) {
+            final BigInteger childTarget = child.getDifficultyTargetAsInteger();
+            if (target == null || childTarget.compareTo(target) < 0) {
+                target = childTarget;
+                bits = child.getDifficultyTarget();
+            }
+            time = Math.max(time, child.getTimeSeconds());
+        }
+
+        final byte[] header = new byte[Block.HEADER_SIZE];
+        Utils.uint32ToByteArrayLE(parentVersion, header, 0);
+        System.arraycopy(parentPrevBlockHash.getReversedBytes(), 0, header, 4, 32);
+        // A single transaction is its own merkle root
+        System.arraycopy(coinbaseHash.getReversedBytes(), 0, header, 36, 32);
+        Utils.uint32ToByteArrayLE(time, header, 68);
+        Utils.uint32ToByteArrayLE(bits, header, 72);
+
+        final AltcoinNetworkParameters altParams = (AltcoinNetworkParameters) params;
+        final MessageSerializer serializer = params.getDefaultSerializer();
+        for (long nonce = 0; nonce <= 0xffffffffL; nonce++) {
+            Utils.uint32ToByteArrayLE(nonce, header, 76);
+            final AltcoinBlock candidate = new AltcoinBlock(params, header, 0, null, serializer, Block.HEADER_SIZE);
+            if (altParams.getBlockDifficultyHash(candidate).toBigInteger().compareTo(target) <= 0)
+                return header;
+        }
+        throw new IllegalStateException("No parent block nonce meets target " + target.toString(16));
+    }
+}
@@ -17,6 +17,8 @@
 
 package org.bitcoinj.core;
 
+import org.libdohj.core.Metrics;
+
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -122,6 +124,7 @@ public class MerkleBranch extends ChildMessage {
      * Used to verify that the given leaf and root are part of the same tree.
      */
     public Sha256Hash calculateMerkleRoot(final Sha256Hash leaf) {
+        final long start = Metrics.startTimer();
         byte[] target = leaf.getReversedBytes();
         long mask = index;
         MessageDigest digest = Sha256Hash.newDigest();
@@ -141,6 +144,7 @@ public class MerkleBranch extends ChildMessage {
             target = digest.digest(target);
             mask >>= 1;
         }
+        Metrics.recordTime(Metrics.MERKLE_BRANCH_ROOT, start);
         return Sha256Hash.wrapReversed(target);
     }
 
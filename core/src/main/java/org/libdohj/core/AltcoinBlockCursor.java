@@ -0,0 +1,512 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+
+import java.util.Arrays;
+
+/**
+ * <p>Forward-only cursor over a serialized altcoin block. Walks transactions,
+ * inputs and outputs by offset into the original payload, without creating
+ * {@link Transaction} objects, so that scanning a block for a few outputs of
+ * interest is bounded by memory bandwidth rather than allocation.</p>
+ *
+ * <p>The block header and, where the network and block version indicate one is
+ * present, the AuxPoW header are skipped on construction. Each call to
+ * {@link #next()} then moves to the following transaction, after which its
+ * inputs and outputs can be inspected by index. Transaction IDs are only
+ * calculated when {@link #getTransactionHash()} is called, and a full
+ * {@link Transaction} is only built by {@link #getTransaction()}.</p>
+ *
+ * <p>All offsets returned are into the array given by {@link #getPayload()}.
+ * Cursors are not thread safe.</p>
+ */
+public class AltcoinBlockCursor {
+    /** Outpoint (36 bytes), empty script length (1 byte) and sequence number (4 bytes). */
+    private static final int MIN_INPUT_SIZE = 41;
+    /** Value (8 bytes) and empty script length (1 byte). */
+    private static final int MIN_OUTPUT_SIZE = 9;
+    private static final int OUTPOINT_SIZE = 36;
+
+    private final NetworkParameters params;
+    private final byte[] payload;
+    private final int offset;
+    private final int end;
+
+    private final long version;
+    private final int auxpowOffset;
+    private final int auxpowLength;
+    private final long transactionCount;
+
+    /** Offset of the next transaction to be read. */
+    private int cursor;
+    private int transactionIndex = -1;
+    private int transactionOffset;
+    private int transactionLength;
+
+    private int inputCount;
+    private int[] inputOffsets = new int[4];
+    private int[] inputScriptOffsets = new int[4];
+    private int[] inputScriptLengths = new int[4];
+    private int outputCount;
+    private int[] outputOffsets = new int[4];
+    private int[] outputScriptOffsets = new int[4];
+    private int[] outputScriptLengths = new int[4];
+
+    /** Size of the last variable length integer read, in bytes. */
+    private int varIntSize;
+
+    /**
+     * Create a cursor over a block that occupies the whole of the given payload.
+     */
+    public AltcoinBlockCursor(final NetworkParameters params, final byte[] payload) throws ProtocolException {
+        this(params, payload, 0, payload.length);
+    }
+
+    /**
+     * Create a cursor over a block within the given payload.
+     *
+     * @param params network parameters, used to determine whether the block has
+     * an AuxPoW header.
+     * @param payload array containing the serialized block.
+     * @param offset offset of the start of the block header within the payload.
+     * @param length length of the serialized block.
+     * @throws ProtocolException if the header or AuxPoW header are truncated.
+     */
+    public AltcoinBlockCursor(final NetworkParameters params, final byte[] payload,
+            final int offset, final int length) throws ProtocolException {
+        if (offset < 0 || length < 0 || offset + length > payload.length) {
+            throw new ProtocolException("Block extends past end of payload");
+        }
+        this.params = params;
+        this.payload = payload;
+        this.offset = offset;
+        this.end = offset + length;
+
+        checkAvailable(offset, Block.HEADER_SIZE);
+        this.version = Utils.readUint32(payload, offset);
+        cursor = offset + Block.HEADER_SIZE;
+
+        if (params instanceof AuxPoWNetworkParameters
+                && ((AuxPoWNetworkParameters) params).isAuxPoWBlockVersion(version)) {
+            auxpowOffset = cursor;
+            cursor = skipAuxPoW(cursor);
+            auxpowLength = cursor - auxpowOffset;
+        } else {
+            auxpowOffset = -1;
+            auxpowLength = 0;
+        }
+
+        if (cursor == end) {
+            // Header only, such as from a headers message with the count stripped
+            transactionCount = 0;
+        } else {
+            transactionCount = readVarInt(cursor);
+            cursor += varIntSize;
+            if (transactionCount > (end - cursor) / (MIN_INPUT_SIZE + MIN_OUTPUT_SIZE)) {
+                throw new ProtocolException("Transaction count " + transactionCount + " exceeds block size");
+            }
+        }
+    }
+
+    /**
+     * Create a cursor over a range holding a transaction alone, with no block
+     * header. Used only by {@link #getTransactionLength(byte[], int, int)}.
+     */
+    private AltcoinBlockCursor(final byte[] payload, final int offset, final int length) {
+        this.params = null;
+        this.payload = payload;
+        this.offset = offset;
+        this.end = offset + length;
+        this.version = 0;
+        this.auxpowOffset = -1;
+        this.auxpowLength = 0;
+        this.transactionCount = 0;
+        this.cursor = offset;
+    }
+
+    /**
+     * Walk a serialized transaction on its own, such as one from a payment
+     * message, checking every count and length against the bytes available as
+     * {@link #next()} does for transactions in a block, without creating a
+     * {@link Transaction}.
+     *
+     * @param payload array containing the serialized transaction.
+     * @param offset offset of the start of the transaction within the payload.
+     * @param length number of bytes the transaction may occupy.
+     * @return the length of the transaction, which may be less than
+     * {@code length} if other bytes follow it.
+     * @throws ProtocolException if the transaction is malformed or truncated.
+     */
+    public static int getTransactionLength(final byte[] payload, final int offset, final int length)
+            throws ProtocolException {
+        if (offset < 0 || length < 0 || offset + length > payload.length) {
+            throw new ProtocolException("Transaction extends past end of payload");
+        }
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(payload, offset, length);
+        return cursor.readTransaction(offset, false) - offset;
+    }
+
+    /**
+     * Move to the next transaction in the block.
+     *
+     * @return true if the cursor is now positioned on a transaction, false if
+     * there are no further transactions.
+     * @throws ProtocolException if the transaction is malformed or truncated.
+     */
+    public boolean next() throws ProtocolException {
+        if (transactionIndex + 1 >= transactionCount) {
+            transactionIndex = (int) transactionCount;
+            return false;
+        }
+        transactionIndex++;
+        transactionOffset = cursor;
+        cursor = readTransaction(cursor, true);
+        transactionLength = cursor - transactionOffset;
+        return true;
+    }
+
+    /**
+     * Read a transaction starting at the given position, optionally recording
+     * its input and output positions.
+     *
+     * @return the offset immediately after the transaction.
+     */
+    private int readTransaction(int pos, final boolean record) throws ProtocolException {
+        checkAvailable(pos, 4);
+        pos += 4; // Version
+
+        final long inCount = readVarInt(pos);
+        pos += varIntSize;
+        if (inCount > (end - pos) / MIN_INPUT_SIZE) {
+            throw new ProtocolException("Input count " + inCount + " exceeds remaining block size");
+        }
+        if (record) {
+            inputCount = (int) inCount;
+            if (inputOffsets.length < inputCount) {
+                inputOffsets = new int[inputCount];
+                inputScriptOffsets = new int[inputCount];
+                inputScriptLengths = new int[inputCount];
+            }
+        }
+        for (int inputIdx = 0; inputIdx < inCount; inputIdx++) {
+            final int inputOffset = pos;
+            checkAvailable(pos, OUTPOINT_SIZE);
+            pos += OUTPOINT_SIZE;
+            final int scriptLength = readLength(pos);
+            pos += varIntSize;
+            if (record) {
+                inputOffsets[inputIdx] = inputOffset;
+                inputScriptOffsets[inputIdx] = pos;
+                inputScriptLengths[inputIdx] = scriptLength;
+            }
+            checkAvailable(pos, scriptLength + 4);
+            pos += scriptLength + 4; // Script and sequence number
+        }
+
+        final long outCount = readVarInt(pos);
+        pos += varIntSize;
+        if (outCount > (end - pos) / MIN_OUTPUT_SIZE) {
+            throw new ProtocolException("Output count " + outCount + " exceeds remaining block size");
+        }
+        if (record) {
+            outputCount = (int) outCount;
+            if (outputOffsets.length < outputCount) {
+                outputOffsets = new int[outputCount];
+                outputScriptOffsets = new int[outputCount];
+                outputScriptLengths = new int[outputCount];
+            }
+        }
+        for (int outputIdx = 0; outputIdx < outCount; outputIdx++) {
+            final int outputOffset = pos;
+            checkAvailable(pos, 8);
+            pos += 8; // Value
+            final int scriptLength = readLength(pos);
+            pos += varIntSize;
+            if (record) {
+                outputOffsets[outputIdx] = outputOffset;
+                outputScriptOffsets[outputIdx] = pos;
+                outputScriptLengths[outputIdx] = scriptLength;
+            }
+            checkAvailable(pos, scriptLength);
+            pos += scriptLength;
+        }
+
+        checkAvailable(pos, 4);
+        return pos + 4; // Lock time
+    }
+
+    /**
+     * Skip an AuxPoW header: the parent coinbase transaction, parent block hash,
+     * coinbase and chain merkle branches, and finally the parent block header.
+     *
+     * @return the offset immediately after the AuxPoW header.
+     */
+    private int skipAuxPoW(int pos) throws ProtocolException {
+        pos = readTransaction(pos, false);
+        checkAvailable(pos, 32);
+        pos += 32;
+        pos = skipMerkleBranch(pos);
+        pos = skipMerkleBranch(pos);
+        checkAvailable(pos, Block.HEADER_SIZE);
+        return pos + Block.HEADER_SIZE;
+    }
+
+    private int skipMerkleBranch(int pos) throws ProtocolException {
+        final long hashCount = readVarInt(pos);
+        pos += varIntSize;
+        if (hashCount > (end - pos) / 32) {
+            throw new ProtocolException("Merkle branch length " + hashCount + " exceeds remaining block size");
+        }
+        final int branchSize = (int) hashCount * 32 + 4;
+        checkAvailable(pos, branchSize);
+        return pos + branchSize;
+    }
+
+    private int readLength(final int pos) throws ProtocolException {
+        final long length = readVarInt(pos);
+        if (length > end - pos) {
+            throw new ProtocolException("Script length " + length + " exceeds remaining block size");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Read a variable length integer at the given position, leaving its size
+     * in {@link #varIntSize}. Avoids allocating a {@link org.bitcoinj.core.VarInt}.
+     */
+    private long readVarInt(final int pos) throws ProtocolException {
+        checkAvailable(pos, 1);
+        final int first = 0xFF & payload[pos];
+        if (first < 253) {
+            varIntSize = 1;
+            return first;
+        } else if (first == 253) {
+            checkAvailable(pos, 3);
+            varIntSize = 3;
+            return (0xFF & payload[pos + 1]) | ((0xFF & payload[pos + 2]) << 8);
+        } else if (first == 254) {
+            checkAvailable(pos, 5);
+            varIntSize = 5;
+            return Utils.readUint32(payload, pos + 1);
+        } else {
+            checkAvailable(pos, 9);
+            varIntSize = 9;
+            final long value = Utils.readInt64(payload, pos + 1);
+            if (value < 0) {
+                throw new ProtocolException("Variable length integer out of range");
+            }
+            return value;
+        }
+    }
+
+    private void checkAvailable(final int pos, final int length) throws ProtocolException {
+        if (length < 0 || pos + length > end || pos + length < pos) {
+            throw new ProtocolException("Attempted to read past end of block at offset " + (pos - offset));
+        }
+    }
+
+    private void checkTransaction() {
+        if (transactionIndex < 0 || transactionIndex >= transactionCount) {
+            throw new IllegalStateException("Cursor is not positioned on a transaction");
+        }
+    }
+
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    /**
+     * Get the array the cursor reads from. All offsets are relative to the start
+     * of this array.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Get the offset of the block header within the payload.
+     */
+    public int getHeaderOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the raw (unfiltered) block version from the header.
+     */
+    public long getRawVersion() {
+        return version;
+    }
+
+    /**
+     * Calculate the SHA256D hash of the block header. Networks which use a
+     * different block hash should use
+     * {@link AltcoinNetworkParameters#calculateBlockHash(byte[], int, int)}.
+     */
+    public Sha256Hash getHeaderHash() {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, Block.HEADER_SIZE));
+    }
+
+    public boolean hasAuxPoW() {
+        return auxpowOffset >= 0;
+    }
+
+    /**
+     * Get the offset of the AuxPoW header, or -1 if the block has none.
+     */
+    public int getAuxPoWOffset() {
+        return auxpowOffset;
+    }
+
+    /**
+     * Get the length of the AuxPoW header, or 0 if the block has none.
+     */
+    public int getAuxPoWLength() {
+        return auxpowLength;
+    }
+
+    /**
+     * Get the number of transactions declared by the block.
+     */
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Get the index of the current transaction within the block.
+     */
+    public int getTransactionIndex() {
+        return transactionIndex;
+    }
+
+    /**
+     * Get the offset the cursor will read the next transaction from. Once all
+     * transactions have been read, this is the end of the block.
+     */
+    public int getPosition() {
+        return cursor;
+    }
+
+    public int getTransactionOffset() {
+        checkTransaction();
+        return transactionOffset;
+    }
+
+    public int getTransactionLength() {
+        checkTransaction();
+        return transactionLength;
+    }
+
+    /**
+     * Calculate the ID (SHA256D hash) of the current transaction.
+     */
+    public Sha256Hash getTransactionHash() {
+        checkTransaction();
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, transactionOffset, transactionLength));
+    }
+
+    /**
+     * Deserialize the current transaction. This is the expensive path, and should
+     * only be used once a transaction is known to be of interest.
+     */
+    public Transaction getTransaction() throws ProtocolException {
+        checkTransaction();
+        return new Transaction(params, Arrays.copyOfRange(payload, transactionOffset, transactionOffset + transactionLength));
+    }
+
+    /**
+     * Copy the serialized current transaction.
+     */
+    public byte[] getTransactionBytes() {
+        checkTransaction();
+        return Arrays.copyOfRange(payload, transactionOffset, transactionOffset + transactionLength);
+    }
+
+    public int getInputCount() {
+        checkTransaction();
+        return inputCount;
+    }
+
+    /**
+     * Get the offset of the previous output hash for the given input. The
+     * output index follows immediately after the 32 byte hash.
+     */
+    public int getInputOutpointOffset(final int index) {
+        checkInput(index);
+        return inputOffsets[index];
+    }
+
+    public int getInputScriptOffset(final int index) {
+        checkInput(index);
+        return inputScriptOffsets[index];
+    }
+
+    public int getInputScriptLength(final int index) {
+        checkInput(index);
+        return inputScriptLengths[index];
+    }
+
+    public int getOutputCount() {
+        checkTransaction();
+        return outputCount;
+    }
+
+    /**
+     * Get the value of the given output, in the smallest unit of the currency.
+     */
+    public long getOutputValue(final int index) {
+        checkOutput(index);
+        return Utils.readInt64(payload, outputOffsets[index]);
+    }
+
+    public int getOutputScriptOffset(final int index) {
+        checkOutput(index);
+        return outputScriptOffsets[index];
+    }
+
+    public int getOutputScriptLength(final int index) {
+        checkOutput(index);
+        return outputScriptLengths[index];
+    }
+
+    /**
+     * Copy the script of the given output.
+     */
+    public byte[] getOutputScriptBytes(final int index) {
+        final int scriptOffset = getOutputScriptOffset(index);
+        return Arrays.copyOfRange(payload, scriptOffset, scriptOffset + outputScriptLengths[index]);
+    }
+
+    private void checkInput(final int index) {
+        checkTransaction();
+        if (index < 0 || index >= inputCount) {
+            throw new IndexOutOfBoundsException("Input " + index + " of " + inputCount);
+        }
+    }
+
+    private void checkOutput(final int index) {
+        checkTransaction();
+        if (index < 0 || index >= outputCount) {
+            throw new IndexOutOfBoundsException("Output " + index + " of " + outputCount);
+        }
+    }
+}
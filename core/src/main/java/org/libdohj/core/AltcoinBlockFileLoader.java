@@ -0,0 +1,326 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Imports blocks from the {@code blk*.dat} files of a Dogecoin, Litecoin,
+ * Dash or Namecoin Core node, in chain order. A drop-in for bitcoinj's
+ * {@link org.bitcoinj.utils.BlockFileLoader} for altcoin networks:</p>
+ *
+ * <pre>
+ * AltcoinBlockFileLoader loader = new AltcoinBlockFileLoader(params, AltcoinBlockFileLoader.getBlockFiles(blocksDir));
+ * try {
+ *     for (Block block : loader)
+ *         chain.add(block);
+ * } finally {
+ *     loader.close();
+ * }
+ * </pre>
+ *
+ * <p>Each file is memory-mapped and indexed on a worker thread: records are
+ * found by the network's packet magic, and only the header of each is hashed,
+ * straight from the mapped file. Blocks are then delivered once their parent
+ * has been, starting from the genesis block, so out of order blocks from
+ * headers-first sync are held back as index entries rather than parsed
+ * blocks. Blocks are parsed, AuxPoW included, on the worker threads, ahead of
+ * the caller. The parser needs an array, so each record is copied out of the
+ * mapping exactly once.</p>
+ *
+ * <p>Blocks whose parent never turns up, or was delivered more than
+ * {@link #CONNECTED_WINDOW} blocks earlier, are not delivered. Loaders are not
+ * thread safe.</p>
+ */
+public class AltcoinBlockFileLoader implements Iterable<Block>, Iterator<Block>, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(AltcoinBlockFileLoader.class);
+
+    /** How many of the most recently delivered block hashes new blocks may connect to. */
+    public static final int CONNECTED_WINDOW = 100000;
+
+    private final NetworkParameters params;
+    private final MessageSerializer serializer;
+    private final ExecutorService executor;
+    private final int threads;
+    private final Iterator<File> files;
+
+    /** Indexes of the next few files, in file order. */
+    private final ArrayDeque<Future<List<Record>>> indexing = new ArrayDeque<Future<List<Record>>>();
+
+    /** Records waiting for their parent, by parent hash. */
+    private final Map<Sha256Hash, List<Record>> waiting = new LinkedHashMap<Sha256Hash, List<Record>>();
+    private final Map<Sha256Hash, Boolean> connected = new LinkedHashMap<Sha256Hash, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Boolean> eldest) {
+            return size() > CONNECTED_WINDOW;
+        }
+    };
+    /** Records whose parent has been delivered, in chain order. */
+    private final ArrayDeque<Record> ready = new ArrayDeque<Record>();
+    /** Blocks being parsed, in chain order. */
+    private final ArrayDeque<Future<Block>> parsing = new ArrayDeque<Future<Block>>();
+
+    public AltcoinBlockFileLoader(NetworkParameters params, List<File> files) {
+        this(params, files, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param files block files, in the order the node wrote them.
+     * @param threads worker threads for indexing and parsing.
+     */
+    public AltcoinBlockFileLoader(NetworkParameters params, List<File> files, int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+        this.params = params;
+        this.serializer = params.getDefaultSerializer();
+        this.threads = threads;
+        this.files = files.iterator();
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("block-file-loader-%d").build());
+        this.connected.put(params.getGenesisBlock().getHash(), Boolean.TRUE);
+        fillIndexing();
+    }
+
+    /**
+     * List the block files in a node's blocks directory, from {@code blk00000.dat}
+     * up to the first missing one.
+     */
+    public static List<File> getBlockFiles(File blocksDir) {
+        final List<File> files = new ArrayList<File>();
+        for (int i = 0; ; i++) {
+            final File file = new File(blocksDir, String.format(Locale.US, "blk%05d.dat", i));
+            if (!file.exists())
+                return files;
+            files.add(file);
+        }
+    }
+
+    @Override
+    public Iterator<Block> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (parsing.isEmpty()) {
+            if (ready.isEmpty()) {
+                if (indexing.isEmpty()) {
+                    if (!waiting.isEmpty())
+                        log.info("{} blocks were never connected to the chain", countWaiting());
+                    return false;
+                }
+                connect(getUnchecked(indexing.poll()));
+                fillIndexing();
+            }
+            fillParsing();
+        }
+        return true;
+    }
+
+    @Override
+    public Block next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        final Block block = getUnchecked(parsing.poll());
+        fillParsing();
+        return block;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void fillIndexing() {
+        while (indexing.size() < threads && files.hasNext()) {
+            final File file = files.next();
+            indexing.add(executor.submit(new Callable<List<Record>>() {
+                @Override
+                public List<Record> call() throws Exception {
+                    return index(file);
+                }
+            }));
+        }
+    }
+
+    private void fillParsing() {
+        while (parsing.size() < threads * 16 && !ready.isEmpty()) {
+            final Record record = ready.poll();
+            parsing.add(executor.submit(new Callable<Block>() {
+                @Override
+                public Block call() {
+                    return serializer.makeBlock(record.copy());
+                }
+            }));
+        }
+    }
+
+    /** Queue the records of a file whose parents have been delivered, and hold back the rest. */
+    private void connect(List<Record> records) {
+        for (Record record : records) {
+            if (connected.containsKey(record.hash))
+                continue; // Duplicate, or the genesis block
+            if (!connected.containsKey(record.prevHash)) {
+                List<Record> children = waiting.get(record.prevHash);
+                if (children == null) {
+                    children = new ArrayList<Record>(1);
+                    waiting.put(record.prevHash, children);
+                }
+                children.add(record);
+                continue;
+            }
+            final ArrayDeque<Record> connecting = new ArrayDeque<Record>();
+            connecting.add(record);
+            while (!connecting.isEmpty()) {
+                final Record next = connecting.poll();
+                if (connected.put(next.hash, Boolean.TRUE) != null)
+                    continue;
+                ready.add(next);
+                final List<Record> children = waiting.remove(next.hash);
+                if (children != null)
+                    connecting.addAll(children);
+            }
+        }
+    }
+
+    private int countWaiting() {
+        int count = 0;
+        for (List<Record> children : waiting.values())
+            count += children.size();
+        return count;
+    }
+
+    /** Find the block records in a file, hashing each header in place. */
+    List<Record> index(File file) throws IOException {
+        final MappedByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        final MessageDigest digest = Sha256Hash.newDigest();
+        final byte[] header = new byte[Block.HEADER_SIZE];
+        final List<Record> records = new ArrayList<Record>();
+        final long magic = params.getPacketMagic();
+        int position = 0;
+        while (position + 8 <= buffer.limit()) {
+            final long word = buffer.getInt(position) & 0xffffffffL;
+            if (word == 0)
+                break; // Space the node has allocated but not yet written
+            if (word != magic) {
+                position++;
+                continue;
+            }
+            final long size = Integer.reverseBytes(buffer.getInt(position + 4)) & 0xffffffffL;
+            final int start = position + 8;
+            if (size < Block.HEADER_SIZE || start + size > buffer.limit()) {
+                log.warn("{}: truncated block at offset {}", file, position);
+                break;
+            }
+            records.add(new Record(buffer, start, (int) size, hashHeader(buffer, start, digest, header),
+                    Sha256Hash.wrapReversed(copy(buffer, start + 4, new byte[32]))));
+            position = start + (int) size;
+        }
+        return records;
+    }
+
+    private Sha256Hash hashHeader(ByteBuffer buffer, int start, MessageDigest digest, byte[] header) {
+        if (params instanceof AltcoinNetworkParameters && !((AltcoinNetworkParameters) params).isBlockHashSHA256D()) {
+            copy(buffer, start, header);
+            return ((AltcoinNetworkParameters) params).calculateBlockHash(header, 0, header.length);
+        }
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + Block.HEADER_SIZE).position(start);
+        digest.update(slice);
+        return Sha256Hash.wrapReversed(digest.digest(digest.digest()));
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int start, byte[] bytes) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        slice.get(bytes);
+        return bytes;
+    }
+
+    private static <T> T getUnchecked(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        } catch (ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    /** Where a block lies in a mapped file. */
+    static final class Record {
+        final ByteBuffer file;
+        final int offset;
+        final int length;
+        final Sha256Hash hash;
+        final Sha256Hash prevHash;
+
+        Record(ByteBuffer file, int offset, int length, Sha256Hash hash, Sha256Hash prevHash) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.prevHash = prevHash;
+        }
+
+        byte[] copy() {
+            return AltcoinBlockFileLoader.copy(file, offset, new byte[length]);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.base.Charsets;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.FullPrunedBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Builds and loads checkpoint files for altcoin networks. The files are in
+ * the binary format of bitcoinj's {@link org.bitcoinj.core.CheckpointManager},
+ * looked up as {@code <network id>.checkpoints} resources.</p>
+ *
+ * <p>A single stored block is not enough for networks whose retarget reads
+ * back past the block before it, such as Digishield or Dark Gravity Wave, as
+ * the first blocks after the checkpoint would have their difficulty taken on
+ * trust. So each checkpoint is written as a window of consecutive headers,
+ * sized by {@link AltcoinNetworkParameters#getCheckpointWindow(int)}, and
+ * {@link #checkpoint(NetworkParameters, InputStream, BlockStore, long)}
+ * stores the whole window. {@code CheckpointManager} can still read the files,
+ * treating each header of a window as a checkpoint of its own.</p>
+ *
+ * <p>Files written by {@code CheckpointManager}'s own tools, such as those
+ * bundled for Dogecoin and Litecoin, hold a single header per checkpoint. They
+ * load as windows of one header, and the chain takes the difficulty of the
+ * transitions reading back past it on trust, as it does after
+ * {@code CheckpointManager#checkpoint}.</p>
+ *
+ * <p>Only the 80 byte header is kept, so the AuxPoW header of merged mined
+ * blocks is dropped.</p>
+ */
+public class AltcoinCheckpoints {
+    private static final Logger log = LoggerFactory.getLogger(AltcoinCheckpoints.class);
+
+    /** Checkpoints are at least this far apart, and at least this old. */
+    public static final long DEFAULT_SPACING_SECONDS = 7 * 24 * 60 * 60;
+
+    private static final byte[] BINARY_MAGIC = "CHECKPOINTS 1".getBytes(Charsets.US_ASCII);
+    private static final int SIGNATURE_SIZE = 65;
+    private static final int CHAIN_WORK_BYTES = 12;
+    private static final int COMPACT_SIZE = CHAIN_WORK_BYTES + 4 + Block.HEADER_SIZE;
+
+    private AltcoinCheckpoints() {
+    }
+
+    /**
+     * Open the checkpoints bundled for the given network. See the class
+     * comment for the single header files bundled so far.
+     *
+     * @return the stream, or null if there are none for the network.
+     */
+    @Nullable
+    public static InputStream openStream(NetworkParameters params) {
+        return AltcoinCheckpoints.class.getResourceAsStream("/" + params.getId() + ".checkpoints");
+    }
+
+    /**
+     * Choose checkpoints from a block store holding the whole chain, walking
+     * back from its chain head.
+     *
+     * @param untilTimeSecs only blocks at or before this time are used.
+     * @param spacingSeconds minimum time between checkpoints.
+     * @return the headers of every checkpoint window, by height.
+     */
+    public static SortedMap<Integer, StoredBlock> collect(NetworkParameters params, BlockStore store,
+                                                          long untilTimeSecs, long spacingSeconds)
+            throws BlockStoreException {
+        final AltcoinNetworkParameters altParams = getAltcoinParams(params);
+        final SortedMap<Integer, StoredBlock> checkpoints = new TreeMap<Integer, StoredBlock>();
+        long laterTimeSecs = Long.MAX_VALUE;
+        for (StoredBlock cursor = store.getChainHead(); cursor != null; cursor = cursor.getPrev(store)) {
+            final long timeSecs = cursor.getHeader().getTimeSeconds();
+            if (timeSecs > untilTimeSecs || laterTimeSecs - timeSecs < spacingSeconds)
+                continue;
+            final int window = altParams.getCheckpointWindow(cursor.getHeight());
+            if (window > 0 && putWindow(checkpoints, cursor, window, store))
+                laterTimeSecs = timeSecs;
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Chooses checkpoints as a block chain is synced. Register it to run on
+     * the block chain's thread, so the block store still holds the parents of
+     * each new best block:
+     *
+     * <pre>
+     * chain.addNewBestBlockListener(Threading.SAME_THREAD, collector);
+     * chain.addReorganizeListener(Threading.SAME_THREAD, collector);
+     * </pre>
+     */
+    public static class Collector implements NewBestBlockListener, ReorganizeListener {
+        private final AltcoinNetworkParameters params;
+        private final BlockStore store;
+        private final long spacingSeconds;
+        private final TreeMap<Integer, StoredBlock> checkpoints = new TreeMap<Integer, StoredBlock>();
+        private final TreeMap<Integer, StoredBlock> tips = new TreeMap<Integer, StoredBlock>();
+
+        public Collector(NetworkParameters params, BlockStore store, long spacingSeconds) {
+            this.params = getAltcoinParams(params);
+            this.store = store;
+            this.spacingSeconds = spacingSeconds;
+        }
+
+        @Override
+        public synchronized void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+            forget(block.getHeight());
+            consider(block);
+        }
+
+        @Override
+        public synchronized void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks,
+                                            List<StoredBlock> newBlocks) throws VerificationException {
+            forget(splitPoint.getHeight() + 1);
+            // New blocks are listed from the new chain head down
+            for (int i = newBlocks.size() - 1; i >= 0; i--)
+                consider(newBlocks.get(i));
+        }
+
+        /** Forget checkpoints at or above the given height, which are no longer on the best chain. */
+        private void forget(int height) {
+            final SortedMap<Integer, StoredBlock> abandoned = tips.tailMap(height);
+            for (StoredBlock tip : abandoned.values())
+                checkpoints.subMap(tip.getHeight() - params.getCheckpointWindow(tip.getHeight()) + 1,
+                        tip.getHeight() + 1).clear();
+            abandoned.clear();
+        }
+
+        private void consider(StoredBlock block) {
+            final int window = params.getCheckpointWindow(block.getHeight());
+            if (window == 0)
+                return;
+            final long timeSecs = block.getHeader().getTimeSeconds();
+            if (!tips.isEmpty() && timeSecs - tips.lastEntry().getValue().getHeader().getTimeSeconds() < spacingSeconds)
+                return;
+            try {
+                if (putWindow(checkpoints, block, window, store))
+                    tips.put(block.getHeight(), block);
+            } catch (BlockStoreException x) {
+                log.warn("Could not read parents of " + block.getHeader().getHash() + " for checkpoint", x);
+            }
+        }
+
+        /**
+         * @param untilTimeSecs only checkpoints at or before this time are returned.
+         * @return the headers of every checkpoint window, by height.
+         */
+        public synchronized SortedMap<Integer, StoredBlock> getCheckpoints(long untilTimeSecs) {
+            final SortedMap<Integer, StoredBlock> result = new TreeMap<Integer, StoredBlock>();
+            for (StoredBlock tip : tips.values()) {
+                if (tip.getHeader().getTimeSeconds() > untilTimeSecs)
+                    break;
+                final int window = params.getCheckpointWindow(tip.getHeight());
+                result.putAll(checkpoints.subMap(tip.getHeight() - window + 1, tip.getHeight() + 1));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Put the window of headers ending at the given block.
+     *
+     * @return false if the block store does not have all of them.
+     */
+    private static boolean putWindow(SortedMap<Integer, StoredBlock> checkpoints, StoredBlock tip, int window,
+                                     BlockStore store) throws BlockStoreException {
+        final StoredBlock[] blocks = new StoredBlock[window];
+        StoredBlock cursor = tip;
+        for (int i = window - 1; i >= 0; i--) {
+            if (cursor == null)
+                return false;
+            blocks[i] = cursor;
+            if (i > 0)
+                cursor = cursor.getPrev(store);
+        }
+        for (StoredBlock block : blocks)
+            checkpoints.put(block.getHeight(), block);
+        return true;
+    }
+
+    /** Write checkpoints, in height order, unsigned. */
+    public static void write(Collection<StoredBlock> blocks, OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(BINARY_MAGIC);
+        data.writeInt(0); // Number of signatures
+        data.writeInt(blocks.size());
+        final ByteBuffer buffer = ByteBuffer.allocate(COMPACT_SIZE);
+        for (StoredBlock block : blocks) {
+            buffer.clear();
+            writeCompact(block, buffer);
+            data.write(buffer.array());
+        }
+        data.flush();
+    }
+
+    /**
+     * The compact form of {@link StoredBlock}, written here rather than by
+     * {@link StoredBlock#serializeCompact(ByteBuffer)} so that only the 80 byte
+     * header is taken from merged mined blocks, whatever their serialization.
+     */
+    private static void writeCompact(StoredBlock block, ByteBuffer buffer) {
+        final byte[] chainWork = block.getChainWork().toByteArray();
+        // toByteArray() adds a sign byte to values with the top bit set
+        final int start = chainWork.length > CHAIN_WORK_BYTES && chainWork[0] == 0 ? 1 : 0;
+        checkArgument(chainWork.length - start <= CHAIN_WORK_BYTES, "Chain work does not fit");
+        buffer.put(new byte[CHAIN_WORK_BYTES - (chainWork.length - start)]);
+        buffer.put(chainWork, start, chainWork.length - start);
+        buffer.putInt(block.getHeight());
+        buffer.put(block.getHeader().cloneAsHeader().unsafeBitcoinSerialize(), 0, Block.HEADER_SIZE);
+    }
+
+    /**
+     * Read checkpoints, grouped into windows of consecutive headers in height
+     * order. Signatures, if any, are skipped rather than checked.
+     */
+    public static List<List<StoredBlock>> read(NetworkParameters params, InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final byte[] magic = new byte[BINARY_MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, BINARY_MAGIC))
+            throw new IOException("Not a binary checkpoints file");
+        final int signatures = data.readInt();
+        if (signatures < 0)
+            throw new IOException("Negative number of signatures");
+        data.readFully(new byte[signatures * SIGNATURE_SIZE]);
+        final int count = data.readInt();
+        if (count < 0)
+            throw new IOException("Negative number of checkpoints");
+
+        final List<List<StoredBlock>> windows = new ArrayList<List<StoredBlock>>();
+        List<StoredBlock> window = null;
+        final byte[] compact = new byte[COMPACT_SIZE];
+        for (int i = 0; i < count; i++) {
+            data.readFully(compact);
+            final StoredBlock block = readCompact(params, compact);
+            final StoredBlock previous = window == null ? null : window.get(window.size() - 1);
+            if (previous == null || previous.getHeight() + 1 != block.getHeight()
+                    || !previous.getHeader().getHash().equals(block.getHeader().getPrevBlockHash())) {
+                window = new ArrayList<StoredBlock>();
+                windows.add(window);
+            }
+            window.add(block);
+        }
+        return windows;
+    }
+
+    private static StoredBlock readCompact(NetworkParameters params, byte[] compact) {
+        final ByteBuffer buffer = ByteBuffer.wrap(compact);
+        final byte[] chainWork = new byte[CHAIN_WORK_BYTES];
+        buffer.get(chainWork);
+        final int height = buffer.getInt();
+        final byte[] header = new byte[Block.HEADER_SIZE];
+        buffer.get(header);
+        return new StoredBlock(params.getDefaultSerializer().makeBlock(header), new BigInteger(1, chainWork), height);
+    }
+
+    /**
+     * Start a new block store from the last checkpoint window at least a week
+     * before the given time, as {@link org.bitcoinj.core.CheckpointManager#checkpoint}
+     * does, storing every header of the window. The block store should hold
+     * only the genesis block.
+     *
+     * @param timeSecs typically the creation time of the oldest key in the wallet.
+     * @return the new chain head, or null if no checkpoint is old enough.
+     */
+    @Nullable
+    public static StoredBlock checkpoint(NetworkParameters params, InputStream in, BlockStore store, long timeSecs)
+            throws IOException, BlockStoreException {
+        checkArgument(!(store instanceof FullPrunedBlockStore), "You cannot use checkpointing with a full store.");
+        // Step back a week, as CheckpointManager does, to allow for clock drift
+        timeSecs -= DEFAULT_SPACING_SECONDS;
+        checkArgument(timeSecs > 0);
+
+        List<StoredBlock> chosen = null;
+        for (List<StoredBlock> window : read(params, in)) {
+            if (window.get(window.size() - 1).getHeader().getTimeSeconds() <= timeSecs)
+                chosen = window;
+        }
+        if (chosen == null)
+            return null;
+        for (StoredBlock block : chosen)
+            store.put(block);
+        final StoredBlock head = chosen.get(chosen.size() - 1);
+        store.setChainHead(head);
+        if (params instanceof AltcoinNetworkParameters
+                && chosen.size() < ((AltcoinNetworkParameters) params).getCheckpointWindow(head.getHeight()))
+            log.info("Checkpoint at height {} has {} headers rather than {}; the next difficulty transitions are taken on trust",
+                    head.getHeight(), chosen.size(), ((AltcoinNetworkParameters) params).getCheckpointWindow(head.getHeight()));
+        log.info("Checkpointed to {} at height {} with {} headers", head.getHeader().getHash(), head.getHeight(),
+                chosen.size());
+        return head;
+    }
+
+    private static AltcoinNetworkParameters getAltcoinParams(NetworkParameters params) {
+        checkArgument(params instanceof AltcoinNetworkParameters, "Not an altcoin network: " + params.getId());
+        return (AltcoinNetworkParameters) params;
+    }
+}
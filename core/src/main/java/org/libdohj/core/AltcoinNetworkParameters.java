@@ -54,6 +54,22 @@ public interface AltcoinNetworkParameters {
 
     public boolean isTestNet();
 
+    /**
+     * @return true if {@link #getBlockDifficultyHash} is the scrypt hash of the
+     * header, or for merged mined blocks of the parent header, so that headers
+     * can be hashed ahead in batches. See {@link Utils#scryptDigests}.
+     */
+    default boolean isProofOfWorkScrypt() { return false; }
+
+    /**
+     * Get how many headers, ending with the one at the given height, must be
+     * in the block store for the difficulty transition of every later block to
+     * be checked. Returns 0 if a checkpoint at that height would leave a later
+     * difficulty transition unchecked whatever the number of headers stored
+     * before it, or that this network's retarget algorithm is not known.
+     */
+    default int getCheckpointWindow(int height) { return 0; }
+
     /**
      * Get the subsidy (i.e. maximum number of coins that can be generated
      * by the coinbase transaction) for a block at the given height.
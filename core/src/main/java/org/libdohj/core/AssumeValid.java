@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Skips the memory-hard proof of work of headers below a trusted block,
+ * the anchor. Block hashes commit to the previous block, so once the anchor
+ * itself arrives every header below it on the same chain is known to be the
+ * one the anchor was built on. Until then, headers below the anchor height are
+ * checked for everything but their proof of work: linkage by the block chain,
+ * and the difficulty transitions by the network parameters.</p>
+ *
+ * <p>Proof of work is only skipped for headers added to the block chain which
+ * owns the block store, so opt in by creating that block chain with it:</p>
+ *
+ * <pre>
+ * AssumeValid assumeValid = new AssumeValid(anchorHash, anchorHeight, blockStore);
+ * BlockChain chain = new AssumeValidBlockChain(params, blockStore, assumeValid);
+ * </pre>
+ *
+ * <p>Headers at and above the anchor height always get a full check, and only
+ * the block chain's best chain reaching the anchor height ends the mode: it is
+ * confirmed if the block there is the anchor, and abandoned otherwise, as it
+ * is if the chain is already above the anchor height. Either way every later
+ * header gets a full check. The headers assumed can then be checked after all
+ * with {@link #checkAssumedHeaders()}.</p>
+ */
+public class AssumeValid {
+    private static final Logger log = LoggerFactory.getLogger(AssumeValid.class);
+
+    /** The instance of the block chain adding a block on each thread. */
+    private static final ThreadLocal<AssumeValid> ACTIVE = new ThreadLocal<AssumeValid>();
+
+    /** Progress towards the anchor. */
+    public enum State {
+        /** Proof of work below the anchor height is being skipped. */
+        ASSUMING,
+        /** The anchor has arrived, so the headers assumed were valid. */
+        CONFIRMED,
+        /** The chain passed the anchor height without the anchor. */
+        ABANDONED
+    }
+
+    private final Sha256Hash anchorHash;
+    private final int anchorHeight;
+    private final BlockStore store;
+
+    private State state = State.ASSUMING;
+    private int lowestAssumedHeight = Integer.MAX_VALUE;
+    private long assumedCount;
+
+    /**
+     * @param anchorHash hash of the trusted block.
+     * @param anchorHeight height of the trusted block.
+     * @param store the block store of the block chain, to find the height of headers from.
+     */
+    public AssumeValid(Sha256Hash anchorHash, int anchorHeight, BlockStore store) {
+        checkArgument(anchorHeight > 0, "anchorHeight must be positive");
+        this.anchorHash = checkNotNull(anchorHash);
+        this.anchorHeight = anchorHeight;
+        this.store = checkNotNull(store);
+    }
+
+    /**
+     * Get the instance of the block chain adding a block on the calling
+     * thread, or null if no such block chain is. Called from the proof of
+     * work check of {@link AltcoinBlock}, so that headers checked anywhere
+     * else get a full check.
+     */
+    @Nullable
+    public static AssumeValid getActive() {
+        return ACTIVE.get();
+    }
+
+    /**
+     * Set the instance returned by {@link #getActive()} on the calling thread.
+     *
+     * @return the instance it replaces, to restore afterwards.
+     */
+    @Nullable
+    static AssumeValid setActive(@Nullable AssumeValid assumeValid) {
+        final AssumeValid previous = ACTIVE.get();
+        if (assumeValid != null)
+            ACTIVE.set(assumeValid);
+        else
+            ACTIVE.remove();
+        return previous;
+    }
+
+    public Sha256Hash getAnchorHash() {
+        return anchorHash;
+    }
+
+    public int getAnchorHeight() {
+        return anchorHeight;
+    }
+
+    BlockStore getStore() {
+        return store;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Number of headers whose proof of work has been skipped. */
+    public synchronized long getAssumedCount() {
+        return assumedCount;
+    }
+
+    /**
+     * Whether a header at the given height would have its proof of work
+     * skipped. Unlike {@link #isProofOfWorkAssumed(Block)}, this does not
+     * count the header, so may be asked about headers the block chain has not
+     * seen yet.
+     */
+    public synchronized boolean isAssumedHeight(int height) {
+        return state == State.ASSUMING && height < anchorHeight;
+    }
+
+    /**
+     * Decide whether to skip the proof of work of the given header, which must
+     * connect to a block already in the block store for it to be skipped.
+     * Never changes the state, so a header which turns out to be invalid has
+     * no effect on later ones.
+     */
+    public synchronized boolean isProofOfWorkAssumed(Block block) {
+        if (state != State.ASSUMING)
+            return false;
+        final StoredBlock storedPrev;
+        try {
+            storedPrev = store.get(block.getPrevBlockHash());
+        } catch (BlockStoreException x) {
+            log.warn("Could not read block store, checking proof of work", x);
+            return false;
+        }
+        if (storedPrev == null)
+            return false;
+
+        final int height = storedPrev.getHeight() + 1;
+        if (height >= anchorHeight) {
+            // The anchor, and anything above it, gets a full check.
+            return false;
+        }
+        lowestAssumedHeight = Math.min(lowestAssumedHeight, height);
+        assumedCount++;
+        Metrics.increment(Metrics.POW_ASSUMED);
+        return true;
+    }
+
+    /**
+     * Confirm or abandon the mode once the block chain's best chain reaches
+     * the anchor height. Called by the block chain with its new chain head,
+     * which being at or above the anchor height got a full check.
+     */
+    synchronized void checkChainHead(StoredBlock head) {
+        if (state != State.ASSUMING || head.getHeight() < anchorHeight)
+            return;
+        StoredBlock cursor = head;
+        try {
+            while (cursor != null && cursor.getHeight() > anchorHeight)
+                cursor = cursor.getPrev(store);
+        } catch (BlockStoreException x) {
+            log.warn("Could not read block store, checking all proof of work", x);
+            cursor = null;
+        }
+        if (cursor != null && cursor.getHeader().getHash().equals(anchorHash)) {
+            state = State.CONFIRMED;
+            log.info("Reached assume-valid anchor {} at height {}, skipped proof of work of {} headers",
+                    anchorHash, anchorHeight, assumedCount);
+        } else {
+            state = State.ABANDONED;
+            log.warn("Block chain passed height {} without assume-valid anchor {}, checking all proof of work;"
+                    + " {} headers were assumed", anchorHeight, anchorHash, assumedCount);
+        }
+    }
+
+    /**
+     * Check after all the proof of work of the headers below the anchor height
+     * on the block store's best chain, back to the lowest one assumed, as far
+     * as the block store holds them. Merged mined headers stored without their
+     * AuxPoW header, as {@link org.bitcoinj.store.SPVBlockStore} and
+     * {@link CompactBlockStore} store them, cannot be checked again, and are
+     * passed over. This calculates a proof of work hash for every header it
+     * checks, so call it on a thread of its own, such as once the state is
+     * {@link State#ABANDONED}.
+     *
+     * @return the number of headers checked.
+     * @throws VerificationException if a header fails its proof of work.
+     */
+    public int checkAssumedHeaders() throws BlockStoreException, VerificationException {
+        final int lowest;
+        synchronized (this) {
+            lowest = lowestAssumedHeight;
+        }
+        int checked = 0;
+        int passedOver = 0;
+        StoredBlock cursor = store.getChainHead();
+        while (cursor != null && cursor.getHeight() >= lowest) {
+            if (cursor.getHeight() < anchorHeight) {
+                final Block header = cursor.getHeader();
+                if (isCheckable(header)) {
+                    try {
+                        header.verifyHeader();
+                    } catch (VerificationException x) {
+                        throw new VerificationException("Block " + header.getHash() + " at height "
+                                + cursor.getHeight() + " was assumed valid but is not: " + x.getMessage(), x);
+                    }
+                    checked++;
+                } else {
+                    passedOver++;
+                }
+            }
+            cursor = cursor.getPrev(store);
+        }
+        log.info("Checked proof of work of {} headers assumed below height {}, passed over {} stored without"
+                + " their AuxPoW header", checked, anchorHeight, passedOver);
+        return checked;
+    }
+
+    /** Whether the proof of work of a header read back from the block store can be checked. */
+    private static boolean isCheckable(Block header) {
+        if (!(header instanceof AltcoinBlock) || !(header.getParams() instanceof AuxPoWNetworkParameters))
+            return true;
+        final AltcoinBlock block = (AltcoinBlock) header;
+        return block.getAuxPoW() != null || block.isAuxPoWVerified()
+                || !((AuxPoWNetworkParameters) header.getParams()).isAuxPoWBlockVersion(block.getRawVersion());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PrunedException;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.wallet.Wallet;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A block chain which skips the proof of work of headers below an
+ * assume-valid anchor, see {@link AssumeValid}. The anchor applies only to
+ * blocks added to this block chain, on the thread adding them, so other code
+ * checking headers against the same network, such as a
+ * {@link ProofOfWorkGuard} or {@link HeadersFileValidator}, checks their proof
+ * of work in full.</p>
+ */
+public class AssumeValidBlockChain extends BlockChain {
+    private final AssumeValid assumeValid;
+
+    public AssumeValidBlockChain(NetworkParameters params, BlockStore blockStore, AssumeValid assumeValid)
+            throws BlockStoreException {
+        this(params, Collections.<Wallet>emptyList(), blockStore, assumeValid);
+    }
+
+    /**
+     * @param assumeValid the anchor, created with the same block store.
+     */
+    public AssumeValidBlockChain(NetworkParameters params, List<? extends Wallet> wallets, BlockStore blockStore,
+                                 AssumeValid assumeValid) throws BlockStoreException {
+        super(params, wallets, blockStore);
+        checkArgument(assumeValid.getStore() == blockStore, "AssumeValid must use the block chain's block store");
+        this.assumeValid = assumeValid;
+        // Abandons the anchor straight away if the chain is already past it
+        assumeValid.checkChainHead(getChainHead());
+    }
+
+    public AssumeValid getAssumeValid() {
+        return assumeValid;
+    }
+
+    @Override
+    public boolean add(Block block) throws VerificationException, PrunedException {
+        final AssumeValid previous = AssumeValid.setActive(assumeValid);
+        try {
+            return super.add(block);
+        } finally {
+            AssumeValid.setActive(previous);
+            assumeValid.checkChainHead(getChainHead());
+        }
+    }
+
+    @Override
+    public boolean add(FilteredBlock block) throws VerificationException, PrunedException {
+        final AssumeValid previous = AssumeValid.setActive(assumeValid);
+        try {
+            return super.add(block);
+        } finally {
+            AssumeValid.setActive(previous);
+            assumeValid.checkChainHead(getChainHead());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.AuxPoWBuilder;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Generates long chains of merged mined blocks for a regtest network, for
+ * load tests. Each block has a coinbase transaction paying the block subsidy
+ * and an AuxPoW header built by {@link AuxPoWBuilder}, and passes
+ * {@link AltcoinBlock#verifyHeader()}.</p>
+ *
+ * <p>A merged mined block's hash does not depend on its AuxPoW header, so the
+ * chain of blocks is built in order, which costs a few SHA-256 hashes a block,
+ * and their parent blocks are mined on worker threads. The difficulty target
+ * of each block is that of the block before it, as on regtest, and block
+ * times are {@link #BLOCK_SPACING_SECONDS} apart, so start long chains from an
+ * old block such as the genesis block to keep them out of the future.</p>
+ *
+ * <p>Blocks can be written in the format of a node's {@code blk*.dat} files,
+ * for {@link AltcoinBlockFileLoader}. Generators are not thread safe.</p>
+ */
+public class AuxPoWChainGenerator implements Closeable {
+    public static final int BLOCK_SPACING_SECONDS = 60;
+
+    private static final long BASE_VERSION = 2;
+    private static final long VERSION_FLAG_AUXPOW = 0x100;
+    private static final byte[] COINBASE_TAG = "/libdohj/".getBytes();
+
+    private final NetworkParameters params;
+    private final int threads;
+    private final ExecutorService executor;
+
+    public AuxPoWChainGenerator(NetworkParameters params) {
+        this(params, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads worker threads for mining parent blocks.
+     */
+    public AuxPoWChainGenerator(NetworkParameters params, int threads) {
+        checkArgument(params instanceof AuxPoWNetworkParameters, "Network does not support AuxPoW");
+        checkArgument(threads > 0, "threads must be positive");
+        this.params = params;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("auxpow-generator-%d").build());
+    }
+
+    /**
+     * Generate blocks on top of the given one.
+     *
+     * @return the blocks, in chain order.
+     */
+    public List<AltcoinBlock> generate(StoredBlock prev, int count) {
+        final List<AltcoinBlock> blocks = new ArrayList<AltcoinBlock>(count);
+        StoredBlock tip = prev;
+        while (blocks.size() < count) {
+            final List<AltcoinBlock> batch = generateBatch(tip, Math.min(count - blocks.size(), getBatchSize()));
+            blocks.addAll(batch);
+            tip = getLast(tip, batch);
+        }
+        return blocks;
+    }
+
+    /**
+     * Generate blocks on top of the given one, writing each, preceded by the
+     * network's packet magic and its length, as a node writes block files.
+     *
+     * @return the last block generated, as a header.
+     */
+    public StoredBlock generate(StoredBlock prev, int count, OutputStream out) throws IOException {
+        final byte[] magic = new byte[4];
+        Utils.uint32ToByteArrayBE(params.getPacketMagic(), magic, 0);
+        StoredBlock tip = prev;
+        for (int generated = 0; generated < count; ) {
+            final List<AltcoinBlock> batch = generateBatch(tip, Math.min(count - generated, getBatchSize()));
+            for (AltcoinBlock block : batch) {
+                final byte[] bytes = block.bitcoinSerialize();
+                out.write(magic);
+                Utils.uint32ToByteStreamLE(bytes.length, out);
+                out.write(bytes);
+            }
+            generated += batch.size();
+            tip = getLast(tip, batch);
+        }
+        return tip;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private int getBatchSize() {
+        return threads * 64;
+    }
+
+    private static StoredBlock getLast(StoredBlock prev, List<AltcoinBlock> batch) {
+        StoredBlock tip = prev;
+        for (AltcoinBlock block : batch)
+            tip = tip.build(block.cloneAsHeader());
+        return tip;
+    }
+
+    private List<AltcoinBlock> generateBatch(StoredBlock prev, int count) {
+        final List<Future<AltcoinBlock>> mining = new ArrayList<Future<AltcoinBlock>>(count);
+        Sha256Hash prevHash = prev.getHeader().getHash();
+        long time = prev.getHeader().getTimeSeconds();
+        final long bits = prev.getHeader().getDifficultyTarget();
+        for (int i = 1; i <= count; i++) {
+            time += BLOCK_SPACING_SECONDS;
+            final AltcoinBlock block = createBlock(prevHash, time, bits, prev.getHeight() + i);
+            prevHash = block.getHash();
+            mining.add(executor.submit(new Callable<AltcoinBlock>() {
+                @Override
+                public AltcoinBlock call() {
+                    new AuxPoWBuilder().addChild(block).build();
+                    return block;
+                }
+            }));
+        }
+
+        final List<AltcoinBlock> blocks = new ArrayList<AltcoinBlock>(count);
+        for (Future<AltcoinBlock> future : mining)
+            blocks.add(getUnchecked(future));
+        return blocks;
+    }
+
+    private AltcoinBlock createBlock(Sha256Hash prevHash, long time, long bits, int height) {
+        final AuxPoWNetworkParameters auxParams = (AuxPoWNetworkParameters) params;
+        final Transaction coinbase = new Transaction(params);
+        coinbase.addInput(new TransactionInput(params, coinbase,
+                new ScriptBuilder().number(height).data(COINBASE_TAG).build().getProgram()));
+        coinbase.addOutput(auxParams.getBlockSubsidy(height), new ScriptBuilder().op(ScriptOpCodes.OP_TRUE).build());
+
+        final long version = ((long) auxParams.getChainID() << 16) | VERSION_FLAG_AUXPOW | BASE_VERSION;
+        // A single transaction is its own merkle root
+        return new AltcoinBlock(params, version, prevHash, coinbase.getHash(), time, bits, 0,
+                Collections.singletonList(coinbase));
+    }
+
+    private static <T> T getUnchecked(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        } catch (ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        }
+    }
+}
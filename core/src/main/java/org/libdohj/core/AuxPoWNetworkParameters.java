@@ -15,6 +15,8 @@
  */
 package org.libdohj.core;
 
+import javax.annotation.Nullable;
+
 /**
  *
  * @author Ross Nicoll
@@ -24,4 +26,12 @@ public interface AuxPoWNetworkParameters extends AltcoinNetworkParameters {
     boolean isAuxPoWBlockVersion(long version);
 
     int getChainID();
+
+    /**
+     * Get the cache of parent block proof of work hashes this network shares
+     * with others merged mined on the same parent chain, or null to hash each
+     * parent block header every time. See {@link ParentProofOfWorkCache}.
+     */
+    @Nullable
+    default ParentProofOfWorkCache getParentProofOfWorkCache() { return null; }
 }
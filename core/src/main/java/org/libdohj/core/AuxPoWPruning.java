@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+/**
+ * <p>How much of a merged mined block's AuxPoW header is kept once it has
+ * passed its proof of work check. The block chain stores a copy of each
+ * block made by {@link org.bitcoinj.core.AltcoinBlock#cloneAsHeader()}; with
+ * the whole AuxPoW header, that copy keeps the parent block's coinbase
+ * transaction and both merkle branches alive, several times the size of the
+ * header itself.</p>
+ *
+ * <p>Pruning is chosen for each block store, by wrapping it in an
+ * {@link AuxPoWPruningBlockStore}, which stores copies made by
+ * {@link org.bitcoinj.core.AltcoinBlock#cloneAsHeader(AuxPoWPruning)}.
+ * Pruned headers are marked as verified, so their proof of work check
+ * passes without the AuxPoW header. They are serialized without it, as
+ * {@link org.bitcoinj.store.SPVBlockStore} stores every header anyway.
+ * Headers whose AuxPoW header was not checked, such as those skipped by
+ * {@link AssumeValid}, are never pruned.</p>
+ */
+public enum AuxPoWPruning {
+    /** Keep the whole AuxPoW header. */
+    NONE,
+    /** Drop the AuxPoW header, keeping only the marker that it was verified. */
+    MARKER,
+    /** As {@link #MARKER}, also keeping the hash of the parent block. */
+    PARENT_HASH
+}
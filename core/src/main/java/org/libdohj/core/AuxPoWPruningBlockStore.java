@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Wraps a block store, pruning the AuxPoW header of each verified header
+ * put into it, so that pruning is chosen for one block chain rather than for
+ * every user of the network parameters:</p>
+ *
+ * <pre>
+ * BlockStore store = new AuxPoWPruningBlockStore(new MemoryBlockStore(params), AuxPoWPruning.PARENT_HASH);
+ * BlockChain chain = new BlockChain(params, wallet, store);
+ * </pre>
+ *
+ * <p>Headers whose AuxPoW header has not been verified are stored whole. See
+ * {@link AuxPoWPruning}.</p>
+ */
+public class AuxPoWPruningBlockStore implements BlockStore {
+    private final BlockStore store;
+    private final AuxPoWPruning pruning;
+
+    public AuxPoWPruningBlockStore(BlockStore store, AuxPoWPruning pruning) {
+        this.store = checkNotNull(store);
+        this.pruning = checkNotNull(pruning);
+    }
+
+    public AuxPoWPruning getPruning() {
+        return pruning;
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        store.put(prune(block));
+    }
+
+    @Override
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        return store.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        return store.getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        // Stores such as MemoryBlockStore keep the chain head they are given
+        store.setChainHead(prune(chainHead));
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        store.close();
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return store.getParams();
+    }
+
+    private StoredBlock prune(StoredBlock block) {
+        final Block header = block.getHeader();
+        if (pruning == AuxPoWPruning.NONE || !(header instanceof AltcoinBlock)
+                || !((AltcoinBlock) header).isAuxPoWVerified()) {
+            return block;
+        }
+        return new StoredBlock(((AltcoinBlock) header).cloneAsHeader(pruning), block.getChainWork(),
+                block.getHeight());
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An in-memory block store for the whole header chain of a network, with
+ * millions of headers. Where {@link org.bitcoinj.store.MemoryBlockStore} keeps
+ * a {@link StoredBlock}, a block, a {@link BigInteger} and several
+ * {@link Sha256Hash}es per header, this keeps each field of every header in
+ * an array of primitives, indexed by the order headers were put:</p>
+ *
+ * <ul>
+ * <li>block hash, merkle root and scrypt hash, 32 bytes each;</li>
+ * <li>chain work, 12 bytes, as in {@link StoredBlock#serializeCompact};</li>
+ * <li>raw version, with any chain ID and AuxPoW flag, time, difficulty target,
+ * nonce and height, 4 bytes each;</li>
+ * <li>index of the previous header, 4 bytes, in place of its hash;</li>
+ * <li>whether the AuxPoW header was verified and whether the scrypt hash is
+ * known, 1 byte.</li>
+ * </ul>
+ *
+ * <p>Headers are found by an open-addressing table of indexes into the hash
+ * array. Together that is about 145 bytes per header, plus headroom of up to
+ * the same again as the arrays grow; pass the expected number of headers to
+ * avoid it. A {@link StoredBlock} is only built when asked for.</p>
+ *
+ * <p>The scrypt hash is kept where the header put had already calculated it,
+ * as headers checked by the block chain have, so that checking the proof of
+ * work of a header read back does not hash it again. Merged mined headers'
+ * proof of work is their parent's scrypt hash, which is not kept.</p>
+ *
+ * <p>AuxPoW headers are not kept. Headers put after their AuxPoW header was
+ * verified come back marked as verified, as if pruned with
+ * {@link AuxPoWPruning#MARKER}; others come back without an AuxPoW header.</p>
+ */
+public class CompactBlockStore implements BlockStore {
+    private static final int HASH_BYTES = 32;
+    private static final int CHAIN_WORK_BYTES = 12;
+    private static final int NO_PREV = -1;
+    private static final byte FLAG_AUXPOW_VERIFIED = 1;
+    private static final byte FLAG_SCRYPT_HASH = 2;
+
+    private final NetworkParameters params;
+
+    private int size;
+    private byte[] hashes;
+    private byte[] merkleRoots;
+    private byte[] scryptHashes;
+    private byte[] chainWork;
+    private int[] versions;
+    private int[] times;
+    private int[] bits;
+    private int[] nonces;
+    private int[] heights;
+    private int[] prevIndexes;
+    private byte[] flags;
+    /** Previous block hashes of headers whose previous header is not stored, such as the genesis block. */
+    private final Map<Integer, Sha256Hash> rootPrevHashes = new HashMap<Integer, Sha256Hash>();
+
+    /** Open-addressing table of index + 1 into the arrays, 0 for an empty slot. */
+    private int[] table;
+    private int chainHead = NO_PREV;
+
+    public CompactBlockStore(NetworkParameters params) {
+        this(params, 1024);
+    }
+
+    /**
+     * @param expectedHeaders number of headers to size the arrays for.
+     */
+    public CompactBlockStore(NetworkParameters params, int expectedHeaders) {
+        checkArgument(expectedHeaders > 0, "expectedHeaders must be positive");
+        this.params = params;
+        allocate(expectedHeaders);
+        table = new int[tableSizeFor(expectedHeaders)];
+        // Insert the genesis block.
+        try {
+            final Block genesisHeader = params.getGenesisBlock().cloneAsHeader();
+            final StoredBlock storedGenesis = new StoredBlock(genesisHeader, genesisHeader.getWork(), 0);
+            put(storedGenesis);
+            setChainHead(storedGenesis);
+        } catch (BlockStoreException x) {
+            throw new RuntimeException(x); // Cannot happen.
+        }
+    }
+
+    /** Number of headers stored. */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void put(StoredBlock block) throws BlockStoreException {
+        checkOpen();
+        final Block header = block.getHeader();
+        final Sha256Hash hash = header.getHash();
+        int index = indexOf(hash.getBytes());
+        if (index < 0) {
+            if (size == versions.length)
+                allocate(size * 2);
+            index = size++;
+            System.arraycopy(hash.getBytes(), 0, hashes, index * HASH_BYTES, HASH_BYTES);
+            insert(index);
+        }
+
+        System.arraycopy(header.getMerkleRoot().getBytes(), 0, merkleRoots, index * HASH_BYTES, HASH_BYTES);
+        writeChainWork(block.getChainWork(), index);
+        // AltcoinBlock.getVersion() drops the chain ID and AuxPoW flag, which the hash covers
+        versions[index] = (int) (header instanceof AltcoinBlock
+                ? ((AltcoinBlock) header).getRawVersion() : header.getVersion());
+        times[index] = (int) header.getTimeSeconds();
+        bits[index] = (int) header.getDifficultyTarget();
+        nonces[index] = (int) header.getNonce();
+        heights[index] = block.getHeight();
+        flags[index] = 0;
+        if (header instanceof AltcoinBlock) {
+            final AltcoinBlock altcoinHeader = (AltcoinBlock) header;
+            if (altcoinHeader.isAuxPoWVerified())
+                flags[index] |= FLAG_AUXPOW_VERIFIED;
+            final ScryptHash scryptHash = altcoinHeader.getCachedScryptHash();
+            if (scryptHash != null) {
+                System.arraycopy(scryptHash.getBytes(), 0, scryptHashes, index * HASH_BYTES, HASH_BYTES);
+                flags[index] |= FLAG_SCRYPT_HASH;
+            }
+        }
+
+        final Sha256Hash prevHash = header.getPrevBlockHash();
+        prevIndexes[index] = indexOf(prevHash.getBytes());
+        if (prevIndexes[index] == NO_PREV)
+            rootPrevHashes.put(index, prevHash);
+        else
+            rootPrevHashes.remove(index);
+    }
+
+    @Override
+    public synchronized StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        checkOpen();
+        final int index = indexOf(hash.getBytes());
+        return index < 0 ? null : materialize(index);
+    }
+
+    @Override
+    public synchronized StoredBlock getChainHead() throws BlockStoreException {
+        checkOpen();
+        return materialize(chainHead);
+    }
+
+    @Override
+    public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        checkOpen();
+        int index = indexOf(chainHead.getHeader().getHash().getBytes());
+        if (index < 0) {
+            put(chainHead);
+            index = indexOf(chainHead.getHeader().getHash().getBytes());
+        }
+        this.chainHead = index;
+    }
+
+    @Override
+    public synchronized void close() {
+        hashes = null;
+        merkleRoots = null;
+        scryptHashes = null;
+        chainWork = null;
+        versions = times = bits = nonces = heights = prevIndexes = table = null;
+        flags = null;
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (versions == null)
+            throw new BlockStoreException("Store closed");
+    }
+
+    /**
+     * Build the stored block at the given index, parsing its header as received from the network. The header
+     * takes the hashes the store already holds, so that networks with costly block hashes, such as Dash's X11,
+     * are not hashed again on every read.
+     */
+    private StoredBlock materialize(int index) {
+        final byte[] headerBytes = new byte[Block.HEADER_SIZE];
+        Utils.uint32ToByteArrayLE(versions[index] & 0xffffffffL, headerBytes, 0);
+        final byte[] prevHash = prevIndexes[index] == NO_PREV
+                ? rootPrevHashes.get(index).getBytes()
+                : Arrays.copyOfRange(hashes, prevIndexes[index] * HASH_BYTES, (prevIndexes[index] + 1) * HASH_BYTES);
+        System.arraycopy(Utils.reverseBytes(prevHash), 0, headerBytes, 4, HASH_BYTES);
+        System.arraycopy(Utils.reverseBytes(Arrays.copyOfRange(merkleRoots, index * HASH_BYTES, (index + 1) * HASH_BYTES)),
+                0, headerBytes, 36, HASH_BYTES);
+        Utils.uint32ToByteArrayLE(times[index] & 0xffffffffL, headerBytes, 68);
+        Utils.uint32ToByteArrayLE(bits[index] & 0xffffffffL, headerBytes, 72);
+        Utils.uint32ToByteArrayLE(nonces[index] & 0xffffffffL, headerBytes, 76);
+
+        final MessageSerializer serializer = params.getDefaultSerializer();
+        final Block header = serializer instanceof AltcoinSerializer
+                ? new AltcoinBlock(params, headerBytes, serializer,
+                        Sha256Hash.wrap(Arrays.copyOfRange(hashes, index * HASH_BYTES, (index + 1) * HASH_BYTES)),
+                        (flags[index] & FLAG_SCRYPT_HASH) != 0
+                                ? new ScryptHash(Arrays.copyOfRange(scryptHashes, index * HASH_BYTES, (index + 1) * HASH_BYTES))
+                                : null)
+                : serializer.makeBlock(headerBytes);
+        if ((flags[index] & FLAG_AUXPOW_VERIFIED) != 0 && header instanceof AltcoinBlock)
+            ((AltcoinBlock) header).setAuxPoWVerified(null);
+        return new StoredBlock(header, readChainWork(index), heights[index]);
+    }
+
+    private void writeChainWork(BigInteger work, int index) {
+        final byte[] bytes = work.toByteArray();
+        // toByteArray() adds a sign byte to values with the top bit set
+        final int start = bytes.length > CHAIN_WORK_BYTES && bytes[0] == 0 ? 1 : 0;
+        final int length = bytes.length - start;
+        checkArgument(length <= CHAIN_WORK_BYTES, "Ran out of space to store chain work!");
+        final int offset = index * CHAIN_WORK_BYTES;
+        Arrays.fill(chainWork, offset, offset + CHAIN_WORK_BYTES - length, (byte) 0);
+        System.arraycopy(bytes, start, chainWork, offset + CHAIN_WORK_BYTES - length, length);
+    }
+
+    private BigInteger readChainWork(int index) {
+        return new BigInteger(1, Arrays.copyOfRange(chainWork, index * CHAIN_WORK_BYTES, (index + 1) * CHAIN_WORK_BYTES));
+    }
+
+    private void allocate(int capacity) {
+        hashes = grow(hashes, capacity * HASH_BYTES);
+        merkleRoots = grow(merkleRoots, capacity * HASH_BYTES);
+        scryptHashes = grow(scryptHashes, capacity * HASH_BYTES);
+        chainWork = grow(chainWork, capacity * CHAIN_WORK_BYTES);
+        flags = grow(flags, capacity);
+        versions = grow(versions, capacity);
+        times = grow(times, capacity);
+        bits = grow(bits, capacity);
+        nonces = grow(nonces, capacity);
+        heights = grow(heights, capacity);
+        prevIndexes = grow(prevIndexes, capacity);
+    }
+
+    private static byte[] grow(byte[] array, int length) {
+        return array == null ? new byte[length] : Arrays.copyOf(array, length);
+    }
+
+    private static int[] grow(int[] array, int length) {
+        return array == null ? new int[length] : Arrays.copyOf(array, length);
+    }
+
+    /** A power of two at least twice the number of headers, keeping the table at most half full. */
+    private static int tableSizeFor(int headers) {
+        return Integer.highestOneBit(Math.max(headers, 1) * 2 - 1) << 1;
+    }
+
+    /** Hash bytes are uniformly distributed, so any four of them make a good slot. */
+    private static int slot(byte[] hashes, int offset, int mask) {
+        final int h = (hashes[offset + 28] & 0xff) << 24 | (hashes[offset + 29] & 0xff) << 16
+                | (hashes[offset + 30] & 0xff) << 8 | (hashes[offset + 31] & 0xff);
+        return h & mask;
+    }
+
+    private int indexOf(byte[] hash) {
+        final int mask = table.length - 1;
+        for (int slot = slot(hash, 0, mask); ; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (entry == 0)
+                return NO_PREV;
+            if (equalsAt(hash, entry - 1))
+                return entry - 1;
+        }
+    }
+
+    private boolean equalsAt(byte[] hash, int index) {
+        final int offset = index * HASH_BYTES;
+        for (int i = HASH_BYTES - 1; i >= 0; i--) {
+            if (hashes[offset + i] != hash[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void insert(int index) {
+        if (size * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < size; i++)
+                place(i);
+        } else {
+            place(index);
+        }
+    }
+
+    private void place(int index) {
+        final int mask = table.length - 1;
+        int slot = slot(hashes, index * HASH_BYTES, mask);
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = index + 1;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emits JDK Flight Recorder events from the expensive consensus code paths, so
+ * a continuous recording can tie a stall during sync to the block or name
+ * lookup that caused it. The events are in the "libdohj" category:
+ * <ul>
+ * <li>{@code org.libdohj.ProofOfWork}, for block and AuxPoW proof of work checks,</li>
+ * <li>{@code org.libdohj.DifficultyTransition}, for difficulty transition checks,</li>
+ * <li>{@code org.libdohj.NameLookup}, for Namecoin name lookups.</li>
+ * </ul>
+ *
+ * <p>Flight Recorder is optional. On a JVM without it every method here does
+ * nothing, and the event classes are never loaded. Events are passed around as
+ * opaque objects for the same reason; a null event is one not being recorded,
+ * and ending it costs nothing.</p>
+ */
+public final class ConsensusEvents {
+    /** The check passed, or the name was found. */
+    public static final String OUTCOME_VALID = "valid";
+    /** The check failed. */
+    public static final String OUTCOME_INVALID = "invalid";
+    /** The difficulty could not be calculated past a checkpoint, so was taken on trust. */
+    public static final String OUTCOME_CHECKPOINT = "checkpoint";
+    /** The name lookup completed, but there is no such name. */
+    public static final String OUTCOME_NOT_FOUND = "not-found";
+    /** The operation failed with an exception other than a verification failure. */
+    public static final String OUTCOME_ERROR = "error";
+
+    /** Height recorded when it is not known. */
+    public static final int UNKNOWN_HEIGHT = -1;
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private ConsensusEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, ConsensusEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException x) {
+            return false;
+        } catch (LinkageError x) {
+            return false;
+        }
+    }
+
+    /**
+     * Start timing a proof of work check.
+     *
+     * @return the event to pass to {@link #endProofOfWork}, or null if it is not being recorded.
+     */
+    @Nullable
+    public static Object beginProofOfWork() {
+        return AVAILABLE ? ProofOfWorkEvent.start() : null;
+    }
+
+    /**
+     * @param blockHash hash of the block the proof of work is for; may be null if the event is.
+     * @param auxpow whether this is the check of an AuxPoW header, rather than of the block itself.
+     */
+    public static void endProofOfWork(@Nullable Object event, NetworkParameters params,
+                                      @Nullable Sha256Hash blockHash, boolean auxpow, boolean valid) {
+        if (event != null)
+            ((ProofOfWorkEvent) event).end(params, blockHash, auxpow, valid ? OUTCOME_VALID : OUTCOME_INVALID);
+    }
+
+    /**
+     * Start timing a difficulty transition check.
+     *
+     * @return the event to pass to {@link #endDifficultyTransition}, or null if it is not being recorded.
+     */
+    @Nullable
+    public static Object beginDifficultyTransition() {
+        return AVAILABLE ? DifficultyTransitionEvent.start() : null;
+    }
+
+    /**
+     * @param height height of the block whose difficulty was checked.
+     * @param block the block whose difficulty was checked.
+     * @param outcome one of the OUTCOME_ constants.
+     */
+    public static void endDifficultyTransition(@Nullable Object event, NetworkParameters params, int height,
+                                               Block block, String outcome) {
+        if (event != null)
+            ((DifficultyTransitionEvent) event).end(params, height, block, outcome);
+    }
+
+    /**
+     * Start timing a name lookup.
+     *
+     * @return the event to pass to {@link #endNameLookup} or {@link #failNameLookup}, or null if it is not being
+     * recorded.
+     */
+    @Nullable
+    public static Object beginNameLookup() {
+        return AVAILABLE ? NameLookupEvent.start() : null;
+    }
+
+    /**
+     * End a name lookup which completed.
+     *
+     * @param lookup the class making the lookup.
+     * @param height height of the block the name was looked up in or found in, or {@link #UNKNOWN_HEIGHT}.
+     * @param blockHash hash of the block the name was looked up in, or null if not known.
+     * @param tx the name transaction found, or null if there is none.
+     */
+    public static void endNameLookup(@Nullable Object event, Class<?> lookup, String name, int height,
+                                     @Nullable Sha256Hash blockHash, @Nullable Transaction tx) {
+        if (event != null)
+            ((NameLookupEvent) event).end(lookup, name, height, blockHash,
+                    tx != null ? tx.getParams() : null, tx != null ? OUTCOME_VALID : OUTCOME_NOT_FOUND);
+    }
+
+    /**
+     * End a lookup of the latest transaction of a name which completed, taking the height from the confidence of
+     * the transaction found, if it has one.
+     */
+    public static void endNameLookup(@Nullable Object event, Class<?> lookup, String name, @Nullable Transaction tx) {
+        if (event != null) {
+            int height = UNKNOWN_HEIGHT;
+            if (tx != null && tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
+                height = tx.getConfidence().getAppearedAtChainHeight();
+            endNameLookup(event, lookup, name, height, null, tx);
+        }
+    }
+
+    /**
+     * End a name lookup which failed with an exception. See {@link #endNameLookup}.
+     */
+    public static void failNameLookup(@Nullable Object event, Class<?> lookup, String name, int height,
+                                      @Nullable Sha256Hash blockHash) {
+        if (event != null)
+            ((NameLookupEvent) event).end(lookup, name, height, blockHash, null, OUTCOME_ERROR);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+
+/**
+ * A check of the difficulty target of a block against the one calculated from
+ * the chain, including the block store reads needed to calculate it. Only
+ * loaded through {@link ConsensusEvents}.
+ */
+@Name("org.libdohj.DifficultyTransition")
+@Label("Difficulty Transition Check")
+@Description("Calculation and check of the difficulty target of a block")
+@Category({"libdohj", "Consensus"})
+@StackTrace(false)
+@Threshold("1 ms")
+final class DifficultyTransitionEvent extends Event {
+    @Label("Network")
+    String network;
+
+    @Label("Height")
+    int height;
+
+    @Label("Block Hash")
+    String blockHash;
+
+    @Label("Outcome")
+    String outcome;
+
+    static DifficultyTransitionEvent start() {
+        final DifficultyTransitionEvent event = new DifficultyTransitionEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    void end(NetworkParameters params, int height, Block block, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.network = params.getId();
+            this.height = height;
+            this.blockHash = block.getHashAsString();
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
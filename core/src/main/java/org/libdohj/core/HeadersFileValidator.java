@@ -0,0 +1,429 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.AuxPoW;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Validates a file of block headers, such as a header snapshot for
+ * distribution, without running a {@link org.bitcoinj.core.BlockChain}. The
+ * file holds the headers of one chain from the genesis block, in order, each
+ * as in a {@code headers} message: the header, its AuxPoW header if merged
+ * mined, and a transaction count of zero. {@link #writeHeader} writes them
+ * so.</p>
+ *
+ * <p>Headers are checked in two stages. Worker threads parse batches of
+ * headers and check each with {@link Block#verifyHeader()}, which checks the
+ * proof of work with the network's difficulty hash, AuxPoW included. The
+ * calling thread then takes the batches in order, checks each header connects
+ * to the one before, and checks its difficulty transition against an index of
+ * every header so far, kept in a {@link CompactBlockStore}. Validation stops
+ * at the first header to fail either stage.</p>
+ *
+ * <p>Every header's proof of work is checked. The assume-valid anchor of an
+ * {@link AssumeValidBlockChain} in the same process does not apply here, so
+ * a file passes only on the strength of its own headers.</p>
+ */
+public class HeadersFileValidator implements Closeable {
+    /** Headers parsed and checked by a worker at a time. */
+    private static final int BATCH_SIZE = 512;
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    /** Largest header, with its AuxPoW header, accepted. */
+    private static final int MAX_HEADER_SIZE = 1024 * 1024;
+
+    private final NetworkParameters params;
+    private final MessageSerializer serializer;
+    private final int threads;
+    private final ExecutorService executor;
+
+    public HeadersFileValidator(NetworkParameters params) {
+        this(params, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads worker threads for parsing headers and checking proof of work.
+     */
+    public HeadersFileValidator(NetworkParameters params, int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+        this.params = params;
+        this.serializer = params.getDefaultSerializer();
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("headers-validator-%d").build());
+    }
+
+    /**
+     * Write a block header as this validator reads it: the header, its AuxPoW
+     * header if any, and a transaction count of zero. Blocks whose AuxPoW
+     * header was pruned cannot be written.
+     */
+    public static void writeHeader(Block block, OutputStream out) throws IOException {
+        out.write(block.cloneAsHeader().bitcoinSerialize(), 0, Block.HEADER_SIZE);
+        if (block instanceof AltcoinBlock && block.getParams() instanceof AuxPoWNetworkParameters
+                && ((AuxPoWNetworkParameters) block.getParams()).isAuxPoWBlockVersion(((AltcoinBlock) block).getRawVersion())) {
+            final AuxPoW auxpow = ((AltcoinBlock) block).getAuxPoW();
+            checkArgument(auxpow != null, "Block %s has no AuxPoW header to write", block.getHash());
+            auxpow.bitcoinSerialize(out);
+        }
+        out.write(0);
+    }
+
+    /**
+     * Validate the headers read from the given stream, up to its end or the
+     * first invalid header. The stream is not closed.
+     */
+    public Result validate(InputStream in) throws IOException {
+        final long start = System.nanoTime();
+        final Block genesis = params.getGenesisBlock().cloneAsHeader();
+        final CompactBlockStore store = new CompactBlockStore(params, 1 << 20);
+        final Sequencer sequencer = new Sequencer(store, new StoredBlock(genesis, genesis.getWork(), 0));
+        final ArrayDeque<Future<Batch>> checking = new ArrayDeque<Future<Batch>>();
+        try {
+            final Reader reader = new Reader(in);
+            List<byte[]> records = new ArrayList<byte[]>(BATCH_SIZE);
+            long batchOffset = 0;
+            byte[] record;
+            while ((record = reader.next()) != null && sequencer.failure == null) {
+                if (records.isEmpty())
+                    batchOffset = reader.recordOffset;
+                records.add(record);
+                if (records.size() == BATCH_SIZE) {
+                    checking.add(submit(records, batchOffset));
+                    records = new ArrayList<byte[]>(BATCH_SIZE);
+                    while (checking.size() > threads * 4)
+                        sequencer.accept(getUnchecked(checking.poll()));
+                }
+            }
+            if (!records.isEmpty())
+                checking.add(submit(records, batchOffset));
+            while (!checking.isEmpty() && sequencer.failure == null)
+                sequencer.accept(getUnchecked(checking.poll()));
+            if (sequencer.failure == null && reader.failure != null)
+                sequencer.fail(reader.recordOffset, null, reader.failure);
+        } finally {
+            for (Future<Batch> future : checking)
+                future.cancel(true);
+            store.close();
+        }
+        return new Result(sequencer.validated, sequencer.tip, System.nanoTime() - start, sequencer.failure);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Future<Batch> submit(final List<byte[]> records, final long offset) {
+        return executor.submit(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return check(records, offset);
+            }
+        });
+    }
+
+    /**
+     * Parse headers and check each on its own, up to the first which fails.
+     * Scrypt proof of work hashes are calculated together first, see
+     * {@link AltcoinBlock#calculateScryptHashes}.
+     */
+    private Batch check(List<byte[]> records, long offset) {
+        final Batch batch = new Batch(records.size());
+        final List<Block> parsed = new ArrayList<Block>(records.size());
+        VerificationException parseFailure = null;
+        for (byte[] record : records) {
+            try {
+                parsed.add(serializer.makeBlock(record));
+            } catch (VerificationException x) {
+                // Usually a ProtocolException, if the header could not be parsed
+                parseFailure = x;
+                break;
+            }
+        }
+        AltcoinBlock.calculateScryptHashes(parsed);
+
+        for (int i = 0; i < parsed.size(); i++) {
+            final Block block = parsed.get(i);
+            try {
+                block.verifyHeader();
+            } catch (VerificationException x) {
+                batch.fail(offset, block, x);
+                return batch;
+            }
+            batch.blocks.add(block);
+            batch.offsets.add(offset);
+            offset += records.get(i).length;
+        }
+        if (parseFailure != null)
+            batch.fail(offset, null, parseFailure);
+        return batch;
+    }
+
+    private static <T> T getUnchecked(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        } catch (ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    /** Headers which passed the checks made on their own, then the first which did not, if any. */
+    private static final class Batch {
+        final List<Block> blocks;
+        final List<Long> offsets;
+        Failure failure;
+
+        Batch(int size) {
+            this.blocks = new ArrayList<Block>(size);
+            this.offsets = new ArrayList<Long>(size);
+        }
+
+        void fail(long offset, @Nullable Block block, Exception cause) {
+            failure = new Failure(-1, offset, block != null ? block.getHash() : null, cause);
+        }
+    }
+
+    /** Checks the headers of each batch, in order, against the ones before. */
+    private final class Sequencer {
+        final CompactBlockStore store;
+        StoredBlock tip;
+        long validated;
+        Failure failure;
+
+        Sequencer(CompactBlockStore store, StoredBlock genesis) {
+            this.store = store;
+            this.tip = genesis;
+        }
+
+        void accept(Batch batch) {
+            for (int i = 0; i < batch.blocks.size() && failure == null; i++)
+                connect(batch.blocks.get(i), batch.offsets.get(i));
+            if (failure == null && batch.failure != null)
+                failure = new Failure(tip.getHeight() + 1, batch.failure.offset, batch.failure.hash,
+                        batch.failure.cause);
+        }
+
+        private void connect(Block block, long offset) {
+            if (tip.getHeight() == 0 && block.getHash().equals(tip.getHeader().getHash()))
+                return; // The file starts with the genesis block
+            try {
+                if (!block.getPrevBlockHash().equals(tip.getHeader().getHash()))
+                    throw new VerificationException("Header does not connect to " + tip.getHeader().getHash());
+                params.checkDifficultyTransitions(tip, block, store);
+                tip = tip.build(block.cloneAsHeader());
+                store.put(tip);
+                store.setChainHead(tip);
+                validated++;
+            } catch (VerificationException x) {
+                fail(offset, block, x);
+            } catch (BlockStoreException x) {
+                fail(offset, block, x);
+            }
+        }
+
+        void fail(long offset, @Nullable Block block, Exception cause) {
+            failure = new Failure(tip.getHeight() + 1, offset, block != null ? block.getHash() : null, cause);
+        }
+    }
+
+    /** Splits a stream into header records, without parsing them. */
+    private final class Reader {
+        private final InputStream in;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        /** Offset in the stream of the start of the buffer. */
+        private long bufferOffset;
+        private int start;
+        private int end;
+        private boolean eof;
+        /** Offset in the stream of the last record returned, or the malformed one. */
+        long recordOffset;
+        Exception failure;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Return the next record, or null at the end of the stream or a malformed record. */
+        @Nullable
+        byte[] next() throws IOException {
+            while (true) {
+                if (start == end) {
+                    if (eof || !fill())
+                        return null;
+                }
+                recordOffset = bufferOffset + start;
+                int length = -1;
+                ProtocolException error = null;
+                try {
+                    final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, buffer, start, end - start);
+                    if (cursor.getTransactionCount() != 0) {
+                        failure = new ProtocolException("Record is a block with transactions, not a header");
+                        return null;
+                    }
+                    if (cursor.getPosition() < end || eof)
+                        length = cursor.getPosition() - start;
+                } catch (ProtocolException x) {
+                    error = x;
+                }
+                if (length >= 0) {
+                    start += length;
+                    return Arrays.copyOfRange(buffer, start - length, start);
+                }
+                if (eof || end - start >= MAX_HEADER_SIZE) {
+                    failure = error != null ? error : new ProtocolException("Truncated header");
+                    return null;
+                }
+                // The header may continue past the end of the buffer
+                fill();
+            }
+        }
+
+        /** Move unread bytes to the start of the buffer, growing it if full, and read more. */
+        private boolean fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                bufferOffset += start;
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            final int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            end += read;
+            return true;
+        }
+    }
+
+    /** The first header found invalid. */
+    public static final class Failure {
+        private final int height;
+        private final long offset;
+        @Nullable private final Sha256Hash hash;
+        private final Exception cause;
+
+        Failure(int height, long offset, @Nullable Sha256Hash hash, Exception cause) {
+            this.height = height;
+            this.offset = offset;
+            this.hash = hash;
+            this.cause = cause;
+        }
+
+        /** Height the header would have had. */
+        public int getHeight() {
+            return height;
+        }
+
+        /** Offset of the header in the stream. */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** Hash of the header, or null if it could not be parsed. */
+        @Nullable
+        public Sha256Hash getHash() {
+            return hash;
+        }
+
+        /** A {@link VerificationException}, {@link ProtocolException} or {@link BlockStoreException}. */
+        public Exception getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Header at height " + height + ", offset " + offset + (hash != null ? ", hash " + hash : "")
+                    + ": " + cause.getMessage();
+        }
+    }
+
+    /** What was validated, how fast, and the first failure if any. */
+    public static final class Result {
+        private final long validated;
+        private final StoredBlock tip;
+        private final long elapsedNanos;
+        @Nullable private final Failure failure;
+
+        Result(long validated, StoredBlock tip, long elapsedNanos, @Nullable Failure failure) {
+            this.validated = validated;
+            this.tip = tip;
+            this.elapsedNanos = elapsedNanos;
+            this.failure = failure;
+        }
+
+        /** Number of headers after the genesis block which passed every check. */
+        public long getValidated() {
+            return validated;
+        }
+
+        /** The last valid header. */
+        public StoredBlock getTip() {
+            return tip;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getHeadersPerSecond() {
+            return elapsedNanos == 0 ? 0 : validated * 1e9 / elapsedNanos;
+        }
+
+        /** The first invalid header, or null if every header is valid. */
+        @Nullable
+        public Failure getFailure() {
+            return failure;
+        }
+
+        public boolean isValid() {
+            return failure == null;
+        }
+    }
+}
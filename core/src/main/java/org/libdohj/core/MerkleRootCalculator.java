@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+
+import java.io.Closeable;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Calculates the merkle root of a block's transactions on several threads,
+ * for verifying large blocks. Transaction IDs are calculated in chunks on
+ * worker threads, and cached in the transactions as
+ * {@link Transaction#getHash()} does; then the tree is built a level at a
+ * time, wide levels also being split into chunks, between two buffers which
+ * hold a level each. The root is the same as
+ * {@link org.bitcoinj.core.Block#getMerkleRoot()} calculates, including the
+ * duplication of the last hash of a level with an odd number of hashes.</p>
+ *
+ * <p>Work too small to be worth sharing out is done on the calling thread.
+ * Calculators are thread safe.</p>
+ */
+public class MerkleRootCalculator implements Closeable {
+    /** Transactions, or pairs of hashes, hashed by each task. */
+    private static final int CHUNK_SIZE = 256;
+
+    private final ExecutorService executor;
+
+    public MerkleRootCalculator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads worker threads for hashing.
+     */
+    public MerkleRootCalculator(int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("merkle-root-%d").build());
+    }
+
+    /**
+     * Get a calculator shared within the process, with a worker thread for
+     * each processor. It is created when first used, and never closed.
+     */
+    public static MerkleRootCalculator getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Calculate the merkle root of the given transactions, in block order.
+     */
+    public Sha256Hash calculateMerkleRoot(final List<Transaction> transactions) {
+        checkArgument(!transactions.isEmpty(), "No transactions");
+        byte[] level = hashTransactions(transactions);
+        byte[] next = new byte[((transactions.size() + 1) / 2) * 32];
+        for (int size = transactions.size(); size > 1; size = (size + 1) / 2) {
+            hashLevel(level, size, next);
+            final byte[] swap = level;
+            level = next;
+            next = swap;
+        }
+        return Sha256Hash.wrapReversed(Arrays.copyOf(level, 32));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Calculate the transaction IDs, in little endian byte order as hashed in
+     * the tree.
+     */
+    private byte[] hashTransactions(final List<Transaction> transactions) {
+        final byte[] hashes = new byte[transactions.size() * 32];
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < transactions.size(); start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(start + CHUNK_SIZE, transactions.size());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++)
+                        System.arraycopy(transactions.get(i).getHash().getReversedBytes(), 0, hashes, i * 32, 32);
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        return hashes;
+    }
+
+    /**
+     * Hash each pair of the first {@code size} hashes in one level into the
+     * next, pairing the last hash with itself if there is an odd number.
+     */
+    private void hashLevel(final byte[] level, final int size, final byte[] next) {
+        final int pairs = (size + 1) / 2;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < pairs; start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(start + CHUNK_SIZE, pairs);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws DigestException {
+                    final MessageDigest digest = Sha256Hash.newDigest();
+                    final byte[] first = new byte[32];
+                    for (int pair = from; pair < to; pair++) {
+                        final int left = pair * 2;
+                        final int right = Math.min(left + 1, size - 1);
+                        digest.update(level, left * 32, 32);
+                        digest.update(level, right * 32, 32);
+                        digest.digest(first, 0, 32);
+                        digest.update(first);
+                        digest.digest(next, pair * 32, 32);
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+    }
+
+    /** Run the tasks, on the calling thread if there is only one. */
+    private void run(List<Callable<Void>> tasks) {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException x) {
+                throw x;
+            } catch (Exception x) {
+                throw new RuntimeException(x);
+            }
+            return;
+        }
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+        for (Callable<Void> task : tasks)
+            futures.add(executor.submit(task));
+        for (Future<Void> future : futures)
+            getUnchecked(future);
+    }
+
+    private static <T> T getUnchecked(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        } catch (ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    private static class DefaultHolder {
+        static final MerkleRootCalculator INSTANCE = new MerkleRootCalculator();
+    }
+}
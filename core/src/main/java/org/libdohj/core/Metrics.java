@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the {@link MetricsRecorder} libdohj reports to, and the names of the
+ * metrics it reports. By default nothing is recorded, and timed code paths do
+ * not even read the clock.
+ *
+ * <p>Set the recorder once, at startup; an operation already in progress when
+ * the recorder changes may report a meaningless time.</p>
+ */
+public final class Metrics {
+    /** Scrypt proof of work hashes. Timed. */
+    public static final String SCRYPT_HASH = "libdohj.hash.scrypt";
+    /** Batches of scrypt proof of work hashes calculated together. Timed. */
+    public static final String SCRYPT_BATCH = "libdohj.hash.scrypt.batch";
+    /** X11 block hashes. Timed. */
+    public static final String X11_HASH = "libdohj.hash.x11";
+    /** AuxPoW headers parsed. Timed. */
+    public static final String AUXPOW_PARSE = "libdohj.auxpow.parse";
+    /** AuxPoW headers which could not be parsed. Counted. */
+    public static final String AUXPOW_PARSE_FAILURE = "libdohj.auxpow.parse.failure";
+    /** AuxPoW proof of work checks, whether they pass or fail. Timed. */
+    public static final String AUXPOW_VERIFY = "libdohj.auxpow.verify";
+    /** AuxPoW proof of work checks which failed, with the reason. Counted. */
+    public static final String AUXPOW_VERIFY_FAILURE = "libdohj.auxpow.verify.failure";
+    /** AuxPoW parent block proof of work hashes found in a {@link ParentProofOfWorkCache}. Counted. */
+    public static final String PARENT_POW_CACHE_HIT = "libdohj.auxpow.parent_pow.cache_hit";
+    /** Merkle roots calculated from a {@link org.bitcoinj.core.MerkleBranch}. Timed. */
+    public static final String MERKLE_BRANCH_ROOT = "libdohj.merkle_branch.root";
+    /** Block store reads made while checking difficulty transitions. Timed. */
+    public static final String RETARGET_BLOCK_READ = "libdohj.retarget.block_read";
+    /** Name lookups answered from a cache. Counted. */
+    public static final String NAME_LOOKUP_CACHE_HIT = "libdohj.names.lookup.cache_hit";
+    /** Name lookups which went to a REST server. Timed. */
+    public static final String NAME_LOOKUP_REST = "libdohj.names.lookup.rest";
+    /** Full blocks fetched from peers for name lookups. Timed. */
+    public static final String NAME_LOOKUP_FULL_BLOCK = "libdohj.names.lookup.full_block";
+    /** Messages dropped by a {@link ProofOfWorkGuard}, with the reason. Counted. */
+    public static final String POW_GUARD_REJECT = "libdohj.pow_guard.reject";
+    /** Headers whose proof of work was skipped by {@link AssumeValid}. Counted. */
+    public static final String POW_ASSUMED = "libdohj.pow.assumed";
+
+    /** Discards everything. */
+    public static final MetricsRecorder NOOP = new MetricsRecorder() {
+        @Override
+        public void recordNanos(String metric, long nanos) {
+        }
+
+        @Override
+        public void increment(String metric) {
+        }
+
+        @Override
+        public void increment(String metric, String reason) {
+        }
+    };
+
+    private static volatile MetricsRecorder recorder = NOOP;
+
+    private Metrics() {
+    }
+
+    public static void setRecorder(MetricsRecorder newRecorder) {
+        recorder = checkNotNull(newRecorder);
+    }
+
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Start timing an operation.
+     *
+     * @return the start time to pass to {@link #recordTime(String, long)}, or 0 if nothing is being recorded.
+     */
+    public static long startTimer() {
+        return recorder != NOOP ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since {@link #startTimer()} returned the given start time.
+     */
+    public static void recordTime(String metric, long startNanos) {
+        final MetricsRecorder current = recorder;
+        if (current != NOOP && startNanos != 0)
+            current.recordNanos(metric, System.nanoTime() - startNanos);
+    }
+
+    public static void increment(String metric) {
+        recorder.increment(metric);
+    }
+
+    public static void increment(String metric, String reason) {
+        recorder.increment(metric, reason);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+/**
+ * Receives timings and counts from libdohj's hot paths, for bridging to an
+ * application's metrics library. Install one with
+ * {@link Metrics#setRecorder(MetricsRecorder)}.
+ *
+ * <p>Methods are called on whichever thread did the work, often on the
+ * network or block chain threads, so implementations must be thread safe and
+ * must not block. Metric names are the constants in {@link Metrics}.</p>
+ */
+public interface MetricsRecorder {
+    /**
+     * Record one timed operation. Each call is one occurrence, so timed metrics
+     * also serve as counts.
+     */
+    void recordNanos(String metric, long nanos);
+
+    /**
+     * Count one occurrence of an event.
+     */
+    void increment(String metric);
+
+    /**
+     * Count one occurrence of an event, with a short, fixed reason such as the
+     * check that a proof of work failed. Reasons come from a small set, so are
+     * suitable as metric tags.
+     */
+    void increment(String metric, String reason);
+}
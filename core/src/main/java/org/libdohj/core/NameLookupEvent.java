@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * A name lookup. Lookups which delegate to others, such as a REST lookup which
+ * fetches the block the name is in, record an event for each. Only loaded
+ * through {@link ConsensusEvents}.
+ */
+@Name("org.libdohj.NameLookup")
+@Label("Name Lookup")
+@Description("Lookup of the latest transaction of a name")
+@Category({"libdohj", "Names"})
+@StackTrace(false)
+final class NameLookupEvent extends Event {
+    @Label("Lookup")
+    String lookup;
+
+    @Label("Name")
+    String name;
+
+    @Label("Network")
+    String network;
+
+    @Label("Height")
+    int height;
+
+    @Label("Block Hash")
+    String blockHash;
+
+    @Label("Outcome")
+    String outcome;
+
+    static NameLookupEvent start() {
+        final NameLookupEvent event = new NameLookupEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    void end(Class<?> lookup, String name, int height, Sha256Hash blockHash, NetworkParameters params, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.lookup = lookup.getSimpleName();
+            this.name = name;
+            this.network = params != null ? params.getId() : null;
+            this.height = height;
+            this.blockHash = blockHash != null ? blockHash.toString() : null;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
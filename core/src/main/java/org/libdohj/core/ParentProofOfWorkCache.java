@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers the proof of work hashes of parent block headers in AuxPoW
+ * headers, so that a parent block merged mined into several chains, or seen
+ * again on a reorganisation or a second block chain for the same network, is
+ * hashed once per process. Entries are keyed by the parent header, through the
+ * SHA-256D hash of its 80 bytes which parsing has already calculated, and the
+ * least recently used are dropped beyond the configured size.</p>
+ *
+ * <p>Each cache is for one proof of work hash function, and is shared by every
+ * network whose parent chain uses it: {@link #SCRYPT} by the Dogecoin
+ * networks. Only the hash is cached; it is compared against each child block's
+ * own target every time. Networks whose parents are mined with SHA-256D, such
+ * as Namecoin, have no cache, as the hash is the header's block hash, which
+ * parsing has already calculated.</p>
+ */
+public abstract class ParentProofOfWorkCache {
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    /** For parent chains mined with scrypt, such as Litecoin. */
+    public static final ParentProofOfWorkCache SCRYPT = new ParentProofOfWorkCache(DEFAULT_MAX_ENTRIES) {
+        @Override
+        protected Sha256Hash hash(AltcoinBlock parentHeader) {
+            return parentHeader.getScryptHash();
+        }
+    };
+
+    private final Map<Sha256Hash, Sha256Hash> entries;
+
+    protected ParentProofOfWorkCache(final int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.entries = new LinkedHashMap<Sha256Hash, Sha256Hash>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Sha256Hash> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** Calculate the proof of work hash of a parent block header. */
+    protected abstract Sha256Hash hash(AltcoinBlock parentHeader);
+
+    /**
+     * Get the proof of work hash of a parent block header, calculating it if
+     * it is not cached. The lock is not held while hashing, so two threads
+     * may both hash a header neither has seen before.
+     */
+    public Sha256Hash getDifficultyHash(AltcoinBlock parentHeader) {
+        final Sha256Hash key = parentHeader.getHash();
+        synchronized (this) {
+            final Sha256Hash cached = entries.get(key);
+            if (cached != null) {
+                Metrics.increment(Metrics.PARENT_POW_CACHE_HIT);
+                return cached;
+            }
+        }
+        final Sha256Hash hash = hash(parentHeader);
+        synchronized (this) {
+            entries.put(key, hash);
+        }
+        return hash;
+    }
+
+    /** Number of parent headers currently cached. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
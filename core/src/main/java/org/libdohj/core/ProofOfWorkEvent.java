@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * A proof of work check. The height of the block is not known at this point;
+ * the {@link DifficultyTransitionEvent} for the same hash carries it. Only
+ * loaded through {@link ConsensusEvents}.
+ */
+@Name("org.libdohj.ProofOfWork")
+@Label("Proof of Work Check")
+@Description("Check of the proof of work of a block header, or of its AuxPoW header")
+@Category({"libdohj", "Consensus"})
+@StackTrace(false)
+@Threshold("1 ms")
+final class ProofOfWorkEvent extends Event {
+    @Label("Network")
+    String network;
+
+    @Label("Block Hash")
+    String blockHash;
+
+    @Label("AuxPoW")
+    boolean auxpow;
+
+    @Label("Outcome")
+    String outcome;
+
+    static ProofOfWorkEvent start() {
+        final ProofOfWorkEvent event = new ProofOfWorkEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    void end(NetworkParameters params, Sha256Hash blockHash, boolean auxpow, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.network = params.getId();
+            this.blockHash = blockHash != null ? blockHash.toString() : null;
+            this.auxpow = auxpow;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
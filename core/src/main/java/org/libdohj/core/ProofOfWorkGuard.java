@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Screens block headers and blocks from peers before the block chain sees
+ * them, so that a peer sending junk cannot make us spend our CPU on
+ * memory-hard proof of work hashes. Register it on the peer group to run on
+ * the network thread:</p>
+ *
+ * <pre>
+ * peerGroup.addPreMessageReceivedEventListener(Threading.SAME_THREAD, new ProofOfWorkGuard(params, blockStore));
+ * </pre>
+ *
+ * <p>Each header in a message is first checked without any memory-hard hash:
+ * that it connects to the previous one, the rules of
+ * {@link AltcoinBlock#checkHeaderBeforeProofOfWork()}, the merkle root of full
+ * blocks and, where the message connects to the block store, the difficulty
+ * transition. Headers already in the block store are skipped. Only then is the
+ * proof of work of the remaining headers checked, charged against a budget of
+ * hashes per second kept for each peer address. A header failing its proof of
+ * work also costs the peer a penalty, so that it is refused for a while even
+ * if it reconnects. Any message which fails is dropped and the peer
+ * disconnected.</p>
+ *
+ * <p>Proof of work hashes are cached on the block, so the block chain does not
+ * calculate them again for messages which pass. Given the {@link AssumeValid}
+ * of an {@link AssumeValidBlockChain}, headers whose proof of work that block
+ * chain will skip are not charged for.</p>
+ */
+public class ProofOfWorkGuard implements PreMessageReceivedEventListener {
+    private static final Logger log = LoggerFactory.getLogger(ProofOfWorkGuard.class);
+
+    /** Proof of work hashes each peer may cause per second, on average. */
+    public static final double DEFAULT_HASHES_PER_SECOND = 2000;
+    /** Proof of work hashes a peer may cause at once; two full headers messages. */
+    public static final int DEFAULT_BURST = 2 * HeadersMessage.MAX_HEADERS;
+    /** How long a peer is refused after sending a header with invalid proof of work. */
+    public static final long DEFAULT_PENALTY_SECONDS = 10 * 60;
+
+    /** A header does not connect to the one before it in the same message. */
+    public static final String REJECT_UNCONNECTED = "unconnected";
+    /** A header failed a check made before its proof of work. */
+    public static final String REJECT_INVALID = "invalid";
+    /** The peer has used up its budget of proof of work hashes. */
+    public static final String REJECT_OVER_BUDGET = "over-budget";
+    /** A header failed its proof of work check. */
+    public static final String REJECT_PROOF_OF_WORK = "proof-of-work";
+
+    private final NetworkParameters params;
+    private final BlockStore store;
+    @Nullable private final AssumeValid assumeValid;
+    private final double hashesPerSecond;
+    private final int burst;
+    private final double penalty;
+    private final LoadingCache<InetAddress, Budget> budgets;
+
+    public ProofOfWorkGuard(NetworkParameters params, BlockStore store) {
+        this(params, store, null);
+    }
+
+    /**
+     * @param assumeValid the assume-valid anchor of the block chain, or null if it has none.
+     */
+    public ProofOfWorkGuard(NetworkParameters params, BlockStore store, @Nullable AssumeValid assumeValid) {
+        this(params, store, assumeValid, DEFAULT_HASHES_PER_SECOND, DEFAULT_BURST, DEFAULT_PENALTY_SECONDS);
+    }
+
+    /**
+     * @param hashesPerSecond proof of work hashes each peer may cause per second, on average.
+     * @param burst proof of work hashes a peer may cause at once. Should be at least
+     *            {@link HeadersMessage#MAX_HEADERS}, or peers cannot send full headers messages.
+     * @param penaltySeconds how long a peer is refused after sending a header with invalid proof of work.
+     */
+    public ProofOfWorkGuard(NetworkParameters params, BlockStore store, double hashesPerSecond, int burst,
+                            long penaltySeconds) {
+        this(params, store, null, hashesPerSecond, burst, penaltySeconds);
+    }
+
+    /**
+     * @param assumeValid the assume-valid anchor of the block chain, or null if it has none.
+     * @param hashesPerSecond proof of work hashes each peer may cause per second, on average.
+     * @param burst proof of work hashes a peer may cause at once.
+     * @param penaltySeconds how long a peer is refused after sending a header with invalid proof of work.
+     */
+    public ProofOfWorkGuard(NetworkParameters params, BlockStore store, @Nullable AssumeValid assumeValid,
+                            double hashesPerSecond, int burst, long penaltySeconds) {
+        checkArgument(assumeValid == null || assumeValid.getStore() == store,
+                "AssumeValid must use the block chain's block store");
+        checkArgument(hashesPerSecond > 0, "hashesPerSecond must be positive");
+        checkArgument(burst >= 0 && penaltySeconds >= 0);
+        this.params = params;
+        this.store = store;
+        this.assumeValid = assumeValid;
+        this.hashesPerSecond = hashesPerSecond;
+        this.burst = burst;
+        this.penalty = hashesPerSecond * penaltySeconds;
+        // Forget peers once they have been quiet for long enough to have earned back a penalty.
+        this.budgets = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterAccess(penaltySeconds + 3600, TimeUnit.SECONDS)
+                .build(new CacheLoader<InetAddress, Budget>() {
+                    @Override
+                    public Budget load(InetAddress address) {
+                        return new Budget(ProofOfWorkGuard.this.hashesPerSecond, ProofOfWorkGuard.this.burst);
+                    }
+                });
+    }
+
+    @Override
+    public Message onPreMessageReceived(Peer peer, Message m) {
+        final List<Block> headers;
+        if (m instanceof HeadersMessage)
+            headers = ((HeadersMessage) m).getBlockHeaders();
+        else if (m instanceof Block)
+            headers = Collections.singletonList((Block) m);
+        else
+            return m;
+
+        final String reason = check(peer.getAddress().getAddr(), headers);
+        if (reason == null)
+            return m;
+        Metrics.increment(Metrics.POW_GUARD_REJECT, reason);
+        log.info("{}: dropping {} and disconnecting: {}", peer, m.getClass().getSimpleName(), reason);
+        peer.close();
+        return null;
+    }
+
+    /**
+     * Check the headers received from the given address.
+     *
+     * @return null if the headers may be passed on to the block chain, otherwise one of the REJECT_ reasons.
+     */
+    @Nullable
+    String check(InetAddress address, List<? extends Block> headers) {
+        final List<Block> unknown = new ArrayList<Block>(headers.size());
+        final Map<Sha256Hash, StoredBlock> pending = new HashMap<Sha256Hash, StoredBlock>();
+        final BlockStore view = new PendingBlockStore(store, pending);
+        try {
+            Block previous = null;
+            StoredBlock storedPrev = headers.isEmpty() ? null : store.get(headers.get(0).getPrevBlockHash());
+            for (final Block header : headers) {
+                if (previous != null && !header.getPrevBlockHash().equals(previous.getHash())) {
+                    log.info("{}: header {} does not connect to {}", address, header.getHash(), previous.getHash());
+                    return REJECT_UNCONNECTED;
+                }
+                previous = header;
+
+                final StoredBlock known = store.get(header.getHash());
+                if (known != null) {
+                    storedPrev = known;
+                    continue;
+                }
+                if (header instanceof AltcoinBlock)
+                    ((AltcoinBlock) header).checkHeaderBeforeProofOfWork();
+                if (header.getTransactions() != null)
+                    header.verifyTransactions(storedPrev != null ? storedPrev.getHeight() + 1 : Block.BLOCK_HEIGHT_UNKNOWN,
+                            EnumSet.noneOf(Block.VerifyFlag.class));
+                if (storedPrev != null) {
+                    params.checkDifficultyTransitions(storedPrev, header, view);
+                    storedPrev = storedPrev.build(header);
+                    pending.put(header.getHash(), storedPrev);
+                    // The block chain will skip its proof of work, so there's nothing to budget for.
+                    if (assumeValid != null && assumeValid.isAssumedHeight(storedPrev.getHeight()))
+                        continue;
+                }
+                unknown.add(header);
+            }
+        } catch (VerificationException x) {
+            log.info("{}: invalid header: {}", address, x.getMessage());
+            return REJECT_INVALID;
+        } catch (BlockStoreException x) {
+            // Not the peer's fault; leave the block chain to deal with it.
+            log.warn("Could not read block store, skipping checks", x);
+            return null;
+        }
+
+        final Budget budget = budgets.getUnchecked(address);
+        if (!budget.tryCharge(unknown.size()))
+            return REJECT_OVER_BUDGET;
+        for (final Block header : unknown) {
+            try {
+                // Everything but the proof of work was checked above
+                if (header instanceof AltcoinBlock)
+                    ((AltcoinBlock) header).checkProofOfWorkAfterHeader();
+                else
+                    header.verifyHeader();
+            } catch (VerificationException x) {
+                budget.penalize(penalty);
+                log.info("{}: header failed proof of work: {}", address, x.getMessage());
+                return REJECT_PROOF_OF_WORK;
+            }
+        }
+        return null;
+    }
+
+    /** Token bucket of proof of work hashes for one peer address. */
+    private static class Budget {
+        private final double hashesPerMilli;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillMillis;
+
+        Budget(double hashesPerSecond, int capacity) {
+            this.hashesPerMilli = hashesPerSecond / 1000;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefillMillis = Utils.currentTimeMillis();
+        }
+
+        synchronized boolean tryCharge(int hashes) {
+            refill();
+            if (tokens < hashes)
+                return false;
+            tokens -= hashes;
+            return true;
+        }
+
+        synchronized void penalize(double hashes) {
+            refill();
+            tokens -= hashes;
+        }
+
+        private void refill() {
+            final long now = Utils.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * hashesPerMilli);
+            lastRefillMillis = now;
+        }
+    }
+
+    /**
+     * The block store, plus the headers of the message being checked, so that
+     * difficulty transitions can be checked across the whole message.
+     */
+    private static class PendingBlockStore implements BlockStore {
+        private final BlockStore store;
+        private final Map<Sha256Hash, StoredBlock> pending;
+
+        PendingBlockStore(BlockStore store, Map<Sha256Hash, StoredBlock> pending) {
+            this.store = store;
+            this.pending = pending;
+        }
+
+        @Override
+        public void put(StoredBlock block) throws BlockStoreException {
+            throw new BlockStoreException("Read only");
+        }
+
+        @Override
+        public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+            final StoredBlock block = pending.get(hash);
+            return block != null ? block : store.get(hash);
+        }
+
+        @Override
+        public StoredBlock getChainHead() throws BlockStoreException {
+            return store.getChainHead();
+        }
+
+        @Override
+        public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+            throw new BlockStoreException("Read only");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return store.getParams();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Calculates the scrypt hashes of several inputs at once, each in one lane
+ * of a SIMD vector. This is the version for Java 8 runtimes, which have no
+ * vector API, so no lanes: {@link Utils#scryptDigests} hashes one input at a
+ * time instead.</p>
+ *
+ * <p>On Java 17 and later the multi-release jar has a version under
+ * {@code META-INF/versions/17} which uses {@code jdk.incubator.vector}.</p>
+ */
+final class ScryptLanes {
+    private ScryptLanes() {
+    }
+
+    /** The number of inputs hashed together, or 1 if lanes are not available. */
+    static int getLanes() {
+        return 1;
+    }
+
+    /**
+     * Calculate the scrypt hash of each input, as {@link Utils#scryptDigest}
+     * does. Without lanes, they are hashed one at a time.
+     */
+    static byte[][] scryptDigests(byte[][] inputs) throws GeneralSecurityException {
+        return Utils.scryptDigestsInTurn(inputs);
+    }
+}
@@ -28,6 +28,40 @@ public class Utils {
      * The resulting hash is in small endian form.
      */
     public static byte[] scryptDigest(byte[] input) throws GeneralSecurityException {
-        return SCrypt.scrypt(input, input, 1024, 1, 1, 32);
+        final long start = Metrics.startTimer();
+        final byte[] digest = SCrypt.scrypt(input, input, 1024, 1, 1, 32);
+        Metrics.recordTime(Metrics.SCRYPT_HASH, start);
+        return digest;
+    }
+
+    /**
+     * Calculates the Scrypt hash of each of the given inputs, as
+     * {@link #scryptDigest(byte[])} does. On Java 17 and later, started with
+     * {@code --add-modules jdk.incubator.vector}, inputs are hashed several at
+     * a time in SIMD lanes; otherwise one at a time.
+     */
+    public static byte[][] scryptDigests(byte[][] inputs) throws GeneralSecurityException {
+        if (inputs.length < 2 || getScryptLanes() == 1)
+            return scryptDigestsInTurn(inputs);
+        final long start = Metrics.startTimer();
+        final byte[][] digests = ScryptLanes.scryptDigests(inputs);
+        Metrics.recordTime(Metrics.SCRYPT_BATCH, start);
+        return digests;
+    }
+
+    /** Calculates the Scrypt hash of each of the given inputs, one at a time. */
+    static byte[][] scryptDigestsInTurn(byte[][] inputs) throws GeneralSecurityException {
+        final byte[][] digests = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++)
+            digests[i] = scryptDigest(inputs[i]);
+        return digests;
+    }
+
+    /**
+     * Get how many inputs {@link #scryptDigests(byte[][])} hashes together, or
+     * 1 if it hashes them one at a time.
+     */
+    public static int getScryptLanes() {
+        return ScryptLanes.getLanes();
     }
 }
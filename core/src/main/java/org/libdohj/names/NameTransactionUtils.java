@@ -24,6 +24,11 @@ import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.script.Script;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 // TODO: document this
 
@@ -53,6 +58,48 @@ public class NameTransactionUtils {
         return null;
     }
     
+    /**
+     * Find the transaction containing a name_firstupdate or name_update of each
+     * of the given names, scanning the transactions once for all of them. As
+     * with {@link #getNameAnyUpdateOutput}, the first matching transaction wins.
+     *
+     * @return the transaction of each name which is updated; names which are
+     * not updated in these transactions are left out.
+     */
+    public static Map<String, Transaction> getNameAnyUpdateTransactions(Iterable<Transaction> txs, Collection<String> names) {
+        final Set<String> wanted = new HashSet<String>(names);
+        final Map<String, Transaction> found = new HashMap<String, Transaction>();
+        
+        for (Transaction tx : txs) {
+            for (TransactionOutput output : tx.getOutputs()) {
+                String name = getNameAnyUpdateName(output);
+                if (name != null && wanted.remove(name)) {
+                    found.put(name, tx);
+                }
+            }
+            if (wanted.isEmpty()) {
+                break;
+            }
+        }
+        
+        return found;
+    }
+    
+    // The name updated by a name_firstupdate or name_update output, or null for any other output.
+    private static String getNameAnyUpdateName(TransactionOutput output) {
+        try {
+            NameScript ns = new NameScript(output.getScriptPubKey());
+            if (ns.isNameOp() && ns.isAnyUpdate()) {
+                return new String(ns.getOpName().data, "ISO-8859-1");
+            }
+        } catch (ScriptException e) {
+            // Not a name output
+        } catch (UnsupportedEncodingException e) {
+            // Not a name output
+        }
+        return null;
+    }
+    
     public static NameScript getNameAnyUpdateScript(Transaction tx, String name) {
         TransactionOutput output = getNameAnyUpdateOutput(tx, name);
         
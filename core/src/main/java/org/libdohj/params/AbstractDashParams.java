@@ -26,6 +26,8 @@ import org.dashj.hash.X11;
 import org.libdohj.core.AltcoinNetworkParameters;
 import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.core.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -150,6 +152,8 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
     @Override
     public void checkDifficultyTransitions(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore)
             throws VerificationException, BlockStoreException {
+        final Object event = ConsensusEvents.beginDifficultyTransition();
+        String outcome = ConsensusEvents.OUTCOME_ERROR;
         try {
             final long newTargetCompact = calculateNewDifficultyTarget(storedPrev, nextBlock, blockStore);
             final long receivedTargetCompact = nextBlock.getDifficultyTarget();
@@ -170,7 +174,8 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
                     if(java.lang.Math.abs(n1-n2) > n1*0.2)
                         throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
                                 newTargetCompact + " vs " + receivedTargetCompact);
-                    else return;  //let it go
+                    outcome = ConsensusEvents.OUTCOME_VALID;
+                    return;  //let it go
                 }
 
             }
@@ -178,8 +183,15 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
             if (newTargetCompact != receivedTargetCompact)
                 throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
                         newTargetCompact + " vs " + receivedTargetCompact);
+            outcome = ConsensusEvents.OUTCOME_VALID;
         } catch (AbstractDashParams.CheckpointEncounteredException ex) {
             // Just have to take it on trust then
+            outcome = ConsensusEvents.OUTCOME_CHECKPOINT;
+        } catch (VerificationException ex) {
+            outcome = ConsensusEvents.OUTCOME_INVALID;
+            throw ex;
+        } finally {
+            ConsensusEvents.endDifficultyTransition(event, this, storedPrev.getHeight() + 1, nextBlock, outcome);
         }
     }
     /**
@@ -264,7 +276,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
 
 
             try {
-                StoredBlock BlockReadingPrev = blockStore.get(BlockReading.getHeader().getPrevBlockHash());
+                StoredBlock BlockReadingPrev = RetargetReads.get(blockStore, BlockReading.getHeader().getPrevBlockHash());
                 if (BlockReadingPrev == null)
                 {
                     throw new CheckpointEncounteredException();
@@ -340,7 +352,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
             LastBlockTime = BlockReading.getHeader().getTimeSeconds();
 
             try {
-                StoredBlock BlockReadingPrev = blockStore.get(BlockReading.getHeader().getPrevBlockHash());
+                StoredBlock BlockReadingPrev = RetargetReads.get(blockStore, BlockReading.getHeader().getPrevBlockHash());
                 if (BlockReadingPrev == null)
                 {
                     //assert(BlockReading); break;
@@ -400,7 +412,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
         // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
         // two weeks after the initial block chain download.
         long now = System.currentTimeMillis();
-        StoredBlock cursor = blockStore.get(prev.getHash());
+        StoredBlock cursor = RetargetReads.get(blockStore, prev.getHash());
 
         int blockstogoback = getInterval() - 1;
         if(storedPrev.getHeight()+1 != getInterval())
@@ -412,7 +424,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
                 throw new VerificationException(
                         "Difficulty transition point but we did not find a way back to the genesis block.");
             }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+            cursor = RetargetReads.get(blockStore, cursor.getHeader().getPrevBlockHash());
         }
         long elapsed = System.currentTimeMillis() - now;
         if (elapsed > 50)
@@ -518,7 +530,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
                     break;
                 }
             }
-            StoredBlock BlockReadingPrev = blockStore.get(BlockReading.getHeader().getPrevBlockHash());
+            StoredBlock BlockReadingPrev = RetargetReads.get(blockStore, BlockReading.getHeader().getPrevBlockHash());
             if (BlockReadingPrev == null)
             {
                 //Since we are using the checkpoint system, there may not be enough blocks to do this diff adjust, so skip until we do
@@ -580,7 +592,7 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
             while (!cursor.getHeader().equals(getGenesisBlock()) &&
                     cursor.getHeight() % getInterval() != 0 &&
                     cursor.getHeader().getDifficultyTargetAsInteger().equals(getMaxTarget()))
-                cursor = cursor.getPrev(blockStore);
+                cursor = RetargetReads.getPrev(cursor, blockStore);
             BigInteger cursorTarget = cursor.getHeader().getDifficultyTargetAsInteger();
             BigInteger newTarget = next.getDifficultyTargetAsInteger();
             if (!cursorTarget.equals(newTarget))
@@ -606,6 +618,17 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
         return block.getHash();
     }
 
+    /**
+     * Dark Gravity Wave v3 reads the 24 blocks before the previous one. The
+     * earlier algorithms read back too far to checkpoint.
+     */
+    @Override
+    public int getCheckpointWindow(int height) {
+        // The heights calculateNewDifficultyTarget switches to DarkGravityWave3 at
+        final int darkGravityWave3Height = getId().equals(ID_DASH_TESTNET) ? 3000 : 68589;
+        return height + 1 >= darkGravityWave3Height ? 25 : 0;
+    }
+
     /**
      * Get the hash to use for a block.  Most coins use SHA256D for block hashes,
      * but DASH uses X11.
@@ -616,7 +639,10 @@ public abstract class AbstractDashParams extends NetworkParameters implements Al
     @Override
     public Sha256Hash calculateBlockHash(byte[] payload, int offset, int length)
     {
-        return Sha256Hash.wrapReversed(X11.digest(payload, offset, length));
+        final long start = Metrics.startTimer();
+        final byte[] digest = X11.digest(payload, offset, length);
+        Metrics.recordTime(Metrics.X11_HASH, start);
+        return Sha256Hash.wrapReversed(digest);
     }
 
     @Override
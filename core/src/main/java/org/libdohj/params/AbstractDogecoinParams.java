@@ -24,6 +24,8 @@ import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.utils.MonetaryFormat;
 import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.core.ParentProofOfWorkCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +83,7 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
     protected final int diffChangeTarget;
 
     protected Logger log = LoggerFactory.getLogger(AbstractDogecoinParams.class);
+
     public static final int DOGECOIN_PROTOCOL_VERSION_AUXPOW = 70003;
     public static final int DOGECOIN_PROTOCOL_VERSION_CURRENT = 70004;
 
@@ -196,6 +199,8 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
     @Override
     public void checkDifficultyTransitions(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore)
         throws VerificationException, BlockStoreException {
+        final Object event = ConsensusEvents.beginDifficultyTransition();
+        String outcome = ConsensusEvents.OUTCOME_ERROR;
         try {
             final long newTargetCompact = calculateNewDifficultyTarget(storedPrev, nextBlock, blockStore);
             final long receivedTargetCompact = nextBlock.getDifficultyTarget();
@@ -203,8 +208,15 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
             if (newTargetCompact != receivedTargetCompact)
                 throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
                         newTargetCompact + " vs " + receivedTargetCompact);
+            outcome = ConsensusEvents.OUTCOME_VALID;
         } catch (CheckpointEncounteredException ex) {
             // Just have to take it on trust then
+            outcome = ConsensusEvents.OUTCOME_CHECKPOINT;
+        } catch (VerificationException ex) {
+            outcome = ConsensusEvents.OUTCOME_INVALID;
+            throw ex;
+        } finally {
+            ConsensusEvents.endDifficultyTransition(event, this, storedPrev.getHeight() + 1, nextBlock, outcome);
         }
     }
 
@@ -249,7 +261,7 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
 
                     while (cursor.getHeight() % retargetInterval != 0
                             && cursor.getHeader().getDifficultyTarget() == Utils.encodeCompactBits(this.getMaxTarget())) {
-                        StoredBlock prevCursor = cursor.getPrev(blockStore);
+                        StoredBlock prevCursor = RetargetReads.getPrev(cursor, blockStore);
                         if (prevCursor == null) {
                             break;
                         }
@@ -277,7 +289,7 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
                 throw new VerificationException(
                         "Difficulty transition point but we did not find a way back to the genesis block.");
             }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+            cursor = RetargetReads.get(blockStore, cursor.getHeader().getPrevBlockHash());
         }
 
         //We used checkpoints...
@@ -393,6 +405,11 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
         return AUXPOW_CHAIN_ID;
     }
 
+    @Override
+    public ParentProofOfWorkCache getParentProofOfWorkCache() {
+        return ParentProofOfWorkCache.SCRYPT;
+    }
+
     /**
      * Whether this network has special rules to enable minimum difficulty blocks
      * after a long interval between two blocks (i.e. testnet).
@@ -407,6 +424,23 @@ public abstract class AbstractDogecoinParams extends NetworkParameters implement
         return ((AltcoinBlock) block).getScryptHash();
     }
 
+    @Override
+    public boolean isProofOfWorkScrypt() {
+        return true;
+    }
+
+    /**
+     * Digishield retargets every block from the two before it. Before then, a
+     * retarget looks back a full interval from the block before it, so the
+     * checkpoint must be a retarget block, stored along with its parent.
+     */
+    @Override
+    public int getCheckpointWindow(int height) {
+        if (height + 1 >= getDigishieldBlockHeight() || height % getInterval() == 0)
+            return 2;
+        return 0;
+    }
+
     @Override
     public AltcoinSerializer getSerializer(boolean parseRetain) {
         return new AltcoinSerializer(this, parseRetain);
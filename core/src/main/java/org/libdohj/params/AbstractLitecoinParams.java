@@ -22,6 +22,7 @@ import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.utils.MonetaryFormat;
 import org.libdohj.core.AltcoinNetworkParameters;
 import org.libdohj.core.AltcoinSerializer;
+import org.libdohj.core.ConsensusEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -110,6 +111,20 @@ public abstract class AbstractLitecoinParams extends NetworkParameters implement
         return ((AltcoinBlock) block).getScryptHash();
     }
 
+    @Override
+    public boolean isProofOfWorkScrypt() {
+        return true;
+    }
+
+    /**
+     * A retarget looks back a full interval from the block before it, so the
+     * checkpoint must be a retarget block, stored along with its parent.
+     */
+    @Override
+    public int getCheckpointWindow(int height) {
+        return height % getInterval() == 0 ? 2 : 0;
+    }
+
     public MonetaryFormat getMonetaryFormat() {
         return LTC;
     }
@@ -138,6 +153,8 @@ public abstract class AbstractLitecoinParams extends NetworkParameters implement
     @Override
     public void checkDifficultyTransitions(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore)
         throws VerificationException, BlockStoreException {
+        final Object event = ConsensusEvents.beginDifficultyTransition();
+        String outcome = ConsensusEvents.OUTCOME_ERROR;
         try {
             final long newTargetCompact = calculateNewDifficultyTarget(storedPrev, nextBlock, blockStore);
             final long receivedTargetCompact = nextBlock.getDifficultyTarget();
@@ -145,8 +162,15 @@ public abstract class AbstractLitecoinParams extends NetworkParameters implement
             if (newTargetCompact != receivedTargetCompact)
                 throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
                         newTargetCompact + " vs " + receivedTargetCompact);
+            outcome = ConsensusEvents.OUTCOME_VALID;
         } catch (CheckpointEncounteredException ex) {
             // Just have to take it on trust then
+            outcome = ConsensusEvents.OUTCOME_CHECKPOINT;
+        } catch (VerificationException ex) {
+            outcome = ConsensusEvents.OUTCOME_INVALID;
+            throw ex;
+        } finally {
+            ConsensusEvents.endDifficultyTransition(event, this, storedPrev.getHeight() + 1, nextBlock, outcome);
         }
     }
 
@@ -179,7 +203,7 @@ public abstract class AbstractLitecoinParams extends NetworkParameters implement
 
                     while (cursor.getHeight() % retargetInterval != 0
                             && cursor.getHeader().getDifficultyTarget() == Utils.encodeCompactBits(this.getMaxTarget())) {
-                        StoredBlock prevCursor = cursor.getPrev(blockStore);
+                        StoredBlock prevCursor = RetargetReads.getPrev(cursor, blockStore);
                         if (prevCursor == null) {
                             break;
                         }
@@ -211,7 +235,7 @@ public abstract class AbstractLitecoinParams extends NetworkParameters implement
                 throw new VerificationException(
                         "Difficulty transition point but we did not find a way back to the genesis block.");
             }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+            cursor = RetargetReads.get(blockStore, cursor.getHeader().getPrevBlockHash());
         }
 
         //We used checkpoints...
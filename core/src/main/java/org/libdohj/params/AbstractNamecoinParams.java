@@ -45,6 +45,7 @@ import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Utils;
 import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.ConsensusEvents;
 
 // TODO: review this
 
@@ -166,6 +167,21 @@ public abstract class AbstractNamecoinParams extends NetworkParameters implement
     
     @Override
     public void checkDifficultyTransitions(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore)
+        throws VerificationException, BlockStoreException {
+        final Object event = ConsensusEvents.beginDifficultyTransition();
+        String outcome = ConsensusEvents.OUTCOME_ERROR;
+        try {
+            verifyDifficultyTransition(storedPrev, nextBlock, blockStore);
+            outcome = ConsensusEvents.OUTCOME_VALID;
+        } catch (VerificationException ex) {
+            outcome = ConsensusEvents.OUTCOME_INVALID;
+            throw ex;
+        } finally {
+            ConsensusEvents.endDifficultyTransition(event, this, storedPrev.getHeight() + 1, nextBlock, outcome);
+        }
+    }
+
+    private void verifyDifficultyTransition(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore)
         throws VerificationException, BlockStoreException {        
         // This is copied verbatim from Bitcoin except for the Namecoin changes marked accordingly
         Block prev = storedPrev.getHeader();
@@ -184,7 +200,7 @@ public abstract class AbstractNamecoinParams extends NetworkParameters implement
         // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
         // two weeks after the initial block chain download.
         final Stopwatch watch = Stopwatch.createStarted();
-        StoredBlock cursor = blockStore.get(prev.getHash());
+        StoredBlock cursor = RetargetReads.get(blockStore, prev.getHash());
         
         // Namecoin addition
         int blocksBack = this.getInterval() - 1;
@@ -200,7 +216,7 @@ public abstract class AbstractNamecoinParams extends NetworkParameters implement
                 throw new VerificationException(
                         "Difficulty transition point but we did not find a way back to the genesis block.");
             }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+            cursor = RetargetReads.get(blockStore, cursor.getHeader().getPrevBlockHash());
         }
         watch.stop();
         if (watch.elapsed(TimeUnit.MILLISECONDS) > 50)
@@ -258,6 +274,16 @@ public abstract class AbstractNamecoinParams extends NetworkParameters implement
         return block.getHash();
     }
 
+    /**
+     * Since merged mining began, a retarget looks back a full interval from the
+     * block before it, so the checkpoint must be a retarget block, stored along
+     * with its parent.
+     */
+    @Override
+    public int getCheckpointWindow(int height) {
+        return height % getInterval() == 0 ? 2 : 0;
+    }
+
     @Override
     public AltcoinSerializer getSerializer(boolean parseRetain) {
         return new AltcoinSerializer(this, parseRetain);
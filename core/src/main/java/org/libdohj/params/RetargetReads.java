@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.params;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.libdohj.core.Metrics;
+
+/**
+ * Block store reads made while walking back through the chain to check
+ * difficulty transitions, timed as {@link Metrics#RETARGET_BLOCK_READ}.
+ */
+final class RetargetReads {
+    private RetargetReads() {
+    }
+
+    static StoredBlock get(BlockStore blockStore, Sha256Hash hash) throws BlockStoreException {
+        final long start = Metrics.startTimer();
+        final StoredBlock block = blockStore.get(hash);
+        Metrics.recordTime(Metrics.RETARGET_BLOCK_READ, start);
+        return block;
+    }
+
+    static StoredBlock getPrev(StoredBlock block, BlockStore blockStore) throws BlockStoreException {
+        return get(blockStore, block.getHeader().getPrevBlockHash());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.SPVBlockStore;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.AltcoinCheckpoints;
+import org.libdohj.params.DashMainNetParams;
+import org.libdohj.params.DashTestNet3Params;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinTestNet3Params;
+import org.libdohj.params.LitecoinMainNetParams;
+import org.libdohj.params.LitecoinTestNet3Params;
+import org.libdohj.params.NamecoinMainNetParams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.SortedMap;
+
+/**
+ * Syncs and validates the headers of a network from a trusted node, then
+ * writes checkpoints older than a week to a file for bundling as a resource.
+ * Each checkpoint is written with the headers before it which the network's
+ * difficulty transitions need; see {@link AltcoinCheckpoints}.
+ *
+ * Usage: BuildCheckpoints network [peer-host] [output-file]
+ *
+ * The network is one of dogecoin, dogecoin-test, litecoin, litecoin-test,
+ * dash, dash-test or namecoin. The peer defaults to localhost, and the output
+ * file to the resource name the network's checkpoints are looked up by.
+ */
+public class BuildCheckpoints {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BuildCheckpoints network [peer-host] [output-file]");
+            return;
+        }
+        final NetworkParameters params = getParams(args[0]);
+        if (params == null) {
+            System.err.println("Unknown network " + args[0]);
+            return;
+        }
+        final String host = args.length > 1 ? args[1] : "localhost";
+        final File output = new File(args.length > 2 ? args[2] : params.getId() + ".checkpoints");
+
+        final Context context = new Context(params);
+        final File storeFile = File.createTempFile("checkpoints", ".spvchain");
+        storeFile.delete();
+        storeFile.deleteOnExit();
+        final BlockStore store = new SPVBlockStore(params, storeFile);
+        final BlockChain chain = new BlockChain(context, store);
+        final AltcoinCheckpoints.Collector collector = new AltcoinCheckpoints.Collector(params, store,
+                AltcoinCheckpoints.DEFAULT_SPACING_SECONDS);
+        chain.addNewBestBlockListener(Threading.SAME_THREAD, collector);
+        chain.addReorganizeListener(Threading.SAME_THREAD, collector);
+
+        final PeerGroup peerGroup = new PeerGroup(context, chain);
+        peerGroup.addAddress(new PeerAddress(params, InetAddress.getByName(host), params.getPort()));
+        peerGroup.setMaxConnections(1);
+        peerGroup.start();
+        try {
+            peerGroup.downloadBlockChain();
+        } finally {
+            peerGroup.stop();
+            store.close();
+        }
+
+        final SortedMap<Integer, StoredBlock> checkpoints = collector.getCheckpoints(
+                Utils.currentTimeSeconds() - AltcoinCheckpoints.DEFAULT_SPACING_SECONDS);
+        final OutputStream out = new FileOutputStream(output);
+        try {
+            AltcoinCheckpoints.write(checkpoints.values(), out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + checkpoints.size() + " headers to " + output + ", last at height "
+                + (checkpoints.isEmpty() ? "-" : checkpoints.lastKey()));
+    }
+
+    private static NetworkParameters getParams(String network) {
+        if (network.equals("dogecoin"))
+            return DogecoinMainNetParams.get();
+        else if (network.equals("dogecoin-test"))
+            return DogecoinTestNet3Params.get();
+        else if (network.equals("litecoin"))
+            return LitecoinMainNetParams.get();
+        else if (network.equals("litecoin-test"))
+            return LitecoinTestNet3Params.get();
+        else if (network.equals("dash"))
+            return DashMainNetParams.get();
+        else if (network.equals("dash-test"))
+            return DashTestNet3Params.get();
+        else if (network.equals("namecoin"))
+            return NamecoinMainNetParams.get();
+        else
+            return null;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.StoredBlock;
+import org.libdohj.core.AuxPoWChainGenerator;
+import org.libdohj.params.DogecoinRegTestParams;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Generates a chain of merged mined Dogecoin regtest blocks from the genesis
+ * block, and writes them to block files as a Dogecoin Core node would, for
+ * load tests. The files can be read back with
+ * {@link org.libdohj.core.AltcoinBlockFileLoader}.
+ *
+ * Usage: GenerateRegTestChain block-count output-dir [blocks-per-file]
+ *
+ * Files are named blk00000.dat onwards, with 100,000 blocks each by default.
+ */
+public class GenerateRegTestChain {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: GenerateRegTestChain block-count output-dir [blocks-per-file]");
+            return;
+        }
+        final int count = Integer.parseInt(args[0]);
+        final File outputDir = new File(args[1]);
+        final int blocksPerFile = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create " + outputDir);
+            return;
+        }
+
+        final DogecoinRegTestParams params = DogecoinRegTestParams.get();
+        final Context context = new Context(params);
+        final Block genesis = params.getGenesisBlock().cloneAsHeader();
+        StoredBlock tip = new StoredBlock(genesis, genesis.getWork(), 0);
+
+        final long start = System.currentTimeMillis();
+        final AuxPoWChainGenerator generator = new AuxPoWChainGenerator(params);
+        try {
+            for (int file = 0; tip.getHeight() < count; file++) {
+                final File output = new File(outputDir, String.format(Locale.US, "blk%05d.dat", file));
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+                try {
+                    tip = generator.generate(tip, Math.min(blocksPerFile, count - tip.getHeight()), out);
+                } finally {
+                    out.close();
+                }
+                System.out.println("Wrote " + output + ", up to height " + tip.getHeight());
+            }
+        } finally {
+            generator.close();
+        }
+        System.out.println("Generated " + count + " blocks in " + (System.currentTimeMillis() - start)
+                + " ms, tip " + tip.getHeader().getHash());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import com.dogecoin.dogecoinj.protocols.payments.PaymentProtocol;
+import com.dogecoin.dogecoinj.protocols.payments.PaymentProtocolException;
+import com.dogecoin.dogecoinj.protocols.payments.PaymentRequestIssuer;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in merchant for measuring the payment protocol without a real one. It serves a freshly signed
+ * PaymentRequest for every GET of /request, and answers every Payment POSTed to /pay with a PaymentACK once the
+ * payment's transactions have been parsed and their outputs to the requested script checked against the amount
+ * requested.
+ *
+ * Usage: LocalMerchantServer keystore.jks password alias [port] [threads]
+ *
+ * The key store must hold an RSA key and its certificate chain under the alias. See {@link PaymentLoadDriver} for
+ * a client to drive it.
+ */
+public class LocalMerchantServer {
+    public static final Coin AMOUNT = Coin.COIN;
+    private static final int MAX_PAYMENT_BYTES = 1024 * 1024;
+
+    private final NetworkParameters params;
+    private final PaymentRequestIssuer issuer;
+    private final PaymentRequestIssuer.Template template;
+    private final List<Protos.Output> outputs;
+    private final byte[] outputScript;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong orders = new AtomicLong();
+
+    public LocalMerchantServer(NetworkParameters params, X509Certificate[] certificateChain, PrivateKey privateKey,
+                               int port, int threads) throws IOException {
+        this.params = params;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        final String paymentUrl = "http://localhost:" + server.getAddress().getPort() + "/pay";
+        this.issuer = new PaymentRequestIssuer(threads);
+        this.template = PaymentRequestIssuer.createTemplate(params, certificateChain, privateKey,
+                "Order from the local merchant", paymentUrl, 3600);
+        final Address address = new ECKey().toAddress(params);
+        this.outputs = Collections.singletonList(PaymentProtocol.createPayToAddressOutput(AMOUNT, address));
+        this.outputScript = outputs.get(0).getScript().toByteArray();
+
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("merchant-%d").build());
+        server.setExecutor(executor);
+        server.createContext("/request", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.createContext("/pay", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePayment(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        issuer.shutdown();
+    }
+
+    /** The URL to fetch payment requests from. */
+    public String getRequestUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/request";
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        final byte[] orderId = Long.toString(orders.incrementAndGet()).getBytes("UTF-8");
+        final Protos.PaymentRequest request = issuer.issue(template, outputs, orderId);
+        respond(exchange, 200, PaymentProtocol.MIMETYPE_PAYMENTREQUEST, request.toByteArray());
+    }
+
+    private void handlePayment(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "text/plain", new byte[0]);
+            return;
+        }
+        final byte[] body = ByteStreams.toByteArray(ByteStreams.limit(exchange.getRequestBody(), MAX_PAYMENT_BYTES + 1L));
+        if (body.length > MAX_PAYMENT_BYTES) {
+            respond(exchange, 413, "text/plain", new byte[0]);
+            return;
+        }
+        try {
+            Coin paid = Coin.ZERO;
+            for (Transaction tx : PaymentProtocol.parseTransactionsFromPaymentMessage(params, body)) {
+                tx.verify();
+                // Only outputs to the requested script pay for the order; change and the rest don't count
+                for (TransactionOutput output : tx.getOutputs()) {
+                    if (Arrays.equals(output.getScriptBytes(), outputScript))
+                        paid = paid.add(output.getValue());
+                }
+            }
+            if (paid.isLessThan(AMOUNT)) {
+                respond(exchange, 400, "text/plain", ("Paid " + paid.toFriendlyString()).getBytes("UTF-8"));
+                return;
+            }
+            final Protos.Payment payment = Protos.Payment.parseFrom(body);
+            final Protos.PaymentACK ack = PaymentProtocol.createPaymentAck(payment, "Thank you");
+            respond(exchange, 200, PaymentProtocol.MIMETYPE_PAYMENTACK, ack.toByteArray());
+        } catch (PaymentProtocolException x) {
+            respond(exchange, 400, "text/plain", String.valueOf(x.getMessage()).getBytes("UTF-8"));
+        } catch (RuntimeException x) {
+            // Transaction.verify() and parsing failures of the rest of the message.
+            respond(exchange, 400, "text/plain", String.valueOf(x.getMessage()).getBytes("UTF-8"));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LocalMerchantServer keystore.jks password alias [port] [threads]");
+            return;
+        }
+        final char[] password = args[1].toCharArray();
+        final int port = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+        final int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final FileInputStream in = new FileInputStream(args[0]);
+        try {
+            keyStore.load(in, password);
+        } finally {
+            in.close();
+        }
+        final Certificate[] chain = keyStore.getCertificateChain(args[2]);
+        final X509Certificate[] x509Chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++)
+            x509Chain[i] = (X509Certificate) chain[i];
+
+        final LocalMerchantServer server = new LocalMerchantServer(DogecoinMainNetParams.get(), x509Chain,
+                (PrivateKey) keyStore.getKey(args[2], password), port, threads);
+        server.start();
+        System.out.println("Serving payment requests at " + server.getRequestUrl());
+    }
+}
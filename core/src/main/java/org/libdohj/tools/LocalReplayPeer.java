@@ -0,0 +1,330 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.BitcoinSerializer;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.GetBlocksMessage;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.GetHeadersMessage;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.InventoryMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.NotFoundMessage;
+import org.bitcoinj.core.PartialMerkleTree;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.Pong;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.core.VersionAck;
+import org.bitcoinj.core.VersionMessage;
+import org.libdohj.core.AltcoinBlockCursor;
+import org.libdohj.core.AltcoinBlockFileLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A stand-in peer for measuring block chain sync without a live network. It loads a chain of blocks from a node's
+ * block files, or those written by {@link org.libdohj.tools.GenerateRegTestChain}, and serves them to whoever
+ * connects: headers for getheaders, inventories for getblocks, and blocks or merkle blocks, filtered by the
+ * connection's bloom filter, for getdata. Messages are framed with the network's packet magic, and the peer
+ * announces the network's current protocol version and the height of the chain loaded.
+ *
+ * Usage: LocalReplayPeer network blocks-dir [port]
+ *
+ * The network is one of those {@link ValidateHeaders} takes. The chain must start from the network's genesis block.
+ * Blocks which do not extend the chain, such as stale blocks in a node's files, are left out. Transactions and the
+ * memory pool are not served. See {@link SyncBenchmark} for a client to drive it.
+ */
+public class LocalReplayPeer {
+    private static final int MAX_HEADERS = 2000;
+    private static final int MAX_INV_BLOCKS = 500;
+    private static final int MAX_MESSAGE_SIZE = 32 * 1024 * 1024;
+    /** Service bit for bloom filtered connections (BIP 111). */
+    private static final long NODE_BLOOM = 1 << 2;
+
+    private final NetworkParameters params;
+    private final MessageSerializer serializer;
+    private final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+    private final List<byte[]> blocks = new ArrayList<byte[]>();
+    /** Header and AuxPoW header lengths of each block. */
+    private final List<Integer> headerLengths = new ArrayList<Integer>();
+    private final Map<Sha256Hash, Integer> heights = new HashMap<Sha256Hash, Integer>();
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    public LocalReplayPeer(NetworkParameters params, File blocksDir, int port) throws IOException {
+        this.params = params;
+        this.serializer = params.getDefaultSerializer();
+        add(params.getGenesisBlock());
+        final AltcoinBlockFileLoader loader = new AltcoinBlockFileLoader(params,
+                AltcoinBlockFileLoader.getBlockFiles(blocksDir));
+        try {
+            for (Block block : loader) {
+                if (block.getPrevBlockHash().equals(hashes.get(hashes.size() - 1)))
+                    add(block);
+            }
+        } finally {
+            loader.close();
+        }
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("replay-peer-%d").build());
+    }
+
+    private void add(Block block) {
+        final byte[] bytes = block.bitcoinSerialize();
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, bytes);
+        heights.put(block.getHash(), hashes.size());
+        hashes.add(block.getHash());
+        blocks.add(bytes);
+        headerLengths.add(Block.HEADER_SIZE + cursor.getAuxPoWLength());
+    }
+
+    public void start() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException x) {
+                        if (!serverSocket.isClosed())
+                            System.err.println("Accept failed: " + x);
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** The height of the chain served, the genesis block being at height 0. */
+    public int getBestHeight() {
+        return hashes.size() - 1;
+    }
+
+    private void serve(Socket socket) {
+        final Context context = new Context(params);
+        final Connection connection = new Connection();
+        try {
+            socket.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            try {
+                while (true) {
+                    final BitcoinSerializer.BitcoinPacketHeader header = readHeader(in);
+                    final byte[] payload = new byte[header.size];
+                    in.readFully(payload);
+                    connection.handle(header.command, serializer.deserializePayload(header, ByteBuffer.wrap(payload)),
+                            out);
+                    out.flush();
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (EOFException x) {
+            // Disconnected.
+        } catch (SocketException x) {
+            // Disconnected.
+        } catch (IOException x) {
+            System.err.println("Connection from " + socket.getRemoteSocketAddress() + " failed: " + x);
+        } catch (ProtocolException x) {
+            System.err.println("Connection from " + socket.getRemoteSocketAddress() + " failed: " + x);
+        }
+    }
+
+    private BitcoinSerializer.BitcoinPacketHeader readHeader(DataInputStream in) throws IOException {
+        final byte[] header = new byte[4 + BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH];
+        in.readFully(header);
+        if (Utils.readUint32BE(header, 0) != params.getPacketMagic())
+            throw new ProtocolException("Wrong packet magic");
+        final BitcoinSerializer.BitcoinPacketHeader packetHeader =
+                serializer.deserializeHeader(ByteBuffer.wrap(header, 4, header.length - 4));
+        if (packetHeader.size < 0 || packetHeader.size > MAX_MESSAGE_SIZE)
+            throw new ProtocolException("Message size too large: " + packetHeader.size);
+        return packetHeader;
+    }
+
+    /** Per connection state. */
+    private class Connection {
+        private BloomFilter filter;
+
+        void handle(String command, Message message, OutputStream out) throws IOException {
+            if (message instanceof VersionMessage) {
+                final VersionMessage version = new VersionMessage(params, getBestHeight());
+                version.clientVersion = params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.CURRENT);
+                version.localServices = VersionMessage.NODE_NETWORK | NODE_BLOOM;
+                version.subVer = "/libdohj-replay/";
+                serializer.serialize(version, out);
+                serializer.serialize(new VersionAck(), out);
+            } else if (message instanceof Ping) {
+                if (((Ping) message).hasNonce())
+                    serializer.serialize(new Pong(((Ping) message).getNonce()), out);
+            } else if (message instanceof GetHeadersMessage) {
+                sendHeaders((GetHeadersMessage) message, out);
+            } else if (message instanceof GetBlocksMessage) {
+                sendInventory((GetBlocksMessage) message, out);
+            } else if (message instanceof GetDataMessage) {
+                sendData((GetDataMessage) message, out);
+            } else if (message instanceof BloomFilter) {
+                filter = (BloomFilter) message;
+            } else if ("filterclear".equals(command)) {
+                filter = null;
+            }
+            // Anything else, such as verack, getaddr or mempool, needs no answer.
+        }
+
+        private void sendHeaders(GetHeadersMessage request, OutputStream out) throws IOException {
+            final int start = findFork(request.getLocator());
+            final int end = findEnd(start, MAX_HEADERS, request.getStopHash());
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            payload.write(new VarInt(end - start).encode());
+            for (int height = start + 1; height <= end; height++) {
+                payload.write(blocks.get(height), 0, headerLengths.get(height));
+                payload.write(0); // No transactions
+            }
+            serializer.serialize("headers", payload.toByteArray(), out);
+        }
+
+        private void sendInventory(GetBlocksMessage request, OutputStream out) throws IOException {
+            final int start = findFork(request.getLocator());
+            final int end = findEnd(start, MAX_INV_BLOCKS, request.getStopHash());
+            if (end == start)
+                return;
+            final InventoryMessage inv = new InventoryMessage(params);
+            for (int height = start + 1; height <= end; height++)
+                inv.addItem(new InventoryItem(InventoryItem.Type.Block, hashes.get(height)));
+            serializer.serialize(inv, out);
+        }
+
+        private void sendData(GetDataMessage request, OutputStream out) throws IOException {
+            final List<InventoryItem> notFound = new ArrayList<InventoryItem>();
+            for (InventoryItem item : request.getItems()) {
+                final Integer height = heights.get(item.hash);
+                if (height == null) {
+                    notFound.add(item);
+                } else if (item.type == InventoryItem.Type.Block) {
+                    serializer.serialize("block", blocks.get(height), out);
+                } else if (item.type == InventoryItem.Type.FilteredBlock) {
+                    sendMerkleBlock(height, out);
+                } else {
+                    notFound.add(item);
+                }
+            }
+            if (!notFound.isEmpty())
+                serializer.serialize(new NotFoundMessage(params, notFound), out);
+        }
+
+        /**
+         * Send the block's header with a partial merkle tree of the transactions the filter matches, then those
+         * transactions, as Bitcoin Core does.
+         */
+        private void sendMerkleBlock(int height, OutputStream out) throws IOException {
+            final List<Transaction> transactions = serializer.makeBlock(blocks.get(height)).getTransactions();
+            final List<Sha256Hash> txHashes = new ArrayList<Sha256Hash>(transactions.size());
+            final boolean[] matched = new boolean[transactions.size()];
+            final List<Transaction> matchedTransactions = new ArrayList<Transaction>();
+            for (int i = 0; i < transactions.size(); i++) {
+                final Transaction tx = transactions.get(i);
+                txHashes.add(tx.getHash());
+                matched[i] = filter != null && filter.applyAndUpdate(tx);
+                if (matched[i])
+                    matchedTransactions.add(tx);
+            }
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            payload.write(blocks.get(height), 0, headerLengths.get(height));
+            payload.write(PartialMerkleTree.buildFromLeaves(params, matched, txHashes).bitcoinSerialize());
+            serializer.serialize("merkleblock", payload.toByteArray(), out);
+            for (Transaction tx : matchedTransactions)
+                serializer.serialize(tx, out);
+        }
+    }
+
+    /** Find the height of the first block in the locator that is in the chain, or 0 for none. */
+    private int findFork(List<Sha256Hash> locator) {
+        for (Sha256Hash hash : locator) {
+            final Integer height = heights.get(hash);
+            if (height != null)
+                return height;
+        }
+        return 0;
+    }
+
+    /** Find the height of the last block to send after the fork, stopping at the stop hash if it is in range. */
+    private int findEnd(int start, int max, Sha256Hash stopHash) {
+        final int end = Math.min(start + max, getBestHeight());
+        final Integer stopHeight = heights.get(stopHash);
+        return stopHeight != null && stopHeight > start && stopHeight < end ? stopHeight : end;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LocalReplayPeer network blocks-dir [port]");
+            return;
+        }
+        final NetworkParameters params = ValidateHeaders.getParams(args[0]);
+        if (params == null) {
+            System.err.println("Unknown network " + args[0]);
+            return;
+        }
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : params.getPort();
+
+        final Context context = new Context(params);
+        final LocalReplayPeer peer = new LocalReplayPeer(params, new File(args[1]), port);
+        peer.start();
+        System.out.println("Serving " + peer.getBestHeight() + " blocks on port " + peer.getPort());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import com.dogecoin.dogecoinj.protocols.payments.HttpPaymentTransport;
+import com.dogecoin.dogecoinj.protocols.payments.PaymentSession;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.crypto.TrustStoreLoader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives complete payment protocol exchanges against a merchant, such as {@link LocalMerchantServer}, and reports
+ * latency percentiles and throughput. Each exchange fetches and verifies a PaymentRequest, builds a transaction
+ * paying it, sends the Payment and waits for the PaymentACK. The transactions spend made up outpoints and are never
+ * broadcast.
+ *
+ * Usage: PaymentLoadDriver request-url truststore.jks|- [concurrency] [payments]
+ *
+ * Pass "-" instead of a trust store to skip PKI verification.
+ */
+public class PaymentLoadDriver {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PaymentLoadDriver request-url truststore.jks|- [concurrency] [payments]");
+            return;
+        }
+        final String url = args[0];
+        final boolean verifyPki = !args[1].equals("-");
+        final TrustStoreLoader trustStoreLoader = verifyPki
+                ? new TrustStoreLoader.FileTrustStoreLoader(new File(args[1])) : null;
+        final int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final int payments = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        // Let every worker have its own connection to the merchant.
+        final HttpPaymentTransport transport = new HttpPaymentTransport(concurrency, concurrency,
+                HttpPaymentTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS, HttpPaymentTransport.DEFAULT_READ_TIMEOUT_MILLIS,
+                HttpPaymentTransport.DEFAULT_MAX_RESPONSE_BYTES);
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            run(workers, concurrency, Math.min(payments, 100), url, verifyPki, trustStoreLoader, transport);
+            final long start = System.nanoTime();
+            final Results results = run(workers, concurrency, payments, url, verifyPki, trustStoreLoader, transport);
+            final long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%d payments, concurrency %d, %s PKI verification%n", payments, concurrency,
+                    verifyPki ? "with" : "without");
+            report("fetch + verify", results.request);
+            report("pay + ack", results.payment);
+            report("total", results.total);
+            System.out.printf("throughput: %.0f payments/s%n", payments / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)));
+        } finally {
+            workers.shutdown();
+            transport.shutdown();
+        }
+    }
+
+    private static Results run(ExecutorService workers, int concurrency, final int payments, final String url,
+                               final boolean verifyPki, final TrustStoreLoader trustStoreLoader,
+                               final HttpPaymentTransport transport) throws Exception {
+        final Results results = new Results(payments);
+        final AtomicInteger next = new AtomicInteger();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int n = next.getAndIncrement(); n < payments; n = next.getAndIncrement()) {
+                        final long start = System.nanoTime();
+                        final PaymentSession session = PaymentSession.createFromUrl(url, verifyPki,
+                                trustStoreLoader, transport).get();
+                        final long fetched = System.nanoTime();
+
+                        final Transaction tx = session.getSendRequest().tx;
+                        tx.addInput(new TransactionInput(tx.getParams(), tx, new byte[] { 0x51 },
+                                new TransactionOutPoint(tx.getParams(), n, Sha256Hash.of(Integer.toString(n).getBytes("UTF-8")))));
+                        final Address refund = new ECKey().toAddress(tx.getParams());
+                        session.sendPayment(Collections.singletonList(tx), refund, null).get();
+                        final long acked = System.nanoTime();
+
+                        results.request[n] = fetched - start;
+                        results.payment[n] = acked - fetched;
+                        results.total[n] = acked - start;
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures)
+            future.get();
+        return results;
+    }
+
+    private static void report(String label, long[] latencies) {
+        final long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-15s p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms%n", label,
+                percentile(sorted, 50), percentile(sorted, 99), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        final int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static class Results {
+        final long[] request;
+        final long[] payment;
+        final long[] total;
+
+        Results(int payments) {
+            request = new long[payments];
+            payment = new long[payments];
+            total = new long[payments];
+        }
+    }
+}
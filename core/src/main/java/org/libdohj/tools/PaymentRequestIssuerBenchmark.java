@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import com.dogecoin.dogecoinj.protocols.payments.PaymentProtocol;
+import com.dogecoin.dogecoinj.protocols.payments.PaymentRequestIssuer;
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+
+import java.io.FileInputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many signed payment requests per second can be issued, first one at a time with
+ * {@link PaymentProtocol#createPaymentRequest} and {@link PaymentProtocol#signPaymentRequest}, then in batches
+ * from a {@link PaymentRequestIssuer} template.
+ *
+ * Usage: PaymentRequestIssuerBenchmark keystore.jks password alias [requests] [threads]
+ */
+public class PaymentRequestIssuerBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: PaymentRequestIssuerBenchmark keystore.jks password alias [requests] [threads]");
+            return;
+        }
+        final char[] password = args[1].toCharArray();
+        final int requests = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        final int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final FileInputStream in = new FileInputStream(args[0]);
+        try {
+            keyStore.load(in, password);
+        } finally {
+            in.close();
+        }
+        final Certificate[] chain = keyStore.getCertificateChain(args[2]);
+        final X509Certificate[] x509Chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++)
+            x509Chain[i] = (X509Certificate) chain[i];
+        final PrivateKey privateKey = (PrivateKey) keyStore.getKey(args[2], password);
+
+        final NetworkParameters params = MainNetParams.get();
+        final Address address = new ECKey().toAddress(params);
+        final String memo = "Benchmark order";
+        final String paymentUrl = "https://merchant.example.com/pay";
+
+        // Warm up both paths before timing either.
+        final PaymentRequestIssuer issuer = new PaymentRequestIssuer(threads);
+        final PaymentRequestIssuer.Template template =
+                PaymentRequestIssuer.createTemplate(params, x509Chain, privateKey, memo, paymentUrl, 3600);
+        final List<List<Protos.Output>> outputs = new ArrayList<List<Protos.Output>>(requests);
+        for (int i = 0; i < requests; i++)
+            outputs.add(Collections.singletonList(PaymentProtocol.createPayToAddressOutput(Coin.valueOf(i + 1), address)));
+        signSerially(params, address, memo, paymentUrl, x509Chain, privateKey, Math.min(requests, 1000));
+        issuer.issueBatch(template, outputs.subList(0, Math.min(requests, 1000))).get();
+
+        long start = System.nanoTime();
+        signSerially(params, address, memo, paymentUrl, x509Chain, privateKey, requests);
+        report("createPaymentRequest + signPaymentRequest", requests, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        issuer.issueBatch(template, outputs).get();
+        report("PaymentRequestIssuer, " + threads + " threads", requests, System.nanoTime() - start);
+
+        issuer.shutdown();
+    }
+
+    private static void signSerially(NetworkParameters params, Address address, String memo, String paymentUrl,
+                                     X509Certificate[] chain, PrivateKey privateKey, int requests) {
+        for (int i = 0; i < requests; i++) {
+            final Protos.PaymentRequest.Builder builder = PaymentProtocol.createPaymentRequest(params,
+                    Coin.valueOf(i + 1), address, memo, paymentUrl, null);
+            PaymentProtocol.signPaymentRequest(builder, chain, privateKey);
+            builder.build();
+        }
+    }
+
+    private static void report(String label, int requests, long elapsedNanos) {
+        final double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("%s: %d requests in %.2f s, %.0f requests/s%n", label, requests, seconds, requests / seconds);
+    }
+}
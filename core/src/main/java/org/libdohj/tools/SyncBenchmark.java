@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.wallet.DeterministicSeed;
+import org.bitcoinj.wallet.Wallet;
+import org.libdohj.core.CompactBlockStore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+/**
+ * Syncs a block chain from a single peer, normally a {@link LocalReplayPeer} serving a recorded chain, and reports
+ * the wall clock time, process CPU time, bytes allocated and garbage collections each sync took. Every run starts
+ * again from the genesis block with an empty in-memory {@link CompactBlockStore}, so runs against the same chain do
+ * the same work, and numbers from before and after a change to the sync path can be compared. Run the peer in a
+ * process of its own, so its work is not counted, and disregard the first run or two, while the JIT warms up.
+ *
+ * Usage: SyncBenchmark network host[:port] [headers|blocks|filtered] [runs]
+ *
+ * The network is one of those {@link ValidateHeaders} takes. In headers mode, the default, only block headers are
+ * downloaded; in blocks mode, whole blocks; in filtered mode, merkle blocks for a wallet with no transactions.
+ *
+ * Allocation is counted for threads still running when the chain is synced, which are the threads doing the work.
+ */
+public class SyncBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SyncBenchmark network host[:port] [headers|blocks|filtered] [runs]");
+            return;
+        }
+        final NetworkParameters params = ValidateHeaders.getParams(args[0]);
+        if (params == null) {
+            System.err.println("Unknown network " + args[0]);
+            return;
+        }
+        final int colon = args[1].lastIndexOf(':');
+        final InetAddress host = InetAddress.getByName(colon < 0 ? args[1] : args[1].substring(0, colon));
+        final int port = colon < 0 ? params.getPort() : Integer.parseInt(args[1].substring(colon + 1));
+        final String mode = args.length > 2 ? args[2] : "headers";
+        if (!mode.equals("headers") && !mode.equals("blocks") && !mode.equals("filtered")) {
+            System.err.println("Unknown mode " + mode);
+            return;
+        }
+        final int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        final Context context = new Context(params);
+        for (int run = 1; run <= runs; run++) {
+            final Run result = sync(params, new PeerAddress(params, host, port), mode);
+            final Sample before = result.before;
+            final Sample after = result.after;
+            final double seconds = (after.wallNanos - before.wallNanos) / 1e9;
+            System.out.printf(Locale.US,
+                    "Run %d: %d blocks in %.3f s wall, %.3f s CPU, %.1f MiB allocated, %d GCs taking %d ms,"
+                            + " %.0f blocks/s%n",
+                    run, result.height, seconds, (after.cpuNanos - before.cpuNanos) / 1e9,
+                    (after.allocatedBytes - before.allocatedBytes) / (1024.0 * 1024.0),
+                    after.gcCount - before.gcCount, after.gcMillis - before.gcMillis, result.height / seconds);
+        }
+    }
+
+    /**
+     * Sync the chain from the peer. The counters are sampled before the peer group stops, while its threads are
+     * still alive.
+     */
+    private static Run sync(NetworkParameters params, PeerAddress address, String mode) throws Exception {
+        final BlockStore store = new CompactBlockStore(params);
+        final BlockChain chain = new BlockChain(params, store);
+        final PeerGroup peerGroup = new PeerGroup(params, chain);
+        peerGroup.setMaxConnections(1);
+        peerGroup.addAddress(address);
+        if (mode.equals("filtered")) {
+            // Keys from the start of time, so that every block is fetched as a merkle block.
+            final Wallet wallet = Wallet.fromSeed(params,
+                    new DeterministicSeed(new SecureRandom(), DeterministicSeed.DEFAULT_SEED_ENTROPY_BITS, "", 0));
+            chain.addWallet(wallet);
+            peerGroup.addWallet(wallet);
+        } else {
+            peerGroup.setBloomFilteringEnabled(false);
+            peerGroup.setFastCatchupTimeSecs(mode.equals("headers") ? Utils.currentTimeSeconds() : 0);
+        }
+        final Sample before = new Sample();
+        peerGroup.start();
+        try {
+            peerGroup.downloadBlockChain();
+            return new Run(chain.getBestChainHeight(), before, new Sample());
+        } finally {
+            peerGroup.stop();
+            store.close();
+        }
+    }
+
+    private static class Run {
+        final int height;
+        final Sample before;
+        final Sample after;
+
+        Run(int height, Sample before, Sample after) {
+            this.height = height;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /** Process wide counters, at one point in time. */
+    private static class Sample {
+        long wallNanos;
+        long cpuNanos;
+        long allocatedBytes;
+        long gcCount;
+        long gcMillis;
+
+        Sample() {
+            wallNanos = System.nanoTime();
+            cpuNanos = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                    .getProcessCpuTime();
+            final com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            allocatedBytes = 0;
+            for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (bytes > 0)
+                    allocatedBytes += bytes;
+            }
+            gcCount = 0;
+            gcMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.tools;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.libdohj.core.HeadersFileValidator;
+import org.libdohj.params.DashMainNetParams;
+import org.libdohj.params.DashTestNet3Params;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinRegTestParams;
+import org.libdohj.params.DogecoinTestNet3Params;
+import org.libdohj.params.LitecoinMainNetParams;
+import org.libdohj.params.LitecoinTestNet3Params;
+import org.libdohj.params.NamecoinMainNetParams;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Validates a file of block headers, as written by {@link HeadersFileValidator#writeHeader}, without running a
+ * block chain: proof of work, AuxPoW included, on every core, then chain linkage and difficulty transitions in order.
+ * Prints the headers validated per second and the first invalid header, if any, and exits with status 1 if there
+ * was one.
+ *
+ * Usage: ValidateHeaders network headers-file [threads]
+ *
+ * The network is one of dogecoin, dogecoin-test, dogecoin-regtest, litecoin, litecoin-test, dash, dash-test or
+ * namecoin.
+ */
+public class ValidateHeaders {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ValidateHeaders network headers-file [threads]");
+            return;
+        }
+        final NetworkParameters params = getParams(args[0]);
+        if (params == null) {
+            System.err.println("Unknown network " + args[0]);
+            return;
+        }
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final Context context = new Context(params);
+        final HeadersFileValidator validator = new HeadersFileValidator(params, threads);
+        final HeadersFileValidator.Result result;
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[1]));
+        try {
+            result = validator.validate(in);
+        } finally {
+            in.close();
+            validator.close();
+        }
+
+        System.out.printf("%d headers valid in %d ms, %.0f headers/s, tip %s at height %d%n", result.getValidated(),
+                result.getElapsedMillis(), result.getHeadersPerSecond(), result.getTip().getHeader().getHash(),
+                result.getTip().getHeight());
+        if (!result.isValid()) {
+            System.out.println("First invalid: " + result.getFailure());
+            System.exit(1);
+        }
+    }
+
+    static NetworkParameters getParams(String network) {
+        if (network.equals("dogecoin"))
+            return DogecoinMainNetParams.get();
+        else if (network.equals("dogecoin-test"))
+            return DogecoinTestNet3Params.get();
+        else if (network.equals("dogecoin-regtest"))
+            return DogecoinRegTestParams.get();
+        else if (network.equals("litecoin"))
+            return LitecoinMainNetParams.get();
+        else if (network.equals("litecoin-test"))
+            return LitecoinTestNet3Params.get();
+        else if (network.equals("dash"))
+            return DashMainNetParams.get();
+        else if (network.equals("dash-test"))
+            return DashTestNet3Params.get();
+        else if (network.equals("namecoin"))
+            return NamecoinMainNetParams.get();
+        else
+            return null;
+    }
+}
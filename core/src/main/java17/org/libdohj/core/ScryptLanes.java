@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Calculates the scrypt hashes of several inputs at once, with the
+ * parameters of scrypt proof of work (N = 1024, r = 1, p = 1, 32 bytes), each
+ * input in one lane of the Java Vector API's preferred integer vectors: 4
+ * lanes for 128 bit vectors, 8 for 256 bit ones. Salsa20/8, where almost all
+ * the time goes, runs on all lanes together; PBKDF2 runs on each input in
+ * turn.</p>
+ *
+ * <p>This is the Java 17 version, in the multi-release jar. The vector API is
+ * an incubator module, so lanes are only used if the runtime was started with
+ * {@code --add-modules jdk.incubator.vector}; otherwise {@link #getLanes()}
+ * returns 1, as on Java 8.</p>
+ */
+final class ScryptLanes {
+    private static final int LANES = findLanes();
+
+    private ScryptLanes() {
+    }
+
+    /** The number of inputs hashed together, or 1 if lanes are not available. */
+    static int getLanes() {
+        return LANES;
+    }
+
+    /**
+     * Calculate the scrypt hash of each input, as {@link Utils#scryptDigest}
+     * does. If lanes are not available, they are hashed one at a time.
+     */
+    static byte[][] scryptDigests(byte[][] inputs) throws GeneralSecurityException {
+        if (LANES == 1)
+            return Utils.scryptDigestsInTurn(inputs);
+        return Vectorized.scryptDigests(inputs);
+    }
+
+    private static int findLanes() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return 1;
+        try {
+            final int lanes = Vectorized.SPECIES.length();
+            return lanes >= 4 ? lanes : 1;
+        } catch (LinkageError x) {
+            return 1;
+        }
+    }
+
+    /** Kept apart so that the vector classes are only loaded once the module is known to be present. */
+    private static final class Vectorized {
+        static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+        private static final int N = 1024;
+        private static final int WORDS = 32;
+
+        static byte[][] scryptDigests(byte[][] inputs) throws GeneralSecurityException {
+            final int lanes = SPECIES.length();
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            final int[] x = new int[WORDS * lanes];
+            final int[] scratch = new int[16 * lanes];
+            final int[] v = new int[N * WORDS * lanes];
+            final byte[] block = new byte[WORDS * 4];
+            final byte[][] digests = new byte[inputs.length][];
+            for (int first = 0; first < inputs.length; first += lanes) {
+                // Lanes past the last input hash a copy of the group's first
+                for (int lane = 0; lane < lanes; lane++) {
+                    final byte[] input = inputs[first + lane < inputs.length ? first + lane : first];
+                    pbkdf2(mac, input, input, block);
+                    for (int word = 0; word < WORDS; word++)
+                        x[word * lanes + lane] = readIntLE(block, word * 4);
+                }
+                roMix(x, v, scratch, lanes);
+                for (int lane = 0; lane < lanes && first + lane < inputs.length; lane++) {
+                    for (int word = 0; word < WORDS; word++)
+                        writeIntLE(x[word * lanes + lane], block, word * 4);
+                    final byte[] digest = new byte[32];
+                    pbkdf2(mac, inputs[first + lane], block, digest);
+                    digests[first + lane] = digest;
+                }
+            }
+            return digests;
+        }
+
+        /** PBKDF2-HMAC-SHA256 with one iteration, filling the output. */
+        private static void pbkdf2(Mac mac, byte[] password, byte[] salt, byte[] out)
+                throws GeneralSecurityException {
+            mac.init(new SecretKeySpec(password, "HmacSHA256"));
+            final byte[] index = new byte[4];
+            for (int i = 0; i * 32 < out.length; i++) {
+                index[3] = (byte) (i + 1);
+                mac.update(salt);
+                mac.update(index);
+                final byte[] t = mac.doFinal();
+                System.arraycopy(t, 0, out, i * 32, Math.min(32, out.length - i * 32));
+            }
+        }
+
+        /** Mix the state, word major with a lane's words {@code lanes} apart, through the scratchpad. */
+        private static void roMix(int[] x, int[] v, int[] scratch, int lanes) {
+            final int stateSize = WORDS * lanes;
+            for (int i = 0; i < N; i++) {
+                System.arraycopy(x, 0, v, i * stateSize, stateSize);
+                blockMix(x, scratch, lanes);
+            }
+            final int[] indexes = new int[lanes];
+            for (int i = 0; i < N; i++) {
+                // Each lane gathers its words from its own element of the scratchpad
+                for (int lane = 0; lane < lanes; lane++)
+                    indexes[lane] = (x[16 * lanes + lane] & (N - 1)) * stateSize + lane;
+                for (int word = 0; word < WORDS; word++) {
+                    IntVector.fromArray(SPECIES, x, word * lanes)
+                            .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, v, word * lanes, indexes, 0))
+                            .intoArray(x, word * lanes);
+                }
+                blockMix(x, scratch, lanes);
+            }
+        }
+
+        /** BlockMix with r = 1, in place: the first half becomes Y0 and the second Y1. */
+        private static void blockMix(int[] x, int[] scratch, int lanes) {
+            salsa20_8(x, 0, 16 * lanes, scratch, lanes);
+            salsa20_8(x, 16 * lanes, 0, scratch, lanes);
+        }
+
+        /**
+         * XOR the 16 words at {@code from} into those at {@code to}, and apply Salsa20/8 to them, working in
+         * {@code x}. The quarter rounds load and store their four words, which keeps each method small enough for
+         * the JIT to compile the vectors into registers, rather than objects.
+         */
+        private static void salsa20_8(int[] s, int to, int from, int[] x, int lanes) {
+            for (int word = 0; word < 16; word++) {
+                IntVector.fromArray(SPECIES, s, to + word * lanes)
+                        .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, s, from + word * lanes))
+                        .intoArray(s, to + word * lanes);
+            }
+            System.arraycopy(s, to, x, 0, 16 * lanes);
+            for (int round = 0; round < 8; round += 2) {
+                // Columns
+                quarterRound(x, 0, 4, 8, 12, lanes);
+                quarterRound(x, 5, 9, 13, 1, lanes);
+                quarterRound(x, 10, 14, 2, 6, lanes);
+                quarterRound(x, 15, 3, 7, 11, lanes);
+                // Rows
+                quarterRound(x, 0, 1, 2, 3, lanes);
+                quarterRound(x, 5, 6, 7, 4, lanes);
+                quarterRound(x, 10, 11, 8, 9, lanes);
+                quarterRound(x, 15, 12, 13, 14, lanes);
+            }
+            for (int word = 0; word < 16; word++) {
+                IntVector.fromArray(SPECIES, s, to + word * lanes)
+                        .add(IntVector.fromArray(SPECIES, x, word * lanes))
+                        .intoArray(s, to + word * lanes);
+            }
+        }
+
+        private static void quarterRound(int[] x, int a, int b, int c, int d, int lanes) {
+            IntVector va = IntVector.fromArray(SPECIES, x, a * lanes);
+            IntVector vb = IntVector.fromArray(SPECIES, x, b * lanes);
+            IntVector vc = IntVector.fromArray(SPECIES, x, c * lanes);
+            IntVector vd = IntVector.fromArray(SPECIES, x, d * lanes);
+            vb = vb.lanewise(VectorOperators.XOR, rotl(va.add(vd), 7));
+            vc = vc.lanewise(VectorOperators.XOR, rotl(vb.add(va), 9));
+            vd = vd.lanewise(VectorOperators.XOR, rotl(vc.add(vb), 13));
+            va = va.lanewise(VectorOperators.XOR, rotl(vd.add(vc), 18));
+            va.intoArray(x, a * lanes);
+            vb.intoArray(x, b * lanes);
+            vc.intoArray(x, c * lanes);
+            vd.intoArray(x, d * lanes);
+        }
+
+        private static IntVector rotl(IntVector v, int distance) {
+            return v.lanewise(VectorOperators.ROL, distance);
+        }
+
+        private static int readIntLE(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                    | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+        }
+
+        private static void writeIntLE(int value, byte[] bytes, int offset) {
+            bytes[offset] = (byte) value;
+            bytes[offset + 1] = (byte) (value >>> 8);
+            bytes[offset + 2] = (byte) (value >>> 16);
+            bytes[offset + 3] = (byte) (value >>> 24);
+        }
+    }
+}
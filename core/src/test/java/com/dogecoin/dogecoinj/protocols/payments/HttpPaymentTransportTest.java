@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.MainNetParams;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Exercises the transport and {@link PaymentSession} against a local HTTP
+ * server standing in for a merchant.
+ */
+public class HttpPaymentTransportTest {
+    private static final NetworkParameters params = MainNetParams.get();
+
+    private HttpServer server;
+    private HttpPaymentTransport transport;
+    private final CountDownLatch releaseSlowRequests = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        transport = new HttpPaymentTransport(8, 2, 1000, 500, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        releaseSlowRequests.countDown();
+        transport.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldFetchPaymentRequestAndSendPayment() throws Exception {
+        final Protos.PaymentRequest paymentRequest = PaymentProtocol.createPaymentRequest(params,
+                Coin.COIN, new ECKey().toAddress(params), "request memo", url("/pay").toString(), null).build();
+        server.createContext("/request", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                assertEquals(PaymentProtocol.MIMETYPE_PAYMENTREQUEST, exchange.getRequestHeaders().getFirst("Accept"));
+                respond(exchange, 200, paymentRequest.toByteArray());
+            }
+        });
+        server.createContext("/pay", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                assertEquals(PaymentProtocol.MIMETYPE_PAYMENT, exchange.getRequestHeaders().getFirst("Content-Type"));
+                Protos.Payment payment = Protos.Payment.parseFrom(readBody(exchange));
+                respond(exchange, 200, PaymentProtocol.createPaymentAck(payment, "thanks").toByteArray());
+            }
+        });
+
+        PaymentSession session = PaymentSession.createFromUrl(url("/request").toString(), false, null, transport)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("request memo", session.getMemo());
+        assertEquals(Coin.COIN, session.getValue());
+
+        List<Transaction> txns = Collections.singletonList(new Transaction(params));
+        PaymentProtocol.Ack ack = session.sendPayment(txns, null, null).get(5, TimeUnit.SECONDS);
+        assertEquals("thanks", ack.getMemo());
+    }
+
+    @Test
+    public void shouldLimitConcurrentRequestsPerHost() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), now));
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                respond(exchange, 200, new byte[] { 1 });
+            }
+        });
+
+        List<ListenableFuture<byte[]>> responses = new ArrayList<ListenableFuture<byte[]>>();
+        for (int i = 0; i < 6; i++)
+            responses.add(transport.get(url("/slow"), "application/octet-stream"));
+        for (ListenableFuture<byte[]> response : responses)
+            assertEquals(1, response.get(5, TimeUnit.SECONDS).length);
+
+        assertTrue("max in flight was " + maxActive.get(), maxActive.get() <= 2);
+    }
+
+    @Test
+    public void shouldTimeOutSlowMerchant() throws Exception {
+        server.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    releaseSlowRequests.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, new byte[0]);
+            }
+        });
+
+        try {
+            transport.get(url("/stall"), "application/octet-stream").get(5, TimeUnit.SECONDS);
+            fail("Expected the read to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void shouldFailOnErrorStatusAndOversizedResponse() throws Exception {
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 404, "not found".getBytes("US-ASCII"));
+            }
+        });
+        server.createContext("/huge", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, new byte[128 * 1024]);
+            }
+        });
+
+        for (String path : new String[] { "/missing", "/huge" }) {
+            try {
+                transport.get(url(path), "application/octet-stream").get(5, TimeUnit.SECONDS);
+                fail("Expected " + path + " to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.MainNetParams;
+import com.google.protobuf.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PaymentMessageParserTest {
+    private static final NetworkParameters params = MainNetParams.get();
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        transaction = new Transaction(params);
+        transaction.addInput(new TransactionInput(params, transaction, new byte[] { 0x51 },
+                new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[] { 1 }))));
+        transaction.addOutput(Coin.COIN, new ECKey().toAddress(params));
+    }
+
+    @Test
+    public void shouldParseTransactionsInPlace() throws Exception {
+        final List<Transaction> transactions = new ArrayList<Transaction>();
+        transactions.add(transaction);
+        transactions.add(transaction);
+        final Protos.Payment payment = PaymentProtocol.createPaymentMessage(transactions, null, null, "memo",
+                new byte[] { 1, 2, 3 });
+
+        final List<Transaction> parsed = PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment.toByteArray());
+        assertEquals(2, parsed.size());
+        assertEquals(transaction.getHash(), parsed.get(0).getHash());
+        assertEquals(transaction.getHash(), parsed.get(1).getHash());
+        assertEquals(parsed, PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment, 2, 1000));
+    }
+
+    @Test(expected = PaymentProtocolException.InvalidTransactions.class)
+    public void shouldRejectTooManyTransactions() throws Exception {
+        final List<Transaction> transactions = new ArrayList<Transaction>();
+        for (int i = 0; i < 3; i++)
+            transactions.add(transaction);
+        final Protos.Payment payment = PaymentProtocol.createPaymentMessage(transactions, null, null, null, null);
+
+        PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment.toByteArray(), 2, 1000);
+    }
+
+    @Test(expected = PaymentProtocolException.InvalidTransactions.class)
+    public void shouldRejectOversizedTransaction() throws Exception {
+        final Protos.Payment payment = Protos.Payment.newBuilder()
+                .addTransactions(ByteString.copyFrom(transaction.bitcoinSerialize()))
+                .build();
+
+        PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment.toByteArray(), 1, 10);
+    }
+
+    @Test(expected = PaymentProtocolException.InvalidTransactions.class)
+    public void shouldRejectImpossibleInputCount() throws Exception {
+        // Version, then an input count of 2^32 - 1 in a transaction with no room for any inputs.
+        final byte[] bogus = { 1, 0, 0, 0, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0, 0 };
+        final Protos.Payment payment = Protos.Payment.newBuilder()
+                .addTransactions(ByteString.copyFrom(bogus))
+                .build();
+
+        PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment.toByteArray());
+    }
+
+    @Test(expected = PaymentProtocolException.InvalidTransactions.class)
+    public void shouldRejectTrailingBytes() throws Exception {
+        final byte[] serialized = transaction.bitcoinSerialize();
+        final byte[] padded = new byte[serialized.length + 1];
+        System.arraycopy(serialized, 0, padded, 0, serialized.length);
+        final Protos.Payment payment = Protos.Payment.newBuilder()
+                .addTransactions(ByteString.copyFrom(padded))
+                .build();
+
+        PaymentProtocol.parseTransactionsFromPaymentMessage(params, payment, 1, 1000);
+    }
+
+    @Test(expected = PaymentProtocolException.InvalidTransactions.class)
+    public void shouldRejectTruncatedMessage() throws Exception {
+        final Protos.Payment payment = Protos.Payment.newBuilder()
+                .addTransactions(ByteString.copyFrom(transaction.bitcoinSerialize()))
+                .build();
+        final byte[] serialized = payment.toByteArray();
+        final byte[] truncated = new byte[serialized.length - 1];
+        System.arraycopy(serialized, 0, truncated, 0, truncated.length);
+
+        PaymentProtocol.parseTransactionsFromPaymentMessage(params, truncated);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Requests from the issuer must verify exactly as those built and signed by
+ * {@link PaymentProtocol}. Uses the key stores described in
+ * {@link PkiVerificationCacheTest}.
+ */
+public class PaymentRequestIssuerTest {
+    private static final NetworkParameters params = MainNetParams.get();
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    private PaymentRequestIssuer issuer;
+    private PaymentRequestIssuer.Template template;
+    private KeyStore trustStore;
+    private Address address;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        trustStore = loadKeyStore("truststore.jks");
+        final KeyStore merchant = loadKeyStore("merchant.jks");
+        final Certificate[] chain = merchant.getCertificateChain("merchant");
+        final X509Certificate[] x509Chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++)
+            x509Chain[i] = (X509Certificate) chain[i];
+
+        issuer = new PaymentRequestIssuer(4);
+        template = PaymentRequestIssuer.createTemplate(params, x509Chain,
+                (PrivateKey) merchant.getKey("merchant", PASSWORD), "memo", "https://merchant.example.com/pay", 600);
+        address = new ECKey().toAddress(params);
+    }
+
+    @After
+    public void tearDown() {
+        issuer.shutdown();
+    }
+
+    @Test
+    public void shouldIssueVerifiableRequest() throws Exception {
+        final Protos.PaymentRequest request = issuer.issue(template,
+                Collections.singletonList(PaymentProtocol.createPayToAddressOutput(Coin.COIN, address)), new byte[] { 1, 2 });
+
+        final PaymentProtocol.PkiVerificationData pki = PaymentProtocol.verifyPaymentRequestPki(request, trustStore, null);
+        assertEquals("merchant.example.com", pki.displayName);
+
+        final PaymentSession session = new PaymentSession(request, false);
+        assertEquals(Coin.COIN, session.getValue());
+        assertEquals("memo", session.getMemo());
+        assertEquals("https://merchant.example.com/pay", session.getPaymentUrl());
+        assertEquals(2, session.getMerchantData().length);
+        assertEquals(600, (session.getExpires().getTime() - session.getDate().getTime()) / 1000);
+    }
+
+    @Test
+    public void shouldIssueBatchInOrder() throws Exception {
+        final List<List<Protos.Output>> outputs = new ArrayList<List<Protos.Output>>();
+        for (int i = 1; i <= 20; i++)
+            outputs.add(Collections.singletonList(PaymentProtocol.createPayToAddressOutput(Coin.valueOf(i), address)));
+
+        final List<Protos.PaymentRequest> requests = issuer.issueBatch(template, outputs).get(30, TimeUnit.SECONDS);
+        assertEquals(20, requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            assertTrue(PaymentProtocol.verifyPaymentRequestPki(requests.get(i), trustStore, null) != null);
+            assertEquals(Coin.valueOf(i + 1), new PaymentSession(requests.get(i), false).getValue());
+        }
+    }
+
+    @Test
+    public void shouldIssueUnsignedRequest() throws Exception {
+        final PaymentRequestIssuer.Template unsigned = PaymentRequestIssuer.createUnsignedTemplate(params, null, null, 0);
+        final Protos.PaymentRequest request = issuer.issue(unsigned,
+                Collections.singletonList(PaymentProtocol.createPayToAddressOutput(Coin.COIN, address)), null);
+
+        assertNull(PaymentProtocol.verifyPaymentRequestPki(request, trustStore, null));
+        assertNull(new PaymentSession(request, false).getExpires());
+    }
+
+    private KeyStore loadKeyStore(final String name) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream in = getClass().getResourceAsStream(name);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dogecoin.dogecoinj.protocols.payments;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import org.bitcoin.protocols.payments.Protos;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.TrustStoreLoader;
+import org.bitcoinj.params.MainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The fixtures are JKS key stores generated with keytool: a merchant key with
+ * a certificate issued by "libdohj Test CA", a trust store holding that CA, and
+ * a trust store holding an unrelated CA. All use the password "password".
+ */
+public class PkiVerificationCacheTest {
+    private static final NetworkParameters params = MainNetParams.get();
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyStore trustStore;
+    private KeyStore otherTrustStore;
+    private Protos.PaymentRequest signedRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        trustStore = loadKeyStore("truststore.jks");
+        otherTrustStore = loadKeyStore("other-truststore.jks");
+
+        final KeyStore merchant = loadKeyStore("merchant.jks");
+        final Certificate[] chain = merchant.getCertificateChain("merchant");
+        final X509Certificate[] x509Chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++)
+            x509Chain[i] = (X509Certificate) chain[i];
+
+        final Protos.PaymentRequest.Builder builder = PaymentProtocol.createPaymentRequest(params, Coin.COIN,
+                new ECKey().toAddress(params), "memo", null, null);
+        PaymentProtocol.signPaymentRequest(builder, x509Chain, (PrivateKey) merchant.getKey("merchant", PASSWORD));
+        signedRequest = builder.build();
+    }
+
+    @Test
+    public void shouldReuseValidatedChain() throws Exception {
+        final PkiVerificationCache cache = new PkiVerificationCache(16, 60 * 1000);
+
+        final PaymentProtocol.PkiVerificationData first = PaymentProtocol.verifyPaymentRequestPki(signedRequest, trustStore, cache);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(trustStore, signedRequest.getPkiData()));
+
+        final PaymentProtocol.PkiVerificationData second = PaymentProtocol.verifyPaymentRequestPki(signedRequest, trustStore, cache);
+        assertEquals(1, cache.size());
+        assertEquals("merchant.example.com", second.displayName);
+        assertEquals(first.displayName, second.displayName);
+        assertEquals(first.rootAuthorityName, second.rootAuthorityName);
+        assertEquals(first.merchantSigningKey, second.merchantSigningKey);
+    }
+
+    @Test(expected = PaymentProtocolException.PkiVerificationException.class)
+    public void shouldCheckSignatureWhenChainIsCached() throws Exception {
+        final PkiVerificationCache cache = new PkiVerificationCache(16, 60 * 1000);
+        PaymentProtocol.verifyPaymentRequestPki(signedRequest, trustStore, cache);
+
+        // Same certificates, different details: the cached chain must not let this through.
+        final Protos.PaymentDetails tampered = Protos.PaymentDetails.parseFrom(signedRequest.getSerializedPaymentDetails())
+                .toBuilder().setMemo("tampered").build();
+        final Protos.PaymentRequest tamperedRequest = signedRequest.toBuilder()
+                .setSerializedPaymentDetails(tampered.toByteString()).build();
+        PaymentProtocol.verifyPaymentRequestPki(tamperedRequest, trustStore, cache);
+    }
+
+    @Test(expected = PaymentProtocolException.PkiVerificationException.class)
+    public void shouldNotShareChainsBetweenTrustStores() throws Exception {
+        final PkiVerificationCache cache = new PkiVerificationCache(16, 60 * 1000);
+        PaymentProtocol.verifyPaymentRequestPki(signedRequest, trustStore, cache);
+
+        PaymentProtocol.verifyPaymentRequestPki(signedRequest, otherTrustStore, cache);
+    }
+
+    @Test
+    public void shouldExpireAfterTtl() throws Exception {
+        final PkiVerificationCache cache = new PkiVerificationCache(16, 0);
+        PaymentProtocol.verifyPaymentRequestPki(signedRequest, trustStore, cache);
+
+        assertNull(cache.get(trustStore, signedRequest.getPkiData()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldReuseValidatedChainAcrossPaymentSessions() throws Exception {
+        // The loader reads the file into a new key store for every session, with the password it expects
+        final File file = new File(folder.getRoot(), "truststore.jks");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            trustStore.store(out, "changeit".toCharArray());
+        } finally {
+            out.close();
+        }
+        final TrustStoreLoader loader = new TrustStoreLoader.FileTrustStoreLoader(file);
+        PkiVerificationCache.DEFAULT.clear();
+
+        final PaymentSession first = new PaymentSession(signedRequest, true, loader);
+        assertEquals(1, PkiVerificationCache.DEFAULT.size());
+        final PaymentSession second = new PaymentSession(signedRequest, true, loader);
+        assertEquals(1, PkiVerificationCache.DEFAULT.size());
+        assertNotNull(PkiVerificationCache.DEFAULT.get(loader.getKeyStore(), signedRequest.getPkiData()));
+        assertEquals(first.verifyPki().displayName, second.verifyPki().displayName);
+        PkiVerificationCache.DEFAULT.clear();
+    }
+
+    private KeyStore loadKeyStore(final String name) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream in = getClass().getResourceAsStream(name);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+}
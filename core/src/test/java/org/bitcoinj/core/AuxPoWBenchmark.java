@@ -0,0 +1,73 @@
+package org.bitcoinj.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinTestNet3Params;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse and validation cost of the AuxPoW header fixtures. The parent block
+ * and coinbase cache their hashes, so verification parses a fresh AuxPoW
+ * header each time; compare against parse for the cost of verification alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuxPoWBenchmark {
+    /** Dogecoin block #403,931, with a scrypt parent, and Namecoin block #19,414, with a SHA256 parent. */
+    @Param({"auxpow_header", "auxpow_header_no_tx_header"})
+    public String fixture;
+
+    private NetworkParameters params;
+    private byte[] payload;
+    private Sha256Hash blockHash;
+    private BigInteger target;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (fixture.equals("auxpow_header")) {
+            params = DogecoinMainNetParams.get();
+            blockHash = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+            target = Utils.decodeCompactBits(0x1b06f8f0);
+        } else {
+            // Emulate Namecoin block hashing, as AuxPoWTest does
+            params = new DogecoinTestNet3Params() {
+                @Override
+                public Sha256Hash getBlockDifficultyHash(Block block) {
+                    return block.getHash();
+                }
+            };
+            blockHash = Sha256Hash.wrap("5fb89c3b18c27bc38d351d516177cbd3504c95ca0494cbbbbd52f2fb5f2ff1ec");
+            target = Utils.decodeCompactBits(0x1b00b269);
+        }
+        Context context = new Context(params);
+        payload = Util.getBytes(getClass().getResourceAsStream(fixture + ".bin"));
+        parse().checkProofOfWork(blockHash, target, true);
+    }
+
+    @Benchmark
+    public AuxPoW parse() {
+        return new AuxPoW(params, payload, (ChildMessage) null, params.getDefaultSerializer());
+    }
+
+    @Benchmark
+    public boolean parseAndVerify() {
+        return parse().checkProofOfWork(blockHash, target, false);
+    }
+}
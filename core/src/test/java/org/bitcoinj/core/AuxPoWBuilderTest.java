@@ -0,0 +1,89 @@
+package org.bitcoinj.core;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.libdohj.params.DogecoinRegTestParams;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that built AuxPoW headers pass validation, for one child chain or several.
+ */
+public class AuxPoWBuilderTest {
+    static final DogecoinRegTestParams params = DogecoinRegTestParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldBuildValidAuxPoW() throws Exception {
+        final AltcoinBlock block = createBlock(params);
+        final List<AuxPoW> auxpows = new AuxPoWBuilder().addChild(block).build();
+
+        assertEquals(1, auxpows.size());
+        assertSame(auxpows.get(0), block.getAuxPoW());
+        assertEquals(0, block.getAuxPoW().getChainMerkleBranch().size());
+        block.verifyHeader();
+        assertTrue(block.isAuxPoWVerified());
+    }
+
+    @Test
+    public void shouldRoundTrip() throws Exception {
+        final AltcoinBlock block = createBlock(params);
+        new AuxPoWBuilder().setMergedMiningNonce(0x9f909ff0L).addChild(block).build();
+
+        final AltcoinBlock parsed = (AltcoinBlock) params.getDefaultSerializer().makeBlock(block.bitcoinSerialize());
+        assertEquals(block.getHash(), parsed.getHash());
+        assertNotNull(parsed.getAuxPoW());
+        parsed.verifyHeader();
+    }
+
+    @Test
+    public void shouldMergeMineSeveralChains() throws Exception {
+        final DogecoinRegTestParams otherParams = new DogecoinRegTestParams() {
+            @Override
+            public int getChainID() {
+                return 99;
+            }
+        };
+        final AltcoinBlock block = createBlock(params);
+        final AltcoinBlock other = createBlock(otherParams);
+        final List<AuxPoW> auxpows = new AuxPoWBuilder().addChild(block).addChild(other).build();
+
+        // Both commit to the same parent block, at different slots in the chain merkle tree
+        assertEquals(auxpows.get(0).getParentBlockHeader().getHash(), auxpows.get(1).getParentBlockHeader().getHash());
+        assertNotEquals(auxpows.get(0).getChainMerkleBranch().getIndex(), auxpows.get(1).getChainMerkleBranch().getIndex());
+        block.verifyHeader();
+        other.verifyHeader();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDuplicateChainID() {
+        new AuxPoWBuilder().addChild(createBlock(params)).addChild(createBlock(params)).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonAuxPoWVersion() {
+        final Block genesis = params.getGenesisBlock();
+        new AuxPoWBuilder().addChild(new AltcoinBlock(params, 2, genesis.getHash(), Sha256Hash.ZERO_HASH,
+                genesis.getTimeSeconds() + 60, genesis.getDifficultyTarget(), 0, Collections.<Transaction>emptyList()));
+    }
+
+    private static AltcoinBlock createBlock(DogecoinRegTestParams params) {
+        final Block genesis = params.getGenesisBlock();
+        final Transaction coinbase = new Transaction(params);
+        coinbase.addInput(new TransactionInput(params, coinbase, new byte[] {0x51, 0x51}));
+        coinbase.addOutput(params.getBlockSubsidy(1), new ScriptBuilder().op(ScriptOpCodes.OP_TRUE).build());
+        final long version = ((long) params.getChainID() << 16) | 0x100 | 2;
+        return new AltcoinBlock(params, version, genesis.getHash(), coinbase.getHash(), genesis.getTimeSeconds() + 60,
+                genesis.getDifficultyTarget(), 0, Collections.singletonList(coinbase));
+    }
+}
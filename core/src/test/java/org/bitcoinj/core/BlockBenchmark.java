@@ -0,0 +1,94 @@
+package org.bitcoinj.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.libdohj.core.AltcoinSerializer;
+import org.libdohj.core.ScryptHash;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.LitecoinMainNetParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse and validation cost of the block fixtures. Run with the GC profiler
+ * (see the benchmark profile in the pom) to get bytes allocated per operation
+ * alongside operations per second.
+ *
+ * Hashes are cached on the block, so getHash and getScryptHash parse a fresh
+ * copy of the 80 byte header each time; compare them against parseHeader to
+ * get the cost of hashing alone. Likewise verify includes makeBlock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockBenchmark {
+    @Param({"dogecoin_block1", "dogecoin_block250000", "dogecoin_block371337", "dogecoin_block748634",
+        "dogecoin_block894863", "litecoin_block1"})
+    public String fixture;
+
+    private AltcoinSerializer serializer;
+    private byte[] payload;
+    private byte[] header;
+
+    @Setup
+    public void setUp() throws IOException {
+        final NetworkParameters params = fixture.startsWith("litecoin")
+            ? LitecoinMainNetParams.get()
+            : DogecoinMainNetParams.get();
+        Context context = new Context(params);
+        serializer = (AltcoinSerializer) params.getDefaultSerializer();
+        payload = Util.getBytes(getClass().getResourceAsStream(fixture + ".bin"));
+
+        // The header followed by a transaction count of zero. Too short to hold
+        // an AuxPoW header, so none is parsed even for merged mined blocks.
+        header = Arrays.copyOf(payload, Block.HEADER_SIZE + 1);
+        header[Block.HEADER_SIZE] = 0;
+
+        final Block block = serializer.makeBlock(payload);
+        block.verify(Block.BLOCK_HEIGHT_UNKNOWN, EnumSet.noneOf(Block.VerifyFlag.class));
+        if (!serializer.makeBlock(header).getHash().equals(block.getHash()))
+            throw new IllegalStateException("Header of " + fixture + " does not hash to the block hash");
+    }
+
+    @Benchmark
+    public Block makeBlock() {
+        return serializer.makeBlock(payload);
+    }
+
+    @Benchmark
+    public Block parseHeader() {
+        return serializer.makeBlock(header);
+    }
+
+    @Benchmark
+    public Sha256Hash getHash() {
+        return serializer.makeBlock(header).getHash();
+    }
+
+    @Benchmark
+    public ScryptHash getScryptHash() {
+        return ((AltcoinBlock) serializer.makeBlock(header)).getScryptHash();
+    }
+
+    @Benchmark
+    public Block verify() {
+        final Block block = serializer.makeBlock(payload);
+        block.verify(Block.BLOCK_HEIGHT_UNKNOWN, EnumSet.noneOf(Block.VerifyFlag.class));
+        return block;
+    }
+}
@@ -0,0 +1,80 @@
+package org.bitcoinj.core;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.bitcoinj.core.Util.getBytes;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Flight Recorder events emitted by AuxPoW validation.
+ */
+public class ConsensusEventsTest {
+    static final NetworkParameters params = DogecoinMainNetParams.get();
+    static final Sha256Hash BLOCK_HASH = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldRecordAuxPoWCheck() throws Exception {
+        byte[] auxpowAsBytes = getBytes(getClass().getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+
+        List<RecordedEvent> events = record(auxpow, false);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals(params.getId(), event.getString("network"));
+        assertEquals(BLOCK_HASH.toString(), event.getString("blockHash"));
+        assertTrue(event.getBoolean("auxpow"));
+        assertEquals("valid", event.getString("outcome"));
+    }
+
+    @Test
+    public void shouldRecordAuxPoWCheckFailure() throws Exception {
+        byte[] auxpowAsBytes = getBytes(getClass().getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        auxpow.getCoinbaseBranch().setIndex(0x01);
+
+        List<RecordedEvent> events = record(auxpow, true);
+        assertEquals(1, events.size());
+        assertEquals("invalid", events.get(0).getString("outcome"));
+    }
+
+    @Test
+    public void shouldNotRecordWithoutRecording() throws Exception {
+        assertNull(ConsensusEvents.beginProofOfWork());
+    }
+
+    private List<RecordedEvent> record(AuxPoW auxpow, boolean expectFailure) throws Exception {
+        Path file = Files.createTempFile("consensus-events", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable("org.libdohj.ProofOfWork").withThreshold(Duration.ZERO);
+            recording.start();
+            try {
+                assertEquals(!expectFailure, auxpow.checkProofOfWork(BLOCK_HASH, Utils.decodeCompactBits(0x1b06f8f0), false));
+            } finally {
+                recording.stop();
+            }
+            recording.dump(file);
+            recording.close();
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -6,14 +6,18 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AltcoinSerializer;
+import org.libdohj.core.AuxPoWPruning;
+import org.libdohj.core.ScryptHash;
 import java.io.IOException;
 import java.math.BigInteger;
 import org.libdohj.params.DogecoinMainNetParams;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -22,7 +26,7 @@ import org.junit.Test;
  * @author jrn
  */
 public class DogecoinBlockTest {
-    private final NetworkParameters params = DogecoinMainNetParams.get();
+    private final DogecoinMainNetParams params = DogecoinMainNetParams.get();
 
     @Before
     public void setUp() throws Exception {
@@ -184,4 +188,76 @@ public class DogecoinBlockTest {
         final AltcoinBlock block = (AltcoinBlock)serializer.makeBlock(payload);
         assertEquals(true, block.checkProofOfWork(true));
     }
+
+    @Test
+    public void shouldStillCheckAuxPoWStructureOnVerifyHeader() throws IOException {
+        byte[] payload = Util.getBytes(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        block.getAuxPoW().getCoinbaseBranch().setIndex(0x01);
+        try {
+            block.verifyHeader();
+            fail("Expected the AuxPoW structure to be checked");
+        } catch (VerificationException x) {
+            assertTrue(x.getMessage().contains("AuxPow is not a generate"));
+        }
+        // The structure check is left to the caller
+        block.checkProofOfWorkAfterHeader();
+    }
+
+    @Test
+    public void shouldPruneVerifiedAuxPoW() throws IOException {
+        byte[] payload = Util.getBytes(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        block.verifyHeader();
+
+        final AltcoinBlock header = block.cloneAsHeader(AuxPoWPruning.PARENT_HASH);
+        assertNull(header.getAuxPoW());
+        assertTrue(header.isAuxPoWVerified());
+        assertEquals(block.getAuxPoW().getParentBlockHeader().getHash(), header.getAuxPoWParentHash());
+        assertEquals(block.getHash(), header.getHash());
+        // Still passes, without the AuxPoW header
+        header.verifyHeader();
+        assertEquals(Block.HEADER_SIZE, header.bitcoinSerialize().length);
+    }
+
+    @Test
+    public void shouldPruneToMarker() throws IOException {
+        byte[] payload = Util.getBytes(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        block.verifyHeader();
+
+        final AltcoinBlock header = block.cloneAsHeader(AuxPoWPruning.MARKER);
+        assertNull(header.getAuxPoW());
+        assertNull(header.getAuxPoWParentHash());
+        assertTrue(header.isAuxPoWVerified());
+    }
+
+    @Test
+    public void shouldForgetVerificationWhenHeaderChanges() throws IOException {
+        byte[] payload = Util.getBytes(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        block.verifyHeader();
+
+        final AltcoinBlock header = block.cloneAsHeader(AuxPoWPruning.PARENT_HASH);
+        final ScryptHash scryptHash = header.getScryptHash();
+        header.setNonce(header.getNonce() + 1);
+        assertFalse(header.isAuxPoWVerified());
+        assertFalse(scryptHash.equals(header.getScryptHash()));
+        try {
+            header.verifyHeader();
+            fail("Expected proof of work to be checked again");
+        } catch (VerificationException x) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldNotPruneUnverifiedAuxPoW() throws IOException {
+        byte[] payload = Util.getBytes(getClass().getResourceAsStream("dogecoin_block371337.bin"));
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+
+        final AltcoinBlock header = block.cloneAsHeader(AuxPoWPruning.PARENT_HASH);
+        assertNotNull(header.getAuxPoW());
+        assertFalse(header.isAuxPoWVerified());
+    }
 }
@@ -0,0 +1,84 @@
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.libdohj.core.Metrics;
+import org.libdohj.core.MetricsRecorder;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.bitcoinj.core.Util.getBytes;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Metrics reported from AuxPoW parsing and validation.
+ */
+public class MetricsTest {
+    static final NetworkParameters params = DogecoinMainNetParams.get();
+
+    private final List<String> events = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        Metrics.setRecorder(new MetricsRecorder() {
+            @Override
+            public synchronized void recordNanos(String metric, long nanos) {
+                assertTrue(nanos >= 0);
+                events.add(metric);
+            }
+
+            @Override
+            public synchronized void increment(String metric) {
+                events.add(metric);
+            }
+
+            @Override
+            public synchronized void increment(String metric, String reason) {
+                events.add(metric + ":" + reason);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setRecorder(Metrics.NOOP);
+    }
+
+    @Test
+    public void shouldRecordAuxPoWParseAndVerify() throws Exception {
+        byte[] auxpowAsBytes = getBytes(getClass().getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        assertTrue(events.contains(Metrics.AUXPOW_PARSE));
+
+        assertTrue(auxpow.checkProofOfWork(Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609"),
+            Utils.decodeCompactBits(0x1b06f8f0), false));
+        assertTrue(events.contains(Metrics.AUXPOW_VERIFY));
+        assertTrue(events.contains(Metrics.MERKLE_BRANCH_ROOT));
+        assertTrue(events.contains(Metrics.SCRYPT_HASH));
+        for (String event : events)
+            assertFalse(event, event.startsWith(Metrics.AUXPOW_VERIFY_FAILURE));
+    }
+
+    @Test
+    public void shouldRecordAuxPoWFailureReason() throws Exception {
+        byte[] auxpowAsBytes = getBytes(getClass().getResourceAsStream("auxpow_header.bin"));
+        AuxPoW auxpow = new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+        auxpow.getCoinbaseBranch().setIndex(0x01);
+
+        assertFalse(auxpow.checkProofOfWork(Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609"),
+            Utils.decodeCompactBits(0x1b06f8f0), false));
+        assertTrue(events.contains(Metrics.AUXPOW_VERIFY_FAILURE + ":not-generate"));
+        assertTrue(events.contains(Metrics.AUXPOW_VERIFY));
+    }
+
+    @Test
+    public void shouldNotReadClockByDefault() {
+        Metrics.setRecorder(Metrics.NOOP);
+        assertEquals(0, Metrics.startTimer());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Util;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check the block cursor sees the same transactions as a full parse.
+ */
+public class AltcoinBlockCursorTest {
+    private static final NetworkParameters params = DogecoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldWalkBlockWithoutAuxPoW() throws IOException {
+        final byte[] payload = getBlockBytes("dogecoin_block250000.bin");
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, payload);
+
+        assertFalse(cursor.hasAuxPoW());
+        assertWalkMatchesBlock(payload, cursor);
+    }
+
+    /**
+     * The first merged-mined block, so the cursor has to skip the AuxPoW header
+     * before it reaches the transactions.
+     */
+    @Test
+    public void shouldWalkBlockWithAuxPoW() throws IOException {
+        final byte[] payload = getBlockBytes("dogecoin_block371337.bin");
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, payload);
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+
+        assertTrue(cursor.hasAuxPoW());
+        assertEquals(block.getAuxPoW().getMessageSize(), cursor.getAuxPoWLength());
+        assertWalkMatchesBlock(payload, cursor);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void shouldRejectTruncatedBlock() throws IOException {
+        final byte[] payload = getBlockBytes("dogecoin_block250000.bin");
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, Arrays.copyOf(payload, payload.length - 10));
+        while (cursor.next()) {
+            // Walk until the truncated transaction is hit
+        }
+    }
+
+    @Test
+    public void shouldMeasureTransactionOnItsOwn() throws IOException {
+        final byte[] payload = getBlockBytes("dogecoin_block250000.bin");
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, payload);
+        assertTrue(cursor.next());
+
+        // The rest of the block follows the coinbase, so the length given is more than the transaction's
+        assertEquals(cursor.getTransactionLength(), AltcoinBlockCursor.getTransactionLength(payload,
+                cursor.getTransactionOffset(), payload.length - cursor.getTransactionOffset()));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void shouldRejectTruncatedTransactionOnItsOwn() throws IOException {
+        final byte[] payload = getBlockBytes("dogecoin_block250000.bin");
+        final AltcoinBlockCursor cursor = new AltcoinBlockCursor(params, payload);
+        assertTrue(cursor.next());
+
+        AltcoinBlockCursor.getTransactionLength(payload, cursor.getTransactionOffset(),
+                cursor.getTransactionLength() - 1);
+    }
+
+    private void assertWalkMatchesBlock(final byte[] payload, final AltcoinBlockCursor cursor) {
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        final List<Transaction> transactions = block.getTransactions();
+
+        assertEquals(transactions.size(), cursor.getTransactionCount());
+        for (Transaction tx : transactions) {
+            assertTrue(cursor.next());
+            assertEquals(tx.getHash(), cursor.getTransactionHash());
+            assertEquals(tx.getInputs().size(), cursor.getInputCount());
+            assertEquals(tx.getOutputs().size(), cursor.getOutputCount());
+            for (int outputIdx = 0; outputIdx < cursor.getOutputCount(); outputIdx++) {
+                final TransactionOutput output = tx.getOutput(outputIdx);
+                assertEquals(output.getValue().value, cursor.getOutputValue(outputIdx));
+                assertArrayEquals(output.getScriptBytes(), cursor.getOutputScriptBytes(outputIdx));
+            }
+        }
+        assertFalse(cursor.next());
+        assertEquals(payload.length, cursor.getPosition());
+    }
+
+    private byte[] getBlockBytes(final String name) throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+    }
+}
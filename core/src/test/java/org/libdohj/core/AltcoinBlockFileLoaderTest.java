@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.core.Utils;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that blocks are found in block files and delivered in chain order.
+ */
+public class AltcoinBlockFileLoaderTest {
+    private static final NetworkParameters params = DogecoinMainNetParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AltcoinBlockFileLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @After
+    public void tearDown() {
+        if (loader != null)
+            loader.close();
+    }
+
+    @Test
+    public void shouldDeliverInChainOrder() throws IOException {
+        final byte[] block1 = getBlockBytes("dogecoin_block1.bin");
+        final Block parsed1 = params.getDefaultSerializer().makeBlock(block1);
+        final byte[] child = makeChild(block1, parsed1);
+
+        // The child comes first, as it can after headers-first sync
+        final File blk0 = writeBlockFile("blk00000.dat", params.getGenesisBlock().bitcoinSerialize(), child);
+        final File blk1 = writeBlockFile("blk00001.dat", block1);
+
+        final List<Block> blocks = load(Arrays.asList(blk0, blk1));
+        assertEquals(2, blocks.size());
+        assertEquals(parsed1.getHash(), blocks.get(0).getHash());
+        assertEquals(parsed1.getHash(), blocks.get(1).getPrevBlockHash());
+        assertTrue(blocks.get(0) instanceof AltcoinBlock);
+    }
+
+    @Test
+    public void shouldParseAuxPoW() throws IOException {
+        final byte[] auxpowBlock = getBlockBytes("dogecoin_block371337.bin");
+        final Block expected = params.getDefaultSerializer().makeBlock(auxpowBlock);
+        final File blk0 = writeBlockFile("blk00000.dat", auxpowBlock);
+
+        loader = new AltcoinBlockFileLoader(params, new ArrayList<File>(), 1);
+        final List<AltcoinBlockFileLoader.Record> records = loader.index(blk0);
+        assertEquals(1, records.size());
+        assertEquals(expected.getHash(), records.get(0).hash);
+        assertEquals(expected.getPrevBlockHash(), records.get(0).prevHash);
+
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(records.get(0).copy());
+        assertNotNull(block.getAuxPoW());
+    }
+
+    @Test
+    public void shouldSkipOrphansAndPadding() throws IOException {
+        final File blk0 = writeBlockFile("blk00000.dat", getBlockBytes("dogecoin_block250000.bin"),
+                getBlockBytes("dogecoin_block1.bin"));
+        final FileOutputStream out = new FileOutputStream(blk0, true);
+        try {
+            out.write(new byte[1024]);
+        } finally {
+            out.close();
+        }
+
+        final List<Block> blocks = load(Arrays.asList(blk0));
+        assertEquals(1, blocks.size());
+        assertEquals(1, AltcoinBlockFileLoader.getBlockFiles(folder.getRoot()).size());
+    }
+
+    private List<Block> load(List<File> files) {
+        loader = new AltcoinBlockFileLoader(params, files, 2);
+        final List<Block> blocks = new ArrayList<Block>();
+        for (Block block : loader)
+            blocks.add(block);
+        return blocks;
+    }
+
+    /** A header only block on top of the given one. Its proof of work is not valid, but nothing here checks. */
+    private byte[] makeChild(byte[] parent, Block parsedParent) {
+        final byte[] child = Arrays.copyOf(parent, Block.HEADER_SIZE + 1);
+        System.arraycopy(parsedParent.getHash().getReversedBytes(), 0, child, 4, 32);
+        child[Block.HEADER_SIZE] = 0; // No transactions
+        return child;
+    }
+
+    private File writeBlockFile(String name, byte[]... blocks) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] magic = new byte[4];
+        Utils.uint32ToByteArrayBE(params.getPacketMagic(), magic, 0);
+        for (byte[] block : blocks) {
+            bytes.write(magic);
+            Utils.uint32ToByteStreamLE(block.length, bytes);
+            bytes.write(block);
+        }
+        final File file = new File(folder.getRoot(), name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes.toByteArray());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private byte[] getBlockBytes(String name) throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.DashMainNetParams;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.LitecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check checkpoint windows for each retarget algorithm, and that checkpoint
+ * files survive a round trip, including merged mined headers.
+ */
+public class AltcoinCheckpointsTest {
+    private static final NetworkParameters params = DogecoinMainNetParams.get();
+
+    private BlockStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new MemoryBlockStore(params);
+    }
+
+    @Test
+    public void shouldSizeWindowsForRetargets() {
+        final DogecoinMainNetParams dogecoin = DogecoinMainNetParams.get();
+        assertEquals(2, dogecoin.getCheckpointWindow(dogecoin.getInterval() * 10));
+        assertEquals(0, dogecoin.getCheckpointWindow(dogecoin.getInterval() * 10 + 1));
+        assertEquals(2, dogecoin.getCheckpointWindow(dogecoin.getDigishieldBlockHeight() + 1));
+
+        final LitecoinMainNetParams litecoin = LitecoinMainNetParams.get();
+        assertEquals(2, litecoin.getCheckpointWindow(litecoin.getInterval() * 10));
+        assertEquals(0, litecoin.getCheckpointWindow(litecoin.getInterval() * 10 - 1));
+
+        final DashMainNetParams dash = DashMainNetParams.get();
+        assertEquals(25, dash.getCheckpointWindow(500000));
+        assertEquals(0, dash.getCheckpointWindow(20000));
+    }
+
+    @Test
+    public void shouldRoundTripAuxPoWHeader() throws IOException {
+        final Block block = params.getDefaultSerializer().makeBlock(getBlockBytes("dogecoin_block371337.bin"));
+        final StoredBlock stored = new StoredBlock(block, new BigInteger("123456789abcdef", 16), 371337);
+
+        final List<List<StoredBlock>> windows = roundTrip(Arrays.asList(stored));
+        assertEquals(1, windows.size());
+        final StoredBlock read = windows.get(0).get(0);
+        assertEquals(block.getHash(), read.getHeader().getHash());
+        assertEquals(stored.getChainWork(), read.getChainWork());
+        assertEquals(371337, read.getHeight());
+    }
+
+    @Test
+    public void shouldStoreWholeWindow() throws Exception {
+        final StoredBlock genesis = store.getChainHead();
+        final Block header1 = params.getDefaultSerializer().makeBlock(getBlockBytes("dogecoin_block1.bin")).cloneAsHeader();
+        final StoredBlock block1 = genesis.build(header1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AltcoinCheckpoints.write(Arrays.asList(genesis, block1), out);
+
+        final BlockStore fresh = new MemoryBlockStore(params);
+        final StoredBlock head = AltcoinCheckpoints.checkpoint(params, new ByteArrayInputStream(out.toByteArray()),
+                fresh, header1.getTimeSeconds() + AltcoinCheckpoints.DEFAULT_SPACING_SECONDS);
+        assertEquals(block1.getHeader().getHash(), head.getHeader().getHash());
+        assertEquals(head, fresh.getChainHead());
+        assertEquals(genesis.getHeader().getHash(), fresh.get(genesis.getHeader().getHash()).getHeader().getHash());
+    }
+
+    @Test
+    public void shouldNotCheckpointAfterTime() throws Exception {
+        final StoredBlock genesis = store.getChainHead();
+        final StoredBlock block1 = genesis.build(
+                params.getDefaultSerializer().makeBlock(getBlockBytes("dogecoin_block1.bin")).cloneAsHeader());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AltcoinCheckpoints.write(Arrays.asList(block1), out);
+
+        assertNull(AltcoinCheckpoints.checkpoint(params, new ByteArrayInputStream(out.toByteArray()),
+                new MemoryBlockStore(params), block1.getHeader().getTimeSeconds()));
+    }
+
+    @Test
+    public void shouldLoadBundledSingleHeaderCheckpoints() throws Exception {
+        final List<List<StoredBlock>> windows;
+        final InputStream in = AltcoinCheckpoints.openStream(params);
+        assertNotNull(in);
+        try {
+            windows = AltcoinCheckpoints.read(params, in);
+        } finally {
+            in.close();
+        }
+        final StoredBlock last = windows.get(windows.size() - 1).get(0);
+
+        final InputStream again = AltcoinCheckpoints.openStream(params);
+        final StoredBlock head;
+        try {
+            head = AltcoinCheckpoints.checkpoint(params, again, store,
+                    last.getHeader().getTimeSeconds() + AltcoinCheckpoints.DEFAULT_SPACING_SECONDS);
+        } finally {
+            again.close();
+        }
+        assertEquals(1, windows.get(0).size());
+        assertEquals(last.getHeader().getHash(), head.getHeader().getHash());
+        assertEquals(last.getHeight(), store.getChainHead().getHeight());
+    }
+
+    private List<List<StoredBlock>> roundTrip(List<StoredBlock> blocks) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AltcoinCheckpoints.write(blocks, out);
+        return AltcoinCheckpoints.read(params, new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private byte[] getBlockBytes(String name) throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.SPVBlockStore;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinRegTestParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that proof of work is skipped below the assume-valid anchor, only for
+ * the block chain it was given to, and that the headers assumed can be
+ * checked after all.
+ */
+public class AssumeValidTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> metrics = new ArrayList<String>();
+    private BlockStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new MemoryBlockStore(params);
+        Metrics.setRecorder(new MetricsRecorder() {
+            @Override
+            public void recordNanos(String metric, long nanos) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric, String reason) {
+                metrics.add(metric + ":" + reason);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setRecorder(Metrics.NOOP);
+    }
+
+    @Test
+    public void shouldSkipProofOfWorkBelowAnchor() throws Exception {
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 2, store);
+        final AssumeValidBlockChain chain = new AssumeValidBlockChain(params, store, assumeValid);
+
+        assertTrue(chain.add(getInvalidBlock1()));
+        assertFalse(metrics.contains(Metrics.SCRYPT_HASH));
+        assertTrue(metrics.contains(Metrics.POW_ASSUMED));
+        assertEquals(1, assumeValid.getAssumedCount());
+        assertEquals(AssumeValid.State.ASSUMING, assumeValid.getState());
+    }
+
+    @Test
+    public void shouldCheckHeadersOutsideBlockChain() throws Exception {
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 2, store);
+        new AssumeValidBlockChain(params, store, assumeValid);
+
+        try {
+            getInvalidBlock1().verifyHeader();
+            fail("Expected proof of work to be checked");
+        } catch (VerificationException x) {
+            // Expected
+        }
+        assertNull(AssumeValid.getActive());
+        assertEquals(0, assumeValid.getAssumedCount());
+    }
+
+    @Test
+    public void shouldCheckAnchor() throws Exception {
+        final Block block1 = getBlock1(getBlockBytes());
+        final AssumeValid assumeValid = new AssumeValid(block1.getHash(), 1, store);
+        final AssumeValidBlockChain chain = new AssumeValidBlockChain(params, store, assumeValid);
+
+        assertTrue(chain.add(block1));
+        assertTrue(metrics.contains(Metrics.SCRYPT_HASH));
+        assertEquals(AssumeValid.State.CONFIRMED, assumeValid.getState());
+    }
+
+    @Test
+    public void shouldKeepAssumingAfterInvalidHeaderAtAnchorHeight() throws Exception {
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 1, store);
+        final AssumeValidBlockChain chain = new AssumeValidBlockChain(params, store, assumeValid);
+
+        try {
+            chain.add(getInvalidBlock1());
+            fail("Expected proof of work to be checked");
+        } catch (VerificationException x) {
+            // Expected
+        }
+        assertEquals(AssumeValid.State.ASSUMING, assumeValid.getState());
+    }
+
+    @Test
+    public void shouldAbandonWhenChainPassesAnchorHeight() throws Exception {
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 1, store);
+        final AssumeValidBlockChain chain = new AssumeValidBlockChain(params, store, assumeValid);
+
+        assertTrue(chain.add(getBlock1(getBlockBytes())));
+        assertEquals(AssumeValid.State.ABANDONED, assumeValid.getState());
+    }
+
+    @Test
+    public void shouldFindInvalidAssumedHeader() throws Exception {
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 2, store);
+        final AssumeValidBlockChain chain = new AssumeValidBlockChain(params, store, assumeValid);
+        final Block invalid = getInvalidBlock1();
+        assertTrue(chain.add(invalid));
+
+        try {
+            assumeValid.checkAssumedHeaders();
+            fail("Expected the assumed header to be checked");
+        } catch (VerificationException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains(invalid.getHashAsString()));
+        }
+    }
+
+    @Test
+    public void shouldPassOverMergedMinedHeadersStoredWithoutAuxPoW() throws Exception {
+        final DogecoinRegTestParams regTestParams = DogecoinRegTestParams.get();
+        Context context = new Context(regTestParams);
+        // More headers than the store keeps in memory, so the oldest are read back without their AuxPoW header
+        final int count = 2200;
+        final SPVBlockStore spvStore = new SPVBlockStore(regTestParams, new File(folder.getRoot(), "spv"));
+        try {
+            final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, count + 1, spvStore);
+            final AssumeValidBlockChain chain = new AssumeValidBlockChain(regTestParams, spvStore, assumeValid);
+            final List<AltcoinBlock> blocks;
+            final AuxPoWChainGenerator generator = new AuxPoWChainGenerator(regTestParams, 2);
+            try {
+                blocks = generator.generate(spvStore.getChainHead(), count);
+            } finally {
+                generator.close();
+            }
+            for (AltcoinBlock block : blocks)
+                assertTrue(chain.add(block));
+            assertEquals(count, assumeValid.getAssumedCount());
+
+            final int checked = assumeValid.checkAssumedHeaders();
+            assertTrue("Checked " + checked, checked > 0 && checked < count);
+            final StoredBlock first = spvStore.get(blocks.get(0).getHash());
+            assertNull(((AltcoinBlock) first.getHeader()).getAuxPoW());
+        } finally {
+            spvStore.close();
+        }
+    }
+
+    /** Block 1 with its nonce changed, so that its proof of work fails. */
+    private Block getInvalidBlock1() throws IOException {
+        final byte[] payload = getBlockBytes();
+        payload[76] ^= 1;
+        return getBlock1(payload);
+    }
+
+    private Block getBlock1(byte[] payload) {
+        return params.getDefaultSerializer().makeBlock(payload);
+    }
+
+    private byte[] getBlockBytes() throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/dogecoin_block1.bin"));
+    }
+}
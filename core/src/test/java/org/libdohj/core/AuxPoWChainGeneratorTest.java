@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.StoredBlock;
+import org.libdohj.params.DogecoinRegTestParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that generated chains link up and every block passes validation.
+ */
+public class AuxPoWChainGeneratorTest {
+    private static final DogecoinRegTestParams params = DogecoinRegTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AuxPoWChainGenerator generator;
+    private StoredBlock genesis;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        generator = new AuxPoWChainGenerator(params, 2);
+        final Block header = params.getGenesisBlock().cloneAsHeader();
+        genesis = new StoredBlock(header, header.getWork(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        generator.close();
+    }
+
+    @Test
+    public void shouldGenerateValidChain() {
+        // More than one batch
+        final List<AltcoinBlock> blocks = generator.generate(genesis, 150);
+        assertEquals(150, blocks.size());
+        Block prev = genesis.getHeader();
+        for (AltcoinBlock block : blocks) {
+            assertEquals(prev.getHash(), block.getPrevBlockHash());
+            assertNotNull(block.getAuxPoW());
+            block.verifyHeader();
+            prev = block;
+        }
+    }
+
+    @Test
+    public void shouldWriteBlockFile() throws Exception {
+        final File file = new File(folder.getRoot(), "blk00000.dat");
+        final FileOutputStream out = new FileOutputStream(file);
+        final StoredBlock tip;
+        try {
+            tip = generator.generate(genesis, 10, out);
+        } finally {
+            out.close();
+        }
+        assertEquals(10, tip.getHeight());
+
+        final List<Block> blocks = new ArrayList<Block>();
+        final AltcoinBlockFileLoader loader = new AltcoinBlockFileLoader(params, Arrays.asList(file), 2);
+        try {
+            for (Block block : loader) {
+                block.verifyHeader();
+                blocks.add(block);
+            }
+        } finally {
+            loader.close();
+        }
+        assertEquals(10, blocks.size());
+        assertEquals(tip.getHeader().getHash(), blocks.get(9).getHash());
+    }
+}
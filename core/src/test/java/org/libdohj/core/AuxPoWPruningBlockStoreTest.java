@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that AuxPoW headers are pruned by the store they are put in, and only
+ * by that store.
+ */
+public class AuxPoWPruningBlockStoreTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldPruneOnlyInPruningStore() throws Exception {
+        final AltcoinBlock block = getBlock("dogecoin_block371337.bin");
+        block.verifyHeader();
+        final StoredBlock stored = new StoredBlock(block.cloneAsHeader(), BigInteger.TEN, 371337);
+        final BlockStore pruning = new AuxPoWPruningBlockStore(new MemoryBlockStore(params), AuxPoWPruning.PARENT_HASH);
+        final BlockStore whole = new MemoryBlockStore(params);
+        pruning.put(stored);
+        pruning.setChainHead(stored);
+        whole.put(stored);
+
+        final AltcoinBlock pruned = (AltcoinBlock) pruning.get(block.getHash()).getHeader();
+        assertNull(pruned.getAuxPoW());
+        assertTrue(pruned.isAuxPoWVerified());
+        assertEquals(block.getAuxPoW().getParentBlockHeader().getHash(), pruned.getAuxPoWParentHash());
+        assertNull(((AltcoinBlock) pruning.getChainHead().getHeader()).getAuxPoW());
+        assertNotNull(((AltcoinBlock) whole.get(block.getHash()).getHeader()).getAuxPoW());
+    }
+
+    @Test
+    public void shouldKeepUnverifiedAuxPoW() throws Exception {
+        final AltcoinBlock block = getBlock("dogecoin_block371337.bin");
+        final BlockStore pruning = new AuxPoWPruningBlockStore(new MemoryBlockStore(params), AuxPoWPruning.MARKER);
+        pruning.put(new StoredBlock(block.cloneAsHeader(), BigInteger.TEN, 371337));
+
+        assertNotNull(((AltcoinBlock) pruning.get(block.getHash()).getHeader()).getAuxPoW());
+    }
+
+    private AltcoinBlock getBlock(String name) throws IOException {
+        final byte[] payload = Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+        return (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.store.BlockStoreException;
+import org.libdohj.params.DashMainNetParams;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that headers come back from the compact store as they were put.
+ */
+public class CompactBlockStoreTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    private CompactBlockStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new CompactBlockStore(params, 1);
+    }
+
+    @Test
+    public void shouldStoreGenesis() throws BlockStoreException {
+        final StoredBlock head = store.getChainHead();
+        assertEquals(params.getGenesisBlock().getHash(), head.getHeader().getHash());
+        assertEquals(0, head.getHeight());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void shouldRoundTrip() throws Exception {
+        final Block block1 = getBlock("dogecoin_block1.bin");
+        final BigInteger work = params.getGenesisBlock().getWork().add(block1.getWork());
+        final StoredBlock stored = new StoredBlock(block1.cloneAsHeader(), work, 1);
+        store.put(stored);
+        store.setChainHead(stored);
+
+        final StoredBlock restored = store.get(block1.getHash());
+        assertEquals(stored, restored);
+        assertEquals(block1.getHash(), restored.getHeader().getHash());
+        assertEquals(block1.getMerkleRoot(), restored.getHeader().getMerkleRoot());
+        assertEquals(work, restored.getChainWork());
+        assertEquals(1, restored.getHeight());
+        assertEquals(params.getGenesisBlock().getHash(), restored.getPrev(store).getHeader().getHash());
+        assertEquals(block1.getHash(), store.getChainHead().getHeader().getHash());
+        assertNull(store.get(Sha256Hash.ZERO_HASH));
+    }
+
+    @Test
+    public void shouldKeepUnconnectedHeaders() throws Exception {
+        // Its parent is not in the store, so its previous hash is kept on the side
+        final Block block = getBlock("dogecoin_block250000.bin");
+        store.put(new StoredBlock(block.cloneAsHeader(), BigInteger.TEN, 250000));
+
+        final StoredBlock restored = store.get(block.getHash());
+        assertEquals(block.getPrevBlockHash(), restored.getHeader().getPrevBlockHash());
+        assertEquals(block.getHash(), restored.getHeader().getHash());
+    }
+
+    @Test
+    public void shouldGrow() throws Exception {
+        final Block block1 = getBlock("dogecoin_block1.bin");
+        final Block block = getBlock("dogecoin_block250000.bin");
+        store.put(new StoredBlock(block1.cloneAsHeader(), BigInteger.ONE, 1));
+        store.put(new StoredBlock(block.cloneAsHeader(), BigInteger.TEN, 250000));
+        // Putting the same header again overwrites it
+        store.put(new StoredBlock(block.cloneAsHeader(), BigInteger.TEN, 250000));
+
+        assertEquals(3, store.size());
+        assertEquals(block1.getHash(), store.get(block1.getHash()).getHeader().getHash());
+        assertEquals(block.getHash(), store.get(block.getHash()).getHeader().getHash());
+        assertEquals(params.getGenesisBlock().getHash(), store.get(params.getGenesisBlock().getHash()).getHeader().getHash());
+    }
+
+    @Test
+    public void shouldMarkVerifiedAuxPoW() throws Exception {
+        final AltcoinBlock block = (AltcoinBlock) getBlock("dogecoin_block371337.bin");
+        block.verifyHeader();
+        assertTrue(block.isAuxPoWVerified());
+        store.put(new StoredBlock(block, BigInteger.TEN, 371337));
+
+        final AltcoinBlock restored = (AltcoinBlock) store.get(block.getHash()).getHeader();
+        assertEquals(block.getHash(), restored.getHash());
+        assertNull(restored.getAuxPoW());
+        assertTrue(restored.isAuxPoWVerified());
+        // Passes without the AuxPoW header
+        restored.verifyHeader();
+    }
+
+    @Test
+    public void shouldRoundTripMergedMinedHeader() throws Exception {
+        final byte[] payload = getBlockBytes("dogecoin_block371337.bin");
+        final AltcoinBlock block = (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+        store.put(new StoredBlock(block, BigInteger.TEN, 371337));
+
+        final AltcoinBlock restored = (AltcoinBlock) store.get(block.getHash()).getHeader();
+        // The raw version carries the chain ID and AuxPoW flag, which the base version drops
+        assertEquals(block.getRawVersion(), restored.getRawVersion());
+        assertTrue(params.isAuxPoWBlockVersion(restored.getRawVersion()));
+        assertArrayEquals(Arrays.copyOf(payload, Block.HEADER_SIZE), restored.bitcoinSerialize());
+        assertEquals(block.getHash(), restored.getHash());
+        assertEquals(block.getHash(), Sha256Hash.wrapReversed(Sha256Hash.hashTwice(restored.bitcoinSerialize())));
+    }
+
+    @Test
+    public void shouldKeepScryptHash() throws Exception {
+        final AltcoinBlock block1 = (AltcoinBlock) getBlock("dogecoin_block1.bin");
+        block1.verifyHeader();
+        final ScryptHash scryptHash = block1.getCachedScryptHash();
+        assertNotNull(scryptHash);
+        store.put(new StoredBlock(block1.cloneAsHeader(), BigInteger.ONE, 1));
+
+        final AltcoinBlock restored = (AltcoinBlock) store.get(block1.getHash()).getHeader();
+        assertEquals(scryptHash, restored.getCachedScryptHash());
+        // Headers put before their scrypt hash was calculated come back without one
+        final AltcoinBlock unhashed = (AltcoinBlock) getBlock("dogecoin_block250000.bin");
+        store.put(new StoredBlock(unhashed.cloneAsHeader(), BigInteger.TEN, 250000));
+        assertNull(((AltcoinBlock) store.get(unhashed.getHash()).getHeader()).getCachedScryptHash());
+    }
+
+    @Test
+    public void shouldNotMarkUnverifiedAuxPoW() throws Exception {
+        final AltcoinBlock block = (AltcoinBlock) getBlock("dogecoin_block371337.bin");
+        store.put(new StoredBlock(block, BigInteger.TEN, 371337));
+
+        final AltcoinBlock restored = (AltcoinBlock) store.get(block.getHash()).getHeader();
+        assertNull(restored.getAuxPoW());
+        assertFalse(restored.isAuxPoWVerified());
+    }
+
+    @Test
+    public void shouldNotHashHeadersAgainOnRead() throws Exception {
+        final DashMainNetParams dash = DashMainNetParams.get();
+        final Sha256Hash genesisHash = dash.getGenesisBlock().getHash();
+        final CompactBlockStore dashStore = new CompactBlockStore(dash, 1);
+        final List<String> metrics = new ArrayList<String>();
+        Metrics.setRecorder(new MetricsRecorder() {
+            @Override
+            public void recordNanos(String metric, long nanos) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric, String reason) {
+                metrics.add(metric);
+            }
+        });
+        try {
+            assertEquals(genesisHash, dashStore.getChainHead().getHeader().getHash());
+            assertEquals(genesisHash, dashStore.get(genesisHash).getHeader().getHash());
+        } finally {
+            Metrics.setRecorder(Metrics.NOOP);
+        }
+        assertFalse(metrics.contains(Metrics.X11_HASH));
+    }
+
+    private Block getBlock(String name) throws IOException {
+        return params.getDefaultSerializer().makeBlock(getBlockBytes(name));
+    }
+
+    private byte[] getBlockBytes(String name) throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+    }
+}
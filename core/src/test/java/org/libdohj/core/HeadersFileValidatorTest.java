@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinRegTestParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that header files are validated in order, and stop at the first invalid header.
+ */
+public class HeadersFileValidatorTest {
+    private static final DogecoinRegTestParams params = DogecoinRegTestParams.get();
+
+    /** More than one batch of merged mined headers. */
+    private static List<AltcoinBlock> blocks;
+
+    private HeadersFileValidator validator;
+
+    @BeforeClass
+    public static void generate() {
+        Context context = new Context(params);
+        final Block genesis = params.getGenesisBlock().cloneAsHeader();
+        final AuxPoWChainGenerator generator = new AuxPoWChainGenerator(params, 2);
+        try {
+            blocks = generator.generate(new StoredBlock(genesis, genesis.getWork(), 0), 520);
+        } finally {
+            generator.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        validator = new HeadersFileValidator(params, 2);
+    }
+
+    @After
+    public void tearDown() {
+        validator.close();
+    }
+
+    @Test
+    public void shouldValidateChain() throws IOException {
+        final HeadersFileValidator.Result result = validator.validate(write(blocks, true));
+        assertTrue(String.valueOf(result.getFailure()), result.isValid());
+        assertEquals(520, result.getValidated());
+        assertEquals(blocks.get(519).getHash(), result.getTip().getHeader().getHash());
+    }
+
+    @Test
+    public void shouldStopAtDisconnectedHeader() throws IOException {
+        final AltcoinBlock[] reordered = blocks.toArray(new AltcoinBlock[blocks.size()]);
+        reordered[300] = blocks.get(301);
+        reordered[301] = blocks.get(300);
+
+        final HeadersFileValidator.Result result = validator.validate(write(Arrays.asList(reordered), false));
+        assertFalse(result.isValid());
+        assertEquals(300, result.getValidated());
+        assertEquals(301, result.getFailure().getHeight());
+        assertEquals(blocks.get(301).getHash(), result.getFailure().getHash());
+    }
+
+    @Test
+    public void shouldReportTruncatedHeader() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (AltcoinBlock block : blocks.subList(0, 10))
+            HeadersFileValidator.writeHeader(block, bytes);
+        final byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 20);
+
+        final HeadersFileValidator.Result result = validator.validate(new ByteArrayInputStream(truncated));
+        assertEquals(9, result.getValidated());
+        assertNotNull(result.getFailure());
+        assertEquals(10, result.getFailure().getHeight());
+        assertTrue(result.getFailure().getCause() instanceof ProtocolException);
+    }
+
+    @Test
+    public void shouldCheckProofOfWorkBelowAssumeValidAnchor() throws Exception {
+        final DogecoinMainNetParams mainNetParams = DogecoinMainNetParams.get();
+        Context context = new Context(mainNetParams);
+        // Block 1 with its nonce changed, so that its proof of work fails
+        final byte[] payload = Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/dogecoin_block1.bin"));
+        payload[76] ^= 1;
+        final Block invalid = mainNetParams.getDefaultSerializer().makeBlock(payload);
+
+        // A block chain in the same process which assumes it valid
+        final BlockStore store = new MemoryBlockStore(mainNetParams);
+        final AssumeValid assumeValid = new AssumeValid(Sha256Hash.ZERO_HASH, 2, store);
+        assertTrue(new AssumeValidBlockChain(mainNetParams, store, assumeValid).add(invalid));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HeadersFileValidator.writeHeader(mainNetParams.getGenesisBlock(), bytes);
+        HeadersFileValidator.writeHeader(invalid, bytes);
+        final HeadersFileValidator mainNetValidator = new HeadersFileValidator(mainNetParams, 2);
+        final HeadersFileValidator.Result result;
+        try {
+            result = mainNetValidator.validate(new ByteArrayInputStream(bytes.toByteArray()));
+        } finally {
+            mainNetValidator.close();
+        }
+        assertEquals(0, result.getValidated());
+        assertEquals(1, result.getFailure().getHeight());
+        assertTrue(result.getFailure().getCause() instanceof VerificationException);
+    }
+
+    private static ByteArrayInputStream write(List<AltcoinBlock> blocks, boolean withGenesis) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (withGenesis)
+            HeadersFileValidator.writeHeader(params.getGenesisBlock(), bytes);
+        for (AltcoinBlock block : blocks)
+            HeadersFileValidator.writeHeader(block, bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that merkle roots calculated on several threads match those calculated on one.
+ */
+public class MerkleRootCalculatorTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    private MerkleRootCalculator calculator;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        calculator = new MerkleRootCalculator(4);
+    }
+
+    @After
+    public void tearDown() {
+        calculator.close();
+    }
+
+    @Test
+    public void shouldMatchSerialRoot() {
+        // Either side of the chunk size, and odd sized levels
+        for (int count : new int[] { 1, 2, 3, 7, 255, 256, 257, 1000, 1025 }) {
+            final AltcoinBlock block = createBlock(count);
+            final Sha256Hash expected = block.getMerkleRoot();
+            assertEquals("Transactions: " + count, expected, calculator.calculateMerkleRoot(block.getTransactions()));
+        }
+    }
+
+    @Test
+    public void shouldMatchRealBlock() throws IOException {
+        final AltcoinBlock block = getBlock("dogecoin_block894863.bin");
+        assertEquals(block.getMerkleRoot(), calculator.calculateMerkleRoot(block.getTransactions()));
+    }
+
+    @Test
+    public void shouldVerifyTransactions() throws IOException {
+        final AltcoinBlock block = getBlock("dogecoin_block894863.bin");
+        block.verifyTransactions(-1, EnumSet.noneOf(Block.VerifyFlag.class), calculator);
+    }
+
+    @Test(expected = VerificationException.class)
+    public void shouldRejectWrongMerkleRoot() throws IOException {
+        final AltcoinBlock block = getBlock("dogecoin_block894863.bin");
+        final AltcoinBlock tampered = new AltcoinBlock(params, block.getRawVersion(), block.getPrevBlockHash(),
+                Sha256Hash.ZERO_HASH, block.getTimeSeconds(), block.getDifficultyTarget(), block.getNonce(),
+                block.getTransactions());
+        tampered.verifyTransactions(-1, EnumSet.noneOf(Block.VerifyFlag.class), calculator);
+    }
+
+    private AltcoinBlock createBlock(int count) {
+        final AltcoinBlock block = new AltcoinBlock(params, 1);
+        for (int i = 0; i < count; i++) {
+            final Transaction tx = new Transaction(params);
+            final byte[] script = new ScriptBuilder().number(i).build().getProgram();
+            if (i == 0) {
+                tx.addInput(new TransactionInput(params, tx, script));
+            } else {
+                tx.addInput(new TransactionInput(params, tx, script,
+                        new TransactionOutPoint(params, i, Sha256Hash.of(script))));
+            }
+            tx.addOutput(Coin.valueOf(i + 1), new ScriptBuilder().op(ScriptOpCodes.OP_TRUE).build());
+            block.addTransaction(tx);
+        }
+        return block;
+    }
+
+    private AltcoinBlock getBlock(String name) throws IOException {
+        final byte[] payload = Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+        return (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Util;
+import org.libdohj.params.DogecoinMainNetParams;
+import org.libdohj.params.DogecoinTestNet3Params;
+import org.libdohj.params.NamecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that parent block proof of work hashes are calculated once and shared.
+ */
+public class ParentProofOfWorkCacheTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    private int hashes;
+    private ParentProofOfWorkCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        hashes = 0;
+        cache = new ParentProofOfWorkCache(1) {
+            @Override
+            protected Sha256Hash hash(AltcoinBlock parentHeader) {
+                hashes++;
+                return parentHeader.getScryptHash();
+            }
+        };
+    }
+
+    @Test
+    public void shouldHashOnce() throws IOException {
+        final AltcoinBlock parent = getParentHeader("dogecoin_block371337.bin");
+        final Sha256Hash first = cache.getDifficultyHash(parent);
+        // A second copy of the same header, as parsed from another block
+        final Sha256Hash second = cache.getDifficultyHash(getParentHeader("dogecoin_block371337.bin"));
+
+        assertEquals(parent.getScryptHash(), first);
+        assertSame(first, second);
+        assertEquals(1, hashes);
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsed() throws IOException {
+        final AltcoinBlock parent = getParentHeader("dogecoin_block371337.bin");
+        final AltcoinBlock other = getParentHeader("dogecoin_block894863.bin");
+        cache.getDifficultyHash(parent);
+        cache.getDifficultyHash(other);
+        assertEquals(1, cache.size());
+
+        cache.getDifficultyHash(parent);
+        assertEquals(3, hashes);
+    }
+
+    @Test
+    public void shouldShareBetweenNetworks() {
+        assertSame(ParentProofOfWorkCache.SCRYPT, params.getParentProofOfWorkCache());
+        assertSame(ParentProofOfWorkCache.SCRYPT, DogecoinTestNet3Params.get().getParentProofOfWorkCache());
+    }
+
+    @Test
+    public void shouldNotCacheSha256dParents() {
+        // The parent's block hash is its proof of work hash, already calculated when it was parsed
+        assertNull(NamecoinMainNetParams.get().getParentProofOfWorkCache());
+    }
+
+    private AltcoinBlock getParentHeader(String name) throws IOException {
+        final byte[] payload = Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+        return ((AltcoinBlock) params.getDefaultSerializer().makeBlock(payload)).getAuxPoW().getParentBlockHeader();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Util;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that junk headers are rejected, cheaply where possible, and that
+ * peers are held to their proof of work budget.
+ */
+public class ProofOfWorkGuardTest {
+    private static final NetworkParameters params = DogecoinMainNetParams.get();
+    private static final InetAddress PEER = InetAddress.getLoopbackAddress();
+
+    private final List<String> metrics = new ArrayList<String>();
+    private BlockStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new MemoryBlockStore(params);
+        Metrics.setRecorder(new MetricsRecorder() {
+            @Override
+            public void recordNanos(String metric, long nanos) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric) {
+                metrics.add(metric);
+            }
+
+            @Override
+            public void increment(String metric, String reason) {
+                metrics.add(metric + ":" + reason);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setRecorder(Metrics.NOOP);
+    }
+
+    @Test
+    public void shouldAcceptValidBlock() throws IOException {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store);
+        assertNull(guard.check(PEER, Collections.singletonList(getBlock1(null))));
+    }
+
+    @Test
+    public void shouldRejectFutureBlockWithoutHashing() throws IOException {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store);
+        final byte[] payload = getBlockBytes("dogecoin_block1.bin");
+        Utils.uint32ToByteArrayLE(Utils.currentTimeSeconds() + 3 * 60 * 60, payload, 68);
+
+        assertEquals(ProofOfWorkGuard.REJECT_INVALID, guard.check(PEER, Collections.singletonList(getBlock1(payload))));
+        assertFalse(metrics.contains(Metrics.SCRYPT_HASH));
+    }
+
+    @Test
+    public void shouldRejectWrongDifficultyWithoutHashing() throws IOException {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store);
+        final byte[] payload = getBlockBytes("dogecoin_block1.bin");
+        Utils.uint32ToByteArrayLE(0x1e0fffffL, payload, 72);
+
+        assertEquals(ProofOfWorkGuard.REJECT_INVALID, guard.check(PEER, Collections.singletonList(getBlock1(payload))));
+        assertFalse(metrics.contains(Metrics.SCRYPT_HASH));
+    }
+
+    @Test
+    public void shouldPenalizeInvalidProofOfWork() throws IOException {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store);
+        final byte[] payload = getBlockBytes("dogecoin_block1.bin");
+        payload[76] ^= 1; // nonce
+
+        assertEquals(ProofOfWorkGuard.REJECT_PROOF_OF_WORK, guard.check(PEER, Collections.singletonList(getBlock1(payload))));
+        // Even valid headers are refused while the penalty lasts.
+        assertEquals(ProofOfWorkGuard.REJECT_OVER_BUDGET, guard.check(PEER, Collections.singletonList(getBlock1(null))));
+    }
+
+    @Test
+    public void shouldRejectOverBudget() throws IOException {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store, 1, 0, 0);
+        assertEquals(ProofOfWorkGuard.REJECT_OVER_BUDGET, guard.check(PEER, Collections.singletonList(getBlock1(null))));
+        assertFalse(metrics.contains(Metrics.SCRYPT_HASH));
+    }
+
+    @Test
+    public void shouldNotChargeForKnownHeaders() throws Exception {
+        final ProofOfWorkGuard guard = new ProofOfWorkGuard(params, store, 1, 0, 0);
+        final Block genesis = store.getChainHead().getHeader();
+        assertNull(guard.check(PEER, Collections.singletonList(genesis)));
+    }
+
+    private Block getBlock1(byte[] payload) throws IOException {
+        if (payload == null)
+            payload = getBlockBytes("dogecoin_block1.bin");
+        return params.getDefaultSerializer().makeBlock(payload);
+    }
+
+    private byte[] getBlockBytes(String name) throws IOException {
+        return Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Util;
+import org.libdohj.params.DogecoinMainNetParams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that scrypt hashes calculated in batches match those calculated one at a time.
+ */
+public class UtilsTest {
+    private static final DogecoinMainNetParams params = DogecoinMainNetParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldMatchSingleDigests() throws Exception {
+        // More than one group of lanes, with a partly filled last group
+        final byte[][] inputs = new byte[Utils.getScryptLanes() * 2 + 3][];
+        final Random random = new Random(1);
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new byte[80];
+            random.nextBytes(inputs[i]);
+        }
+        final byte[][] digests = Utils.scryptDigests(inputs);
+        assertEquals(inputs.length, digests.length);
+        for (int i = 0; i < inputs.length; i++)
+            assertArrayEquals("Input " + i, Utils.scryptDigest(inputs[i]), digests[i]);
+    }
+
+    @Test
+    public void shouldHashThroughLanesWhetherOrNotAvailable() throws Exception {
+        final byte[][] inputs = { new byte[80], new byte[80], new byte[80] };
+        inputs[1][0] = 1;
+        inputs[2][79] = 2;
+        final byte[][] digests = ScryptLanes.scryptDigests(inputs);
+        for (int i = 0; i < inputs.length; i++)
+            assertArrayEquals("Input " + i, Utils.scryptDigest(inputs[i]), digests[i]);
+    }
+
+    @Test
+    public void shouldHashEmptyBatch() throws Exception {
+        assertEquals(0, Utils.scryptDigests(new byte[0][]).length);
+    }
+
+    @Test
+    public void shouldCalculateScryptHashesAhead() throws IOException {
+        // A block mined directly, then merged mined ones, whose parent headers are hashed
+        final String[] names = { "dogecoin_block250000.bin", "dogecoin_block371337.bin", "dogecoin_block894863.bin" };
+        final List<AltcoinBlock> blocks = new ArrayList<AltcoinBlock>();
+        for (String name : names)
+            blocks.add(getBlock(name));
+        AltcoinBlock.calculateScryptHashes(blocks);
+
+        for (int i = 0; i < names.length; i++)
+            assertEquals(names[i], getScryptHash(getBlock(names[i])), getScryptHash(blocks.get(i)));
+    }
+
+    private static ScryptHash getScryptHash(AltcoinBlock block) {
+        return block.getAuxPoW() != null
+                ? block.getAuxPoW().getParentBlockHeader().getScryptHash()
+                : block.getScryptHash();
+    }
+
+    private AltcoinBlock getBlock(String name) throws IOException {
+        final byte[] payload = Util.getBytes(getClass().getResourceAsStream("/org/bitcoinj/core/" + name));
+        return (AltcoinBlock) params.getDefaultSerializer().makeBlock(payload);
+    }
+}
@@ -28,6 +28,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 
 /**
  *
@@ -77,6 +79,20 @@ public class NameTransactionUtilsTest {
         assertNull(NameTransactionUtils.getNameValueAsString(tx, "wrongname"));
     }
     
+    @Test
+    public void nameAnyUpdateTransactionsFromOneScan() throws IOException {
+        final Transaction nameUpdate = getNameUpdateTransaction();
+        final Transaction nameFirstUpdate = getNameFirstUpdateTransaction();
+        
+        // The first transaction updating the name wins
+        final Map<String, Transaction> found = NameTransactionUtils.getNameAnyUpdateTransactions(
+            Arrays.asList(getCurrencyTransaction(), getNameNewTransaction(), nameUpdate, nameFirstUpdate),
+            Arrays.asList("d/bitcoin", "wrongname"));
+        
+        assertEquals(1, found.size());
+        assertEquals(nameUpdate.getHash(), found.get("d/bitcoin").getHash());
+    }
+    
     Transaction getNameNewTransaction() throws IOException {
         byte[] payload;
         final Transaction tx;
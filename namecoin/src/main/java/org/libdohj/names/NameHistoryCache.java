@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.names;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.libdohj.core.Metrics;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the newest trustworthy entry of each name's REST history, along with
+ * the chain height at which that choice stops being safe:
+ * <ul>
+ * <li>when an update newer than the cached one reaches the confirmations
+ * needed to be trusted, whether it was already in the history or is mined
+ * after the history was fetched;</li>
+ * <li>when the cached entry itself expires.</li>
+ * </ul>
+ * Register the cache as a reorganize listener so that entries above the split
+ * point, or fetched while the head was above it, are dropped when the chain
+ * reorganizes.
+ *
+ * <p>{@link #getLatest} is shared by the REST lookups: it answers from the
+ * cache, or streams the history and caches its newest trustworthy entry.</p>
+ */
+class NameHistoryCache<D> implements ReorganizeListener {
+    
+    /** Confirmations a name update needs before it is trusted. */
+    static final int MIN_CONFIRMATIONS = 12;
+    /** Confirmations after which a name update has expired. */
+    static final int EXPIRY_CONFIRMATIONS = 36000;
+    
+    static final int DEFAULT_MAX_ENTRIES = 4096;
+    
+    private final Map<String, CachedEntry<D>> entries;
+    
+    NameHistoryCache(final int maxEntries) {
+        entries = Collections.synchronizedMap(new LinkedHashMap<String, CachedEntry<D>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEntry<D>> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+    
+    /**
+     * @return the cached entry for the name, or null if there is none or it
+     * may be stale at the given chain head.
+     */
+    D get(String name, int headHeight) {
+        CachedEntry<D> entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (headHeight >= entry.staleAtHeadHeight || headHeight < entry.fetchedAtHeadHeight) {
+            entries.remove(name);
+            return null;
+        }
+        Metrics.increment(Metrics.NAME_LOOKUP_CACHE_HIT);
+        return entry.data;
+    }
+    
+    /**
+     * Get the newest trustworthy entry of the name's history, from the cache if
+     * it is still fresh, otherwise by reading the history and caching the entry.
+     * The history is streamed, oldest entry first, rather than read into a list;
+     * a single entry rather than an array is read as a history of one.
+     *
+     * @param historyUrl where to read the history of the name from.
+     * @throws Exception if no entry is trustworthy, or the history cannot be read.
+     */
+    D getLatest(String name, int headHeight, URL historyUrl, ObjectReader reader, EntryChecker<D> checker) throws Exception {
+        D cached = get(name, headHeight);
+        if (cached != null) {
+            return cached;
+        }
+        
+        D latest = null;
+        int latestHeight = 0;
+        int pendingHeight = Integer.MAX_VALUE;
+        
+        final long start = Metrics.startTimer();
+        MappingIterator<D> untrustedNameHistory = reader.readValues(historyUrl);
+        try {
+            while (untrustedNameHistory.hasNextValue()) {
+                D candidate = untrustedNameHistory.nextValue();
+                int candidateHeight = checker.getHeight(candidate);
+                try {
+                    checker.verifyHeightTrustworthy(candidateHeight);
+                    latest = candidate;
+                    latestHeight = candidateHeight;
+                    pendingHeight = Integer.MAX_VALUE;
+                }
+                catch (Exception e) {
+                    // Remember when a newer update will become trustworthy, so we know when to refetch.
+                    if (candidateHeight > 0 && headHeight - candidateHeight + 1 < MIN_CONFIRMATIONS) {
+                        pendingHeight = Math.min(pendingHeight, candidateHeight);
+                    }
+                }
+            }
+        } finally {
+            untrustedNameHistory.close();
+            Metrics.recordTime(Metrics.NAME_LOOKUP_REST, start);
+        }
+        
+        if (latest == null) {
+            throw new Exception("Height not trustworthy or name does not exist.");
+        }
+        
+        put(name, latest, latestHeight, headHeight, pendingHeight);
+        
+        return latest;
+    }
+    
+    /**
+     * @param height the block height of the trusted entry.
+     * @param fetchedAtHeadHeight the chain head height when the history was fetched.
+     * @param pendingHeight the lowest height of any entry newer than the
+     * trusted one which was rejected for having too few confirmations, or
+     * {@link Integer#MAX_VALUE} if there was none.
+     */
+    void put(String name, D data, int height, int fetchedAtHeadHeight, int pendingHeight) {
+        // An update mined after the fetch is at fetchedAtHeadHeight + 1 or later.
+        long staleAt = (long) fetchedAtHeadHeight + MIN_CONFIRMATIONS;
+        if (pendingHeight != Integer.MAX_VALUE) {
+            staleAt = Math.min(staleAt, (long) pendingHeight + MIN_CONFIRMATIONS - 1);
+        }
+        staleAt = Math.min(staleAt, (long) height + EXPIRY_CONFIRMATIONS - 1);
+        
+        entries.put(name, new CachedEntry<D>(data, height, fetchedAtHeadHeight, (int) staleAt));
+    }
+    
+    void clear() {
+        entries.clear();
+    }
+    
+    @Override
+    public void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks) {
+        final int splitHeight = splitPoint.getHeight();
+        
+        synchronized (entries) {
+            Iterator<CachedEntry<D>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                CachedEntry<D> entry = it.next();
+                // A history fetched above the split may have been chosen against blocks now gone,
+                // and its staleness height counts from a head which no longer exists.
+                if (entry.height > splitHeight || entry.fetchedAtHeadHeight > splitHeight) {
+                    it.remove();
+                }
+            }
+        }
+    }
+    
+    /** What {@link #getLatest} needs to know about the entries of a history. */
+    interface EntryChecker<D> {
+        int getHeight(D entry);
+        
+        /** @throws Exception if an entry at the height is not trustworthy at the current chain head. */
+        void verifyHeightTrustworthy(int height) throws Exception;
+    }
+    
+    private static class CachedEntry<D> {
+        final D data;
+        final int height;
+        final int fetchedAtHeadHeight;
+        final int staleAtHeadHeight;
+        
+        CachedEntry(D data, int height, int fetchedAtHeadHeight, int staleAtHeadHeight) {
+            this.data = data;
+            this.height = height;
+            this.fetchedAtHeadHeight = fetchedAtHeadHeight;
+            this.staleAtHeadHeight = staleAtHeadHeight;
+        }
+    }
+
+}
@@ -16,28 +16,265 @@
 
 package org.libdohj.names;
 
+import org.bitcoinj.core.AltcoinBlock;
 import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Peer;
 import org.bitcoinj.core.PeerGroup;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.ConsensusEvents;
+import org.libdohj.core.MerkleRootCalculator;
+import org.libdohj.core.Metrics;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // TODO: document this
 
 public class NameLookupByBlockHashOneFullBlock implements NameLookupByBlockHash {
     
+    public static final int DEFAULT_PEER_COUNT = 3;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+    public static final int DEFAULT_CACHE_SIZE = 16;
+    
+    // Only used to fail block requests which have run too long
+    private static final ScheduledExecutorService timeouts = newTimeoutExecutor();
+    
     protected PeerGroup peerGroup;
+    protected int peerCount;
+    protected long timeoutMillis;
+    
+    // Names looked up concurrently often resolve to the same block, so share the download.
+    private final RequestCoalescer<Sha256Hash, Block> blockDownloads = new RequestCoalescer<Sha256Hash, Block>();
+    
+    // Verified blocks, most recently used last
+    private final Map<Sha256Hash, Block> verifiedBlocks;
     
     public NameLookupByBlockHashOneFullBlock (PeerGroup peerGroup) {
+        this(peerGroup, DEFAULT_PEER_COUNT, DEFAULT_TIMEOUT_MILLIS, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * @param peerCount how many of the connected peers, lowest ping time first,
+     * each block is requested from.
+     * @param timeoutMillis how long to wait for a block which verifies.
+     * @param cacheSize how many verified blocks to keep, or 0 to disable the cache.
+     */
+    public NameLookupByBlockHashOneFullBlock (PeerGroup peerGroup, int peerCount, long timeoutMillis, final int cacheSize) {
         this.peerGroup = peerGroup;
+        this.peerCount = peerCount;
+        this.timeoutMillis = timeoutMillis;
+        this.verifiedBlocks = Collections.synchronizedMap(new LinkedHashMap<Sha256Hash, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Block> eldest) {
+                return size() > cacheSize;
+            }
+        });
     }
     
     @Override
     public Transaction getNameTransaction(String name, Sha256Hash blockHash, String identity) throws Exception {
+        final Object event = ConsensusEvents.beginNameLookup();
+        final Transaction tx;
+        try {
+            tx = lookupNameTransaction(name, blockHash, identity);
+        } catch (Exception e) {
+            ConsensusEvents.failNameLookup(event, getClass(), name, ConsensusEvents.UNKNOWN_HEIGHT, blockHash);
+            throw e;
+        }
+        ConsensusEvents.endNameLookup(event, getClass(), name, ConsensusEvents.UNKNOWN_HEIGHT, blockHash, tx);
+        return tx;
+    }
+    
+    private Transaction lookupNameTransaction(String name, Sha256Hash blockHash, String identity) throws Exception {
+        
+        try {
+            return getNameTransactionAsync(name, blockHash, identity).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    public ListenableFuture<Transaction> getNameTransactionAsync(final String name, Sha256Hash blockHash, String identity) {
+        
+        return Futures.transform(getVerifiedBlock(blockHash), new Function<Block, Transaction>() {
+            @Override
+            public Transaction apply(Block nameFullBlock) {
+                for (Transaction tx : nameFullBlock.getTransactions()) {
+                    if (NameTransactionUtils.getNameAnyUpdateOutput(tx, name) != null) {
+                        return tx;
+                    }
+                }
+                
+                // The name wasn't found.
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Look up several names in the same block, which is fetched and scanned once
+     * for all of them.
+     *
+     * @return the transaction of each name found; names which are not updated in
+     * the block are left out.
+     */
+    public ListenableFuture<Map<String, Transaction>> getNameTransactionsAsync(final Collection<String> names, Sha256Hash blockHash, String identity) {
+        
+        return Futures.transform(getVerifiedBlock(blockHash), new Function<Block, Map<String, Transaction>>() {
+            @Override
+            public Map<String, Transaction> apply(Block nameFullBlock) {
+                return NameTransactionUtils.getNameAnyUpdateTransactions(nameFullBlock.getTransactions(), names);
+            }
+        });
+    }
+    
+    /**
+     * Get a block which has been checked to match the hash and to be internally
+     * valid, from the cache if possible.
+     */
+    protected ListenableFuture<Block> getVerifiedBlock(final Sha256Hash blockHash) {
+        Block cached = verifiedBlocks.get(blockHash);
+        if (cached != null) {
+            Metrics.increment(Metrics.NAME_LOOKUP_CACHE_HIT);
+            return Futures.immediateFuture(cached);
+        }
+        
+        return blockDownloads.coalesce(blockHash, new Callable<ListenableFuture<Block>>() {
+            @Override
+            public ListenableFuture<Block> call() throws Exception {
+                return requestFromFastestPeers(blockHash);
+            }
+        });
+    }
+    
+    /**
+     * Request the block from up to {@link #peerCount} peers at once. The first
+     * block to verify wins; the request fails if none has verified after
+     * {@link #timeoutMillis}, or if every peer's block fails to verify.
+     */
+    protected ListenableFuture<Block> requestFromFastestPeers(final Sha256Hash blockHash) throws Exception {
+        List<Peer> peers = new ArrayList<Peer>(peerGroup.getConnectedPeers());
+        if (peers.isEmpty()) {
+            throw new Exception("No connected peers to fetch block " + blockHash + " from!");
+        }
+        
+        // Peers which have not answered a ping yet report Long.MAX_VALUE, so sort last
+        Collections.sort(peers, new Comparator<Peer>() {
+            @Override
+            public int compare(Peer a, Peer b) {
+                long pingA = a.getPingTime();
+                long pingB = b.getPingTime();
+                return pingA < pingB ? -1 : (pingA == pingB ? 0 : 1);
+            }
+        });
+        if (peers.size() > peerCount) {
+            peers = peers.subList(0, Math.max(1, peerCount));
+        }
+        
+        final long start = Metrics.startTimer();
+        final SettableFuture<Block> result = SettableFuture.create();
+        final AtomicInteger remaining = new AtomicInteger(peers.size());
+        final List<ListenableFuture<Block>> requests = new ArrayList<ListenableFuture<Block>>(peers.size());
+        
+        for (final Peer peer : peers) {
+            ListenableFuture<Block> request = peer.getBlock(blockHash);
+            requests.add(request);
+            
+            // Verification hashes every transaction, so keep it off the network thread.
+            Futures.addCallback(request, new FutureCallback<Block>() {
+                @Override
+                public void onSuccess(Block nameFullBlock) {
+                    if (result.isDone()) {
+                        // Another peer's block already won, or the request timed out; don't hash this one
+                        return;
+                    }
+                    
+                    try {
+                        verifyBlock(nameFullBlock, blockHash);
+                    } catch (Exception e) {
+                        onFailure(new Exception("Peer " + peer + " sent an invalid block: " + e.getMessage(), e));
+                        return;
+                    }
+                    
+                    if (result.set(nameFullBlock)) {
+                        verifiedBlocks.put(blockHash, nameFullBlock);
+                    }
+                }
+                
+                @Override
+                public void onFailure(Throwable t) {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.setException(t);
+                    }
+                }
+            }, Threading.THREAD_POOL);
+        }
+        
+        final ScheduledFuture<?> timeout = timeouts.schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.setException(new TimeoutException("No valid block " + blockHash + " received within " + timeoutMillis + "ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        
+        // Once there is an answer, stop waiting on the slower peers, and drop the
+        // timeout rather than leave it queued for the rest of timeoutMillis
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                Metrics.recordTime(Metrics.NAME_LOOKUP_FULL_BLOCK, start);
+                timeout.cancel(false);
+                for (ListenableFuture<Block> request : requests) {
+                    request.cancel(false);
+                }
+            }
+        }, Threading.THREAD_POOL);
         
-        Block nameFullBlock = peerGroup.getDownloadPeer().getBlock(blockHash).get();
+        return result;
+    }
+    
+    // Most requests finish well within the timeout, so remove cancelled timeouts from the queue straight away.
+    private static ScheduledExecutorService newTimeoutExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "full block lookup timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+    
+    protected void verifyBlock(Block nameFullBlock, Sha256Hash blockHash) throws Exception {
         
         // The full block hasn't been verified in any way!
         // So let's do that now.
@@ -50,19 +287,15 @@ public class NameLookupByBlockHashOneFullBlock implements NameLookupByBlockHash
         // However, that doesn't mean that the block's contents are valid.
         
         final EnumSet<Block.VerifyFlag> flags = EnumSet.noneOf(Block.VerifyFlag.class);
-        nameFullBlock.verify(-1, flags);
+        if (nameFullBlock instanceof AltcoinBlock) {
+            // Hash the transactions of large blocks on several threads.
+            ((AltcoinBlock) nameFullBlock).verify(-1, flags, MerkleRootCalculator.getDefault());
+        } else {
+            nameFullBlock.verify(-1, flags);
+        }
         
         // Now we know that the block is internally valid (including the merkle root).
         // We haven't verified signature validity, but our threat model is SPV.
-        
-        for (Transaction tx : nameFullBlock.getTransactions()) {
-            if (NameTransactionUtils.getNameAnyUpdateOutput(tx, name) != null) {
-                return tx;
-            }
-        }
-        
-        // The name wasn't found.
-        return null;
     }
-    
+
 }
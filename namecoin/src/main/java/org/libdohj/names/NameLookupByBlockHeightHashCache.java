@@ -22,8 +22,13 @@ import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
+import org.libdohj.core.ConsensusEvents;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 // TODO: breakout the 36000 expiration time into NetworkParameters.
 
@@ -73,6 +78,19 @@ public class NameLookupByBlockHeightHashCache implements NameLookupByBlockHeight
     
     @Override
     public Transaction getNameTransaction(String name, int height, String identity) throws Exception {
+        final Object event = ConsensusEvents.beginNameLookup();
+        final Transaction tx;
+        try {
+            tx = lookupNameTransaction(name, height, identity);
+        } catch (Exception e) {
+            ConsensusEvents.failNameLookup(event, getClass(), name, height, null);
+            throw e;
+        }
+        ConsensusEvents.endNameLookup(event, getClass(), name, height, null, tx);
+        return tx;
+    }
+    
+    private Transaction lookupNameTransaction(String name, int height, String identity) throws Exception {
         
         Sha256Hash blockHash = getBlockHash(height);
         
@@ -85,6 +103,68 @@ public class NameLookupByBlockHeightHashCache implements NameLookupByBlockHeight
         
     }
     
+    /**
+     * Look up several names updated at the same height. If the hash lookup is a
+     * {@link NameLookupByBlockHashOneFullBlock}, the block is fetched and scanned
+     * once for all of them; otherwise each name is looked up in turn.
+     *
+     * @return the transaction of each name found; names which are not updated in
+     * the block are left out.
+     */
+    public Map<String, Transaction> getNameTransactions(Collection<String> names, int height, String identity) throws Exception {
+        final Map<String, Object> events = new LinkedHashMap<String, Object>();
+        for (String name : names) {
+            events.put(name, ConsensusEvents.beginNameLookup());
+        }
+        
+        final Sha256Hash blockHash;
+        final Map<String, Transaction> txs;
+        try {
+            blockHash = getBlockHash(height);
+            txs = lookupNameTransactions(names, blockHash, identity);
+        } catch (Exception e) {
+            for (Map.Entry<String, Object> event : events.entrySet()) {
+                ConsensusEvents.failNameLookup(event.getValue(), getClass(), event.getKey(), height, null);
+            }
+            throw e;
+        }
+        
+        final int depth = chain.getChainHead().getHeight() - height + 1;
+        for (Map.Entry<String, Object> event : events.entrySet()) {
+            Transaction tx = txs.get(event.getKey());
+            if (tx != null) {
+                tx.getConfidence().setAppearedAtChainHeight(height);
+                tx.getConfidence().setDepthInBlocks(depth);
+            }
+            ConsensusEvents.endNameLookup(event.getValue(), getClass(), event.getKey(), height, blockHash, tx);
+        }
+        
+        return txs;
+    }
+    
+    private Map<String, Transaction> lookupNameTransactions(Collection<String> names, Sha256Hash blockHash, String identity) throws Exception {
+        
+        if (hashLookup instanceof NameLookupByBlockHashOneFullBlock) {
+            try {
+                return ((NameLookupByBlockHashOneFullBlock) hashLookup).getNameTransactionsAsync(names, blockHash, identity).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        
+        final Map<String, Transaction> txs = new LinkedHashMap<String, Transaction>();
+        for (String name : names) {
+            Transaction tx = hashLookup.getNameTransaction(name, blockHash, identity);
+            if (tx != null) {
+                txs.put(name, tx);
+            }
+        }
+        return txs;
+    }
+    
     public Sha256Hash getBlockHash(int height) throws BlockStoreException {
         Sha256Hash maybeResult = blockHashCache.get(new Integer(height));
         
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.names;
+
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools used by the asynchronous name lookups.
+ */
+class NameLookupExecutors {
+    
+    /** Default number of REST requests a lookup client has in flight at once. */
+    static final int DEFAULT_PARALLELISM = 8;
+    
+    private NameLookupExecutors() {
+    }
+    
+    /**
+     * Create a pool of at most the given number of daemon threads, which
+     * propagate the bitcoinj context of the thread that created them. Idle
+     * threads are released after a minute.
+     */
+    static ListeningExecutorService newBoundedExecutor(int parallelism, String name) {
+        final ThreadFactory contextFactory = new ContextPropagatingThreadFactory(name);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = contextFactory.newThread(r);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(executor);
+    }
+    
+}
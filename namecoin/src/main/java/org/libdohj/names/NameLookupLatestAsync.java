@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.names;
+
+import org.bitcoinj.core.Transaction;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Non-blocking form of {@link NameLookupLatest}, for resolvers which receive
+ * bursts of names. Concurrent requests for the same name and identity share a
+ * single lookup.
+ */
+public interface NameLookupLatestAsync extends NameLookupLatest {
+    
+    /**
+     * Start a lookup of the latest trustworthy transaction for a name. If a lookup
+     * for the same name and identity is already in progress, its future is returned.
+     */
+    public ListenableFuture<Transaction> getNameTransactionAsync(String name, String identity);
+    
+    /**
+     * Start lookups for a batch of names. Duplicate names share one lookup.
+     *
+     * @return a future per distinct name, in the order the names were first given.
+     */
+    public Map<String, ListenableFuture<Transaction>> getNameTransactionsAsync(Collection<String> names, String identity);
+    
+}
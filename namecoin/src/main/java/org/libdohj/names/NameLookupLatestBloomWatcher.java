@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.names;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerFilterProvider;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.BlocksDownloadedEventListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.ConsensusEvents;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Watches a set of names by adding their bytes to the Bloom filters sent to
+ * peers (BIP 37). Peers then relay a merkleblock plus only the matching
+ * transactions for each block, rather than the whole block. Each partial
+ * merkle tree is checked against its header, and the header must already be
+ * in our block store, before a name update is recorded.
+ *
+ * <p>Lookups of watched names are answered from the updates seen so far, with
+ * the same confirmation rules as the REST lookups. Names which have not been
+ * seen updating since they were watched go to the fallback lookup.</p>
+ *
+ * <p>Only filtered blocks are scanned, so the peer group must have Bloom
+ * filtering enabled.</p>
+ */
+public class NameLookupLatestBloomWatcher implements NameLookupLatest, PeerFilterProvider,
+        BlocksDownloadedEventListener, ReorganizeListener {
+    
+    private static final Logger log = LoggerFactory.getLogger(NameLookupLatestBloomWatcher.class);
+    
+    protected PeerGroup peerGroup;
+    protected AbstractBlockChain chain;
+    protected BlockStore store;
+    protected NameLookupLatest fallback;
+    
+    private final long creationTimeSeconds = Utils.currentTimeSeconds();
+    private final ReentrantLock filterLock = Threading.lock("namewatcher");
+    
+    // Guarded by "this"
+    private final HashSet<String> watchedNames = new HashSet<String>();
+    // Updates seen for each watched name, by height
+    private final HashMap<String, TreeMap<Integer, Transaction>> updates = new HashMap<String, TreeMap<Integer, Transaction>>();
+    
+    /**
+     * @param fallback answers lookups for names which are not watched, or which
+     * have not had a trustworthy update seen yet. May be null.
+     */
+    public NameLookupLatestBloomWatcher (PeerGroup peerGroup, AbstractBlockChain chain, BlockStore store, NameLookupLatest fallback) {
+        this.peerGroup = peerGroup;
+        this.chain = chain;
+        this.store = store;
+        this.fallback = fallback;
+    }
+    
+    /**
+     * Register with the peer group and chain. Call once before watching names.
+     */
+    public void start() {
+        peerGroup.addPeerFilterProvider(this);
+        peerGroup.addBlocksDownloadedEventListener(Threading.SAME_THREAD, this);
+        chain.addReorganizeListener(Threading.SAME_THREAD, this);
+    }
+    
+    public void stop() {
+        chain.removeReorganizeListener(this);
+        peerGroup.removeBlocksDownloadedEventListener(this);
+        peerGroup.removePeerFilterProvider(this);
+    }
+    
+    public void watch(String name) {
+        boolean added;
+        synchronized (this) {
+            added = watchedNames.add(name);
+        }
+        if (added) {
+            peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.SEND_IF_CHANGED);
+        }
+    }
+    
+    public void unwatch(String name) {
+        boolean removed;
+        synchronized (this) {
+            removed = watchedNames.remove(name);
+            updates.remove(name);
+        }
+        if (removed) {
+            peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.SEND_IF_CHANGED);
+        }
+    }
+    
+    // TODO: make a new Exception class
+    @Override
+    public Transaction getNameTransaction(String name, String identity) throws Exception {
+        final Object event = ConsensusEvents.beginNameLookup();
+        final Transaction tx;
+        try {
+            tx = lookupNameTransaction(name, identity);
+        } catch (Exception e) {
+            ConsensusEvents.failNameLookup(event, getClass(), name, ConsensusEvents.UNKNOWN_HEIGHT, null);
+            throw e;
+        }
+        ConsensusEvents.endNameLookup(event, getClass(), name, tx);
+        return tx;
+    }
+    
+    private Transaction lookupNameTransaction(String name, String identity) throws Exception {
+        
+        Transaction tx = getWatchedNameTransaction(name);
+        if (tx != null) {
+            return tx;
+        }
+        
+        if (fallback == null) {
+            throw new Exception("No trustworthy update seen for name, and no fallback lookup!");
+        }
+        
+        return fallback.getNameTransaction(name, identity);
+    }
+    
+    /**
+     * @return the newest update of a watched name with enough confirmations to
+     * be trusted, or null if there is none.
+     */
+    protected synchronized Transaction getWatchedNameTransaction(String name) {
+        TreeMap<Integer, Transaction> nameUpdates = updates.get(name);
+        if (nameUpdates == null) {
+            return null;
+        }
+        
+        int headHeight = chain.getChainHead().getHeight();
+        
+        for (Map.Entry<Integer, Transaction> update : nameUpdates.descendingMap().entrySet()) {
+            int confirmations = headHeight - update.getKey() + 1;
+            if (confirmations < NameHistoryCache.MIN_CONFIRMATIONS) {
+                continue;
+            }
+            if (confirmations >= NameHistoryCache.EXPIRY_CONFIRMATIONS) {
+                return null;
+            }
+            
+            Transaction tx = update.getValue();
+            tx.getConfidence().setDepthInBlocks(confirmations);
+            return tx;
+        }
+        
+        return null;
+    }
+    
+    @Override
+    public void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int blocksLeft) {
+        if (filteredBlock == null || filteredBlock.getAssociatedTransactions().isEmpty()) {
+            return;
+        }
+        
+        final StoredBlock storedBlock;
+        final List<Sha256Hash> matchedHashes;
+        try {
+            // The header must be one we have already accepted into the chain.
+            storedBlock = store.get(filteredBlock.getHash());
+            if (storedBlock == null) {
+                return;
+            }
+            
+            // Checks the partial merkle tree against the header's merkle root.
+            matchedHashes = filteredBlock.getTransactionHashes();
+        } catch (BlockStoreException e) {
+            log.warn("Could not read stored header for filtered block {}", filteredBlock.getHash(), e);
+            return;
+        } catch (VerificationException e) {
+            log.warn("Peer {} sent a filtered block with an invalid merkle proof", peer, e);
+            return;
+        }
+        
+        final int height = storedBlock.getHeight();
+        
+        synchronized (this) {
+            for (Transaction tx : filteredBlock.getAssociatedTransactions().values()) {
+                if (! matchedHashes.contains(tx.getHash())) {
+                    continue;
+                }
+                
+                for (String name : watchedNames) {
+                    if (NameTransactionUtils.getNameAnyUpdateOutput(tx, name) == null) {
+                        continue;
+                    }
+                    
+                    tx.getConfidence().setAppearedAtChainHeight(height);
+                    
+                    TreeMap<Integer, Transaction> nameUpdates = updates.get(name);
+                    if (nameUpdates == null) {
+                        nameUpdates = new TreeMap<Integer, Transaction>();
+                        updates.put(name, nameUpdates);
+                    }
+                    nameUpdates.put(height, tx);
+                    
+                    // Only the newest trusted update, and anything newer, can ever be returned.
+                    Integer newestTrusted = nameUpdates.floorKey(chain.getChainHead().getHeight() - NameHistoryCache.MIN_CONFIRMATIONS + 1);
+                    if (newestTrusted != null) {
+                        nameUpdates.headMap(newestTrusted).clear();
+                    }
+                }
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks) {
+        // Updates in the blocks being replaced are no longer in the chain;
+        // any that are in the new blocks will be seen again as they arrive.
+        for (TreeMap<Integer, Transaction> nameUpdates : updates.values()) {
+            nameUpdates.tailMap(splitPoint.getHeight(), false).clear();
+        }
+    }
+    
+    @Override
+    public long getEarliestKeyCreationTime() {
+        return creationTimeSeconds;
+    }
+    
+    @Override
+    public void beginBloomFilterCalculation() {
+        filterLock.lock();
+    }
+    
+    @Override
+    public synchronized int getBloomFilterElementCount() {
+        return watchedNames.size();
+    }
+    
+    @Override
+    public synchronized BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
+        BloomFilter filter = new BloomFilter(size, falsePositiveRate, nTweak);
+        for (String name : watchedNames) {
+            try {
+                // The name is a push data element of the name_firstupdate and name_update scripts.
+                filter.insert(name.getBytes("ISO-8859-1"));
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e); // Cannot happen.
+            }
+        }
+        return filter;
+    }
+    
+    @Override
+    public boolean isRequiringUpdateAllBloomFilter() {
+        return false;
+    }
+    
+    @Override
+    public void endBloomFilterCalculation() {
+        filterLock.unlock();
+    }
+
+}
@@ -18,36 +18,95 @@ package org.libdohj.names;
 
 import org.bitcoinj.core.BlockChain;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.ConsensusEvents;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 // TODO: document this
 
-public class NameLookupLatestRestHeightApi implements NameLookupLatest {
+public class NameLookupLatestRestHeightApi implements NameLookupLatestAsync {
+    
+    // ObjectReader is immutable and thread safe, so one instance serves every lookup.
+    protected static final ObjectReader NAME_DATA_READER = new ObjectMapper().readerFor(NameData.class);
     
     protected BlockChain chain;
     protected NameLookupByBlockHeight heightLookup;
     protected String restUrlPrefix;
     protected String restUrlSuffix;
+    protected ListeningExecutorService executor; // bounds the number of REST requests in flight
+    protected NameHistoryCache<NameData> historyCache = new NameHistoryCache<NameData>(NameHistoryCache.DEFAULT_MAX_ENTRIES);
+    
+    private final RequestCoalescer<List<String>, Transaction> lookups = new RequestCoalescer<List<String>, Transaction>();
+    
+    private final NameHistoryCache.EntryChecker<NameData> historyEntries = new NameHistoryCache.EntryChecker<NameData>() {
+        @Override
+        public int getHeight(NameData entry) {
+            return entry.height;
+        }
+        
+        @Override
+        public void verifyHeightTrustworthy(int height) throws Exception {
+            NameLookupLatestRestHeightApi.this.verifyHeightTrustworthy(height);
+        }
+    };
     
     public NameLookupLatestRestHeightApi (String restUrlPrefix, String restUrlSuffix, BlockChain chain, NameLookupByBlockHeight heightLookup) {
+        this(restUrlPrefix, restUrlSuffix, chain, heightLookup,
+            NameLookupExecutors.newBoundedExecutor(NameLookupExecutors.DEFAULT_PARALLELISM, "name lookup"));
+    }
+    
+    /**
+     * @param executor runs the asynchronous lookups; its thread count bounds how
+     * many REST requests are made at once.
+     */
+    public NameLookupLatestRestHeightApi (String restUrlPrefix, String restUrlSuffix, BlockChain chain, NameLookupByBlockHeight heightLookup, ListeningExecutorService executor) {
         this.restUrlPrefix = restUrlPrefix;
         this.restUrlSuffix = restUrlSuffix;
         this.chain = chain;
         this.heightLookup = heightLookup;
+        this.executor = executor;
+        
+        chain.addReorganizeListener(Threading.SAME_THREAD, historyCache);
     }
     
     // TODO: make a new Exception class
     @Override
     public Transaction getNameTransaction(String name, String identity) throws Exception {
+        final Object event = ConsensusEvents.beginNameLookup();
+        final Transaction tx;
+        try {
+            tx = lookupNameTransaction(name, identity);
+        } catch (Exception e) {
+            ConsensusEvents.failNameLookup(event, getClass(), name, ConsensusEvents.UNKNOWN_HEIGHT, null);
+            throw e;
+        }
+        ConsensusEvents.endNameLookup(event, getClass(), name, tx);
+        return tx;
+    }
+    
+    private Transaction lookupNameTransaction(String name, String identity) throws Exception {
         
         int height = getHeight(name);
         
@@ -55,41 +114,164 @@ public class NameLookupLatestRestHeightApi implements NameLookupLatest {
         
     }
     
-    // TODO: break out the getHeight into its own class + interface
-    // TODO: add identity isolation
-    // TODO: use an older height if the newest height has insufficient confirmations, instead of throwing an Exception
-    // NOTE: this might fail if special characters are in the name, since it's not URL-escaping them.
-    public int getHeight(String name) throws Exception {
-        ArrayList<NameData> untrustedNameHistory = getUntrustedNameHistory(name);
+    @Override
+    public ListenableFuture<Transaction> getNameTransactionAsync(final String name, final String identity) {
+        return lookups.submit(Arrays.asList(name, identity), executor, new Callable<Transaction>() {
+            @Override
+            public Transaction call() throws Exception {
+                return getNameTransaction(name, identity);
+            }
+        });
+    }
+    
+    /**
+     * Look up a batch of names in two passes. The REST histories are fetched
+     * first, with bounded parallelism; once every height is known the names are
+     * grouped by height, so that each block is fetched and scanned by a single
+     * task rather than by one task per name.
+     */
+    @Override
+    public Map<String, ListenableFuture<Transaction>> getNameTransactionsAsync(Collection<String> names, final String identity) {
+        final Map<String, ListenableFuture<Transaction>> results = new LinkedHashMap<String, ListenableFuture<Transaction>>();
+        final Map<String, SettableFuture<Transaction>> claimed = new LinkedHashMap<String, SettableFuture<Transaction>>();
         
-        int height;
+        for (String name : names) {
+            if (results.containsKey(name)) {
+                continue;
+            }
+            
+            SettableFuture<Transaction> future = SettableFuture.create();
+            ListenableFuture<Transaction> existing = lookups.claim(Arrays.asList(name, identity), future);
+            if (existing != null) {
+                // Someone else is already looking this name up
+                results.put(name, existing);
+            } else {
+                results.put(name, future);
+                claimed.put(name, future);
+            }
+        }
+        
+        if (claimed.isEmpty()) {
+            return results;
+        }
         
-        int index;
+        final Map<String, ListenableFuture<Integer>> heights = new LinkedHashMap<String, ListenableFuture<Integer>>();
+        for (final String name : claimed.keySet()) {
+            heights.put(name, executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return getHeight(name);
+                }
+            }));
+        }
         
-        for (index = untrustedNameHistory.size() - 1; index >= 0; index--) {
+        Futures.addCallback(Futures.successfulAsList(heights.values()), new FutureCallback<List<Integer>>() {
+            @Override
+            public void onSuccess(List<Integer> ignored) {
+                TreeMap<Integer, List<String>> namesByHeight = new TreeMap<Integer, List<String>>();
+                
+                for (Map.Entry<String, ListenableFuture<Integer>> entry : heights.entrySet()) {
+                    final String name = entry.getKey();
+                    final int height;
+                    try {
+                        height = entry.getValue().get();
+                    } catch (ExecutionException e) {
+                        lookups.setException(Arrays.asList(name, identity), claimed.get(name), e.getCause());
+                        continue;
+                    } catch (Exception e) {
+                        lookups.setException(Arrays.asList(name, identity), claimed.get(name), e);
+                        continue;
+                    }
+                    
+                    List<String> group = namesByHeight.get(height);
+                    if (group == null) {
+                        group = new ArrayList<String>();
+                        namesByHeight.put(height, group);
+                    }
+                    group.add(name);
+                }
+                
+                for (final Map.Entry<Integer, List<String>> group : namesByHeight.entrySet()) {
+                    submitHeightGroup(group.getKey(), group.getValue(), identity, claimed);
+                }
+            }
             
-            height = untrustedNameHistory.get(index).height;
-            try {
-                verifyHeightTrustworthy(height);
-                return height;
+            @Override
+            public void onFailure(Throwable t) {
+                // successfulAsList() only fails if it is cancelled
+                for (Map.Entry<String, SettableFuture<Transaction>> entry : claimed.entrySet()) {
+                    lookups.setException(Arrays.asList(entry.getKey(), identity), entry.getValue(), t);
+                }
             }
-            catch (Exception e) {
-                continue;
+        });
+        
+        return results;
+    }
+    
+    private void submitHeightGroup(final int height, final List<String> names, final String identity,
+            final Map<String, SettableFuture<Transaction>> claimed) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (heightLookup instanceof NameLookupByBlockHeightHashCache) {
+                    lookUpTogether((NameLookupByBlockHeightHashCache) heightLookup, height, names, identity, claimed);
+                    return;
+                }
+                
+                for (String name : names) {
+                    List<String> key = Arrays.asList(name, identity);
+                    try {
+                        lookups.set(key, claimed.get(name), heightLookup.getNameTransaction(name, height, identity));
+                    } catch (Exception e) {
+                        lookups.setException(key, claimed.get(name), e);
+                    }
+                }
+            }
+        };
+        
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            for (String name : names) {
+                lookups.setException(Arrays.asList(name, identity), claimed.get(name), e);
             }
         }
+    }
+    
+    // Fetch the block at the height once, and find every name of the group in it.
+    private void lookUpTogether(NameLookupByBlockHeightHashCache hashCache, int height, List<String> names,
+            String identity, Map<String, SettableFuture<Transaction>> claimed) {
+        final Map<String, Transaction> txs;
+        try {
+            txs = hashCache.getNameTransactions(names, height, identity);
+        } catch (Exception e) {
+            for (String name : names) {
+                lookups.setException(Arrays.asList(name, identity), claimed.get(name), e);
+            }
+            return;
+        }
         
-        throw new Exception("Height not trustworthy or name does not exist.");
+        for (String name : names) {
+            List<String> key = Arrays.asList(name, identity);
+            Transaction tx = txs.get(name);
+            if (tx != null) {
+                lookups.set(key, claimed.get(name), tx);
+            } else {
+                lookups.setException(key, claimed.get(name), new Exception("Name " + name + " not found in block at height " + height + "."));
+            }
+        }
     }
     
+    // TODO: break out the getHeight into its own class + interface
     // TODO: add identity isolation
-    protected ArrayList<NameData> getUntrustedNameHistory(String name) throws Exception {
-        URL nameUrl = new URL(restUrlPrefix + name + restUrlSuffix);
-        
-        ObjectMapper mapper = new ObjectMapper();
+    // TODO: use an older height if the newest height has insufficient confirmations, instead of throwing an Exception
+    // NOTE: this might fail if special characters are in the name, since it's not URL-escaping them.
+    public int getHeight(String name) throws Exception {
+        int headHeight = chain.getChainHead().getHeight();
         
-        ArrayList<NameData> untrustedNameHistory = new ArrayList<NameData>(Arrays.asList(mapper.readValue(nameUrl, NameData[].class)));
+        URL nameUrl = new URL(restUrlPrefix + name + restUrlSuffix);
         
-        return untrustedNameHistory;
+        return historyCache.getLatest(name, headHeight, nameUrl, NAME_DATA_READER, historyEntries).height;
     }
     
     protected void verifyHeightTrustworthy(int height) throws Exception {
@@ -24,20 +24,33 @@ import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.utils.Threading;
+import org.libdohj.core.ConsensusEvents;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 // TODO: document this
 
-public class NameLookupLatestRestMerkleApi implements NameLookupLatest {
+public class NameLookupLatestRestMerkleApi implements NameLookupLatestAsync {
+    
+    // ObjectReader is immutable and thread safe, so one instance serves every lookup.
+    protected static final ObjectReader NAME_DATA_READER = new ObjectMapper().readerFor(NameData.class);
     
     protected NetworkParameters params;
     protected BlockChain chain;
@@ -45,20 +58,61 @@ public class NameLookupLatestRestMerkleApi implements NameLookupLatest {
     protected NameLookupByBlockHeightHashCache heightLookup; // only needed for the hash cache
     protected String restUrlPrefix;
     protected String restUrlSuffix;
+    protected ListeningExecutorService executor; // bounds the number of REST requests in flight
+    protected NameHistoryCache<NameData> historyCache = new NameHistoryCache<NameData>(NameHistoryCache.DEFAULT_MAX_ENTRIES);
+    
+    private final RequestCoalescer<List<String>, Transaction> lookups = new RequestCoalescer<List<String>, Transaction>();
+    
+    private final NameHistoryCache.EntryChecker<NameData> historyEntries = new NameHistoryCache.EntryChecker<NameData>() {
+        @Override
+        public int getHeight(NameData entry) {
+            return entry.height;
+        }
+        
+        @Override
+        public void verifyHeightTrustworthy(int height) throws Exception {
+            NameLookupLatestRestMerkleApi.this.verifyHeightTrustworthy(height);
+        }
+    };
     
     // TODO: break out the hash cache into its own class so that we don't need the NameLookup features.
     public NameLookupLatestRestMerkleApi (NetworkParameters params, String restUrlPrefix, String restUrlSuffix, BlockChain chain, BlockStore store, NameLookupByBlockHeightHashCache heightLookup) {
+        this(params, restUrlPrefix, restUrlSuffix, chain, store, heightLookup,
+            NameLookupExecutors.newBoundedExecutor(NameLookupExecutors.DEFAULT_PARALLELISM, "name lookup"));
+    }
+    
+    /**
+     * @param executor runs the asynchronous lookups; its thread count bounds how
+     * many REST requests are made at once.
+     */
+    public NameLookupLatestRestMerkleApi (NetworkParameters params, String restUrlPrefix, String restUrlSuffix, BlockChain chain, BlockStore store, NameLookupByBlockHeightHashCache heightLookup, ListeningExecutorService executor) {
         this.params = params;
         this.restUrlPrefix = restUrlPrefix;
         this.restUrlSuffix = restUrlSuffix;
         this.chain = chain;
         this.store = store;
         this.heightLookup = heightLookup;
+        this.executor = executor;
+        
+        chain.addReorganizeListener(Threading.SAME_THREAD, historyCache);
     }
     
     // TODO: make a new Exception class
     @Override
     public Transaction getNameTransaction(String name, String identity) throws Exception {
+        final Object event = ConsensusEvents.beginNameLookup();
+        final Transaction tx;
+        try {
+            tx = lookupNameTransaction(name, identity);
+        } catch (Exception e) {
+            ConsensusEvents.failNameLookup(event, getClass(), name, ConsensusEvents.UNKNOWN_HEIGHT, null);
+            throw e;
+        }
+        ConsensusEvents.endNameLookup(event, getClass(), name, tx);
+        return tx;
+    }
+    
+    private Transaction lookupNameTransaction(String name, String identity) throws Exception {
         
         NameData data = getLatestUntrustedNameData(name);
         
@@ -95,41 +149,41 @@ public class NameLookupLatestRestMerkleApi implements NameLookupLatest {
         
     }
     
-    // TODO: break out the getHeight into its own class + interface
-    // TODO: add identity isolation
-    // TODO: use an older height if the newest height has insufficient confirmations, instead of throwing an Exception
-    // NOTE: this might fail if special characters are in the name, since it's not URL-escaping them.
-    public NameData getLatestUntrustedNameData(String name) throws Exception {
-        ArrayList<NameData> untrustedNameHistory = getUntrustedNameHistory(name);
-        
-        int height;
-        
-        int index;
-        
-        for (index = untrustedNameHistory.size() - 1; index >= 0; index--) {
-            
-            NameData candidate = untrustedNameHistory.get(index);
-            try {
-                verifyHeightTrustworthy(candidate.height);
-                return candidate;
+    @Override
+    public ListenableFuture<Transaction> getNameTransactionAsync(final String name, final String identity) {
+        return lookups.submit(Arrays.asList(name, identity), executor, new Callable<Transaction>() {
+            @Override
+            public Transaction call() throws Exception {
+                return getNameTransaction(name, identity);
             }
-            catch (Exception e) {
-                continue;
+        });
+    }
+    
+    // The Merkle proofs are checked against headers we already hold, so unlike
+    // the height API there are no block downloads to group here.
+    @Override
+    public Map<String, ListenableFuture<Transaction>> getNameTransactionsAsync(Collection<String> names, String identity) {
+        Map<String, ListenableFuture<Transaction>> results = new LinkedHashMap<String, ListenableFuture<Transaction>>();
+        
+        for (String name : names) {
+            if (! results.containsKey(name)) {
+                results.put(name, getNameTransactionAsync(name, identity));
             }
         }
         
-        throw new Exception("Height not trustworthy or name does not exist.");
+        return results;
     }
     
+    // TODO: break out the getHeight into its own class + interface
     // TODO: add identity isolation
-    protected ArrayList<NameData> getUntrustedNameHistory(String name) throws Exception {
-        URL nameUrl = new URL(restUrlPrefix + name + restUrlSuffix);
-        
-        ObjectMapper mapper = new ObjectMapper();
+    // TODO: use an older height if the newest height has insufficient confirmations, instead of throwing an Exception
+    // NOTE: this might fail if special characters are in the name, since it's not URL-escaping them.
+    public NameData getLatestUntrustedNameData(String name) throws Exception {
+        int headHeight = chain.getChainHead().getHeight();
         
-        ArrayList<NameData> untrustedNameHistory = new ArrayList<NameData>(Arrays.asList(mapper.readValue(nameUrl, NameData[].class)));
+        URL nameUrl = new URL(restUrlPrefix + name + restUrlSuffix);
         
-        return untrustedNameHistory;
+        return historyCache.getLatest(name, headHeight, nameUrl, NAME_DATA_READER, historyEntries);
     }
     
     protected void verifyHeightTrustworthy(int height) throws Exception {
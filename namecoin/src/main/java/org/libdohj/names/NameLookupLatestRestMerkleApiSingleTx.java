@@ -20,12 +20,6 @@ import org.bitcoinj.core.BlockChain;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.store.BlockStore;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Arrays;
-
 // This lookup client only downloads a single transaction from the API rather than a history.
 // This means that it's usually faster, but the API has to be careful to choose the correct transaction.
 // As of writing (2016 Jun 26), webbtc does *not* always make the correct choice.
@@ -33,6 +27,8 @@ import java.util.Arrays;
 // if the latest name_update for the targeted name has a depth between 1 and 11 (inclusive).
 // I'm engaging with Marius from webbtc and hope to have a solution soon.
 // -- Jeremy
+// The history reader shared with the superclass reads a single entry as a
+// history of one, so no override is needed to parse the API's answer.
 
 public class NameLookupLatestRestMerkleApiSingleTx extends NameLookupLatestRestMerkleApi {
 
@@ -40,16 +36,4 @@ public class NameLookupLatestRestMerkleApiSingleTx extends NameLookupLatestRestM
         super(params, restUrlPrefix, restUrlSuffix, chain, store, heightLookup);
     }
 
-    @Override
-    protected ArrayList<NameData> getUntrustedNameHistory(String name) throws Exception {
-        URL nameUrl = new URL(restUrlPrefix + name + restUrlSuffix);
-
-        ObjectMapper mapper = new ObjectMapper();
-        
-        NameData[] untrustedNameSingleEntry = {mapper.readValue(nameUrl, NameData.class)};
-        ArrayList<NameData> untrustedNameHistory = new ArrayList<NameData>(Arrays.asList(untrustedNameSingleEntry));
-        
-        return untrustedNameHistory;
-    }
-
 }
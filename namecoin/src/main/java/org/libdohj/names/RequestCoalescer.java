@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.names;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks in-flight requests by key, so that a request made while an identical
+ * one is still running shares its result rather than repeating the work.
+ * Entries are dropped as soon as the request completes; this is not a cache.
+ */
+class RequestCoalescer<K, V> {
+    
+    private final ConcurrentHashMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<K, SettableFuture<V>>();
+    
+    /**
+     * Claim a key for a new request.
+     *
+     * @return null if the caller now owns the request and must finish it with
+     * {@link #set(Object, SettableFuture, Object)} or
+     * {@link #setException(Object, SettableFuture, Throwable)}, otherwise the
+     * future of the request already in flight.
+     */
+    ListenableFuture<V> claim(K key, SettableFuture<V> future) {
+        return inFlight.putIfAbsent(key, future);
+    }
+    
+    void set(K key, SettableFuture<V> future, V value) {
+        inFlight.remove(key, future);
+        future.set(value);
+    }
+    
+    void setException(K key, SettableFuture<V> future, Throwable t) {
+        inFlight.remove(key, future);
+        future.setException(t);
+    }
+    
+    /**
+     * Get the future of the request in flight for the key, starting one if there is none.
+     *
+     * @param start called only if no request is in flight, to begin the work.
+     */
+    ListenableFuture<V> coalesce(final K key, Callable<ListenableFuture<V>> start) {
+        final SettableFuture<V> future = SettableFuture.create();
+        final ListenableFuture<V> existing = claim(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        
+        final ListenableFuture<V> result;
+        try {
+            result = start.call();
+        } catch (Exception e) {
+            setException(key, future, e);
+            return future;
+        }
+        Futures.addCallback(result, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                set(key, future, value);
+            }
+            
+            @Override
+            public void onFailure(Throwable t) {
+                setException(key, future, t);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * Get the future of the request in flight for the key, submitting the task
+     * to the executor if there is none.
+     */
+    ListenableFuture<V> submit(K key, final ListeningExecutorService executor, final Callable<V> task) {
+        return coalesce(key, new Callable<ListenableFuture<V>>() {
+            @Override
+            public ListenableFuture<V> call() {
+                return executor.submit(task);
+            }
+        });
+    }
+    
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.names;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.StoredBlock;
+import org.libdohj.names.NameLookupLatestRestHeightApi.NameData;
+import org.libdohj.params.NamecoinMainNetParams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URL;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that the newest trustworthy entry of a name's history is read and
+ * cached, and dropped again when it may be stale.
+ */
+public class NameHistoryCacheTest {
+    private static final int HEAD_HEIGHT = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final NameHistoryCache<NameData> cache = new NameHistoryCache<NameData>(NameHistoryCache.DEFAULT_MAX_ENTRIES);
+
+    private final NameHistoryCache.EntryChecker<NameData> checker = new NameHistoryCache.EntryChecker<NameData>() {
+        @Override
+        public int getHeight(NameData entry) {
+            return entry.height;
+        }
+
+        @Override
+        public void verifyHeightTrustworthy(int height) throws Exception {
+            if (HEAD_HEIGHT - height + 1 < NameHistoryCache.MIN_CONFIRMATIONS) {
+                throw new Exception("Block does not yet have 12 confirmations; not trustworthy!");
+            }
+        }
+    };
+
+    @Test
+    public void shouldReadNewestTrustworthyEntry() throws Exception {
+        final URL url = writeHistory("[" + entry(100) + "," + entry(900) + "," + entry(HEAD_HEIGHT - 2) + "]");
+
+        assertEquals(900, cache.getLatest("d/alpha", HEAD_HEIGHT, url, NameLookupLatestRestHeightApi.NAME_DATA_READER, checker).height);
+
+        // The rejected update becomes trustworthy at HEAD_HEIGHT - 2 + 11
+        assertEquals(900, cache.get("d/alpha", HEAD_HEIGHT + 8).height);
+        assertNull(cache.get("d/alpha", HEAD_HEIGHT + 9));
+    }
+
+    @Test
+    public void shouldReadSingleEntryAsHistory() throws Exception {
+        final URL url = writeHistory(entry(900));
+
+        assertEquals(900, cache.getLatest("d/alpha", HEAD_HEIGHT, url, NameLookupLatestRestHeightApi.NAME_DATA_READER, checker).height);
+    }
+
+    @Test
+    public void shouldAnswerFromCache() throws Exception {
+        final File file = new File(folder.getRoot(), "history.json");
+        final URL url = writeHistory("[" + entry(900) + "]");
+        cache.getLatest("d/alpha", HEAD_HEIGHT, url, NameLookupLatestRestHeightApi.NAME_DATA_READER, checker);
+        file.delete();
+
+        assertEquals(900, cache.getLatest("d/alpha", HEAD_HEIGHT + 1, url, NameLookupLatestRestHeightApi.NAME_DATA_READER, checker).height);
+    }
+
+    @Test
+    public void shouldFailWithoutTrustworthyEntry() throws Exception {
+        final URL url = writeHistory("[" + entry(HEAD_HEIGHT) + "]");
+
+        try {
+            cache.getLatest("d/alpha", HEAD_HEIGHT, url, NameLookupLatestRestHeightApi.NAME_DATA_READER, checker);
+            fail("Expected no trustworthy entry");
+        } catch (Exception x) {
+            assertEquals("Height not trustworthy or name does not exist.", x.getMessage());
+        }
+        assertNull(cache.get("d/alpha", HEAD_HEIGHT));
+    }
+
+    @Test
+    public void shouldDropEntriesFetchedAboveSplit() throws Exception {
+        final NameData data = new NameData("d/alpha", "", "", "", 30000, 900);
+        cache.put("d/alpha", data, 900, HEAD_HEIGHT, Integer.MAX_VALUE);
+        cache.put("d/beta", data, 900, 950, Integer.MAX_VALUE);
+
+        cache.reorganize(getStoredBlock(960), Collections.<StoredBlock>emptyList(), Collections.<StoredBlock>emptyList());
+
+        // Both entries are below the split, but only d/beta's history was fetched at or below it
+        assertNull(cache.get("d/alpha", HEAD_HEIGHT));
+        assertNotNull(cache.get("d/beta", 955));
+    }
+
+    private static StoredBlock getStoredBlock(int height) {
+        final Block genesis = NamecoinMainNetParams.get().getGenesisBlock();
+        return new StoredBlock(genesis, BigInteger.ONE, height);
+    }
+
+    private static String entry(int height) {
+        return "{\"name\":\"d/alpha\",\"value\":\"\",\"txid\":\"\",\"address\":\"\",\"expires_in\":30000,\"height\":" + height + "}";
+    }
+
+    private URL writeHistory(String json) throws IOException {
+        final File file = new File(folder.getRoot(), "history.json");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(json.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file.toURI().toURL();
+    }
+}
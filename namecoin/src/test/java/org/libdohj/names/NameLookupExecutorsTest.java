@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.names;
+
+import org.bitcoinj.core.Context;
+import org.libdohj.params.NamecoinMainNetParams;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check the thread pools used by the asynchronous name lookups.
+ */
+public class NameLookupExecutorsTest {
+    private Context context;
+    private ListeningExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new Context(NamecoinMainNetParams.get());
+        executor = NameLookupExecutors.newBoundedExecutor(2, "test lookup");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldRunOnDaemonThreadsWithContext() throws Exception {
+        final ListenableFuture<Boolean> daemon = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread().isDaemon();
+            }
+        });
+        final ListenableFuture<Context> threadContext = executor.submit(new Callable<Context>() {
+            @Override
+            public Context call() {
+                return Context.get();
+            }
+        });
+
+        assertTrue(daemon.get(10, TimeUnit.SECONDS));
+        assertSame(context, threadContext.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldBoundTasksRunningAtOnce() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final int now = running.incrementAndGet();
+                    synchronized (mostRunning) {
+                        mostRunning.set(Math.max(mostRunning.get(), now));
+                    }
+                    release.await();
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+
+        Thread.sleep(200);
+        release.countDown();
+        for (ListenableFuture<?> future : futures)
+            future.get(10, TimeUnit.SECONDS);
+        assertTrue("Ran " + mostRunning.get() + " at once", mostRunning.get() <= 2);
+    }
+}
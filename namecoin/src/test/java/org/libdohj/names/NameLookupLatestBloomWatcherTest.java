@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.names;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.PartialMerkleTree;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.NamecoinMainNetParams;
+import org.libdohj.script.NameScript;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_2DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_RETURN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that the Bloom filter watcher only records updates proven to be in
+ * stored blocks, and answers lookups with the same confirmation rules as the
+ * REST lookups.
+ */
+public class NameLookupLatestBloomWatcherTest {
+    private static final NamecoinMainNetParams params = NamecoinMainNetParams.get();
+    private static final String NAME = "d/alpha";
+
+    private MemoryBlockStore store;
+    private StoredBlock head;
+    private NameLookupLatestBloomWatcher watcher;
+    private final Transaction fallbackTx = new Transaction(params);
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new MemoryBlockStore(params);
+        setHeadHeight(1000);
+        // The head is moved by hand, rather than by adding thousands of headers
+        final BlockChain chain = new BlockChain(params, store) {
+            @Override
+            public StoredBlock getChainHead() {
+                return head;
+            }
+        };
+        // Filters are never sent, as no peers are connected
+        final PeerGroup peerGroup = new PeerGroup(params) {
+            @Override
+            public ListenableFuture<BloomFilter> recalculateFastCatchupAndFilter(FilterRecalculateMode mode) {
+                return Futures.immediateFuture(null);
+            }
+        };
+        final NameLookupLatest fallback = new NameLookupLatest() {
+            @Override
+            public Transaction getNameTransaction(String name, String identity) {
+                return fallbackTx;
+            }
+        };
+        watcher = new NameLookupLatestBloomWatcher(peerGroup, chain, store, fallback);
+        watcher.watch(NAME);
+    }
+
+    @Test
+    public void shouldIgnoreBlockNotMatchingMerkleProof() throws Exception {
+        final Transaction tx = getNameUpdateTransaction(900);
+        final FilteredBlock block = getFilteredBlock(900, tx, Sha256Hash.ZERO_HASH);
+        store.put(new StoredBlock(block.getBlockHeader(), BigInteger.ONE, 900));
+        watcher.onBlocksDownloaded(null, block.getBlockHeader(), block, 0);
+
+        assertEquals(fallbackTx, watcher.getNameTransaction(NAME, ""));
+    }
+
+    @Test
+    public void shouldIgnoreBlockNotInStore() throws Exception {
+        final Transaction tx = getNameUpdateTransaction(900);
+        final FilteredBlock block = getFilteredBlock(900, tx, null);
+        watcher.onBlocksDownloaded(null, block.getBlockHeader(), block, 0);
+
+        assertEquals(fallbackTx, watcher.getNameTransaction(NAME, ""));
+    }
+
+    @Test
+    public void shouldChooseNewestTrustedUpdate() throws Exception {
+        final Transaction trusted = receive(900);
+        // Six confirmations, fewer than needed
+        receive(995);
+
+        assertEquals(trusted, watcher.getNameTransaction(NAME, ""));
+        assertEquals(1000 - 900 + 1, trusted.getConfidence().getDepthInBlocks());
+    }
+
+    @Test
+    public void shouldFallBackOnceUpdateExpires() throws Exception {
+        final Transaction tx = receive(100);
+
+        setHeadHeight(100 + NameHistoryCache.EXPIRY_CONFIRMATIONS - 2);
+        assertEquals(tx, watcher.getNameTransaction(NAME, ""));
+        setHeadHeight(100 + NameHistoryCache.EXPIRY_CONFIRMATIONS - 1);
+        assertEquals(fallbackTx, watcher.getNameTransaction(NAME, ""));
+    }
+
+    @Test
+    public void shouldDropUpdatesAboveSplit() throws Exception {
+        final Transaction kept = receive(900);
+        receive(950);
+
+        watcher.reorganize(getStoredBlock(920), Collections.<StoredBlock>emptyList(),
+                Collections.<StoredBlock>emptyList());
+
+        assertEquals(kept, watcher.getNameTransaction(NAME, ""));
+    }
+
+    @Test
+    public void shouldKeepUpdatesLaterLookupsReturn() throws Exception {
+        // Out of order, so each older update arrives after a newer one
+        final Transaction newest = receive(990);
+        final Transaction trusted = receive(200);
+        receive(100);
+
+        assertEquals(trusted, watcher.getNameTransaction(NAME, ""));
+        // The newest update becomes trustworthy with the next block
+        setHeadHeight(1001);
+        assertEquals(newest, watcher.getNameTransaction(NAME, ""));
+        // Dropping it again leaves the update that was trusted before
+        watcher.reorganize(getStoredBlock(980), Collections.<StoredBlock>emptyList(),
+                Collections.<StoredBlock>emptyList());
+        assertEquals(trusted, watcher.getNameTransaction(NAME, ""));
+    }
+
+    @Test
+    public void shouldPutNameInBloomFilter() throws Exception {
+        final BloomFilter filter = watcher.getBloomFilter(watcher.getBloomFilterElementCount(), 0.0001, 0);
+
+        assertEquals(1, watcher.getBloomFilterElementCount());
+        assertTrue(filter.contains(NAME.getBytes("ISO-8859-1")));
+    }
+
+    /** Put a stored block at the given height updating the name, and pass its filtered block to the watcher. */
+    private Transaction receive(int height) throws Exception {
+        final Transaction tx = getNameUpdateTransaction(height);
+        final FilteredBlock block = getFilteredBlock(height, tx, null);
+        store.put(new StoredBlock(block.getBlockHeader(), BigInteger.ONE, height));
+        watcher.onBlocksDownloaded(null, block.getBlockHeader(), block, 0);
+        return tx;
+    }
+
+    /**
+     * A filtered block matching the given transaction and one other. The block
+     * header has the partial merkle tree's root, unless another is given.
+     */
+    private static FilteredBlock getFilteredBlock(int height, final Transaction tx, Sha256Hash merkleRoot) {
+        final List<Sha256Hash> leaves = Arrays.asList(tx.getHash(), Sha256Hash.of(new byte[] { (byte) height }));
+        final PartialMerkleTree tree = PartialMerkleTree.buildFromLeaves(params, new byte[] { 1 }, leaves);
+        if (merkleRoot == null)
+            merkleRoot = tree.getTxnHashAndMerkleRoot(new ArrayList<Sha256Hash>());
+        final Block header = new AltcoinBlock(params, Block.BLOCK_VERSION_GENESIS, Sha256Hash.ZERO_HASH, merkleRoot,
+                height, Block.EASIEST_DIFFICULTY_TARGET, height, Collections.<Transaction>emptyList());
+        // Peers send the matching transactions after the merkleblock; this stands in for them having arrived
+        return new FilteredBlock(params, header, tree) {
+            @Override
+            public Map<Sha256Hash, Transaction> getAssociatedTransactions() {
+                return Collections.singletonMap(tx.getHash(), tx);
+            }
+        };
+    }
+
+    private void setHeadHeight(int height) {
+        head = getStoredBlock(height);
+    }
+
+    private static StoredBlock getStoredBlock(int height) {
+        return new StoredBlock(params.getGenesisBlock().cloneAsHeader(), BigInteger.ONE, height);
+    }
+
+    private static Transaction getNameUpdateTransaction(int height) throws IOException {
+        final Transaction tx = new Transaction(params);
+        tx.addOutput(new TransactionOutput(params, tx, Coin.CENT, new ScriptBuilder()
+            .op(NameScript.OP_NAME_UPDATE)
+            .data(NAME.getBytes("ISO-8859-1"))
+            .data(("value at " + height).getBytes("ISO-8859-1"))
+            .op(OP_2DROP)
+            .op(OP_DROP)
+            .op(OP_RETURN)
+            .build().getProgram()));
+        return tx;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.names;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.params.NamecoinMainNetParams;
+import org.libdohj.script.NameScript;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_2DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_RETURN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that a batch of names looked up through the REST height API fetches
+ * each block once, however many of the names were updated in it.
+ */
+public class NameLookupLatestRestHeightApiTest {
+    private static final NamecoinMainNetParams params = NamecoinMainNetParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<Sha256Hash, Block> blocks = new HashMap<Sha256Hash, Block>();
+    private final AtomicInteger blockFetches = new AtomicInteger();
+    private ListeningExecutorService executor;
+    private NameLookupLatestRestHeightApi api;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        final BlockChain chain = new BlockChain(params, new MemoryBlockStore(params));
+        executor = NameLookupExecutors.newBoundedExecutor(2, "test lookup");
+
+        final NameLookupByBlockHashOneFullBlock hashLookup = new NameLookupByBlockHashOneFullBlock(null) {
+            @Override
+            protected ListenableFuture<Block> getVerifiedBlock(Sha256Hash blockHash) {
+                blockFetches.incrementAndGet();
+                return Futures.immediateFuture(blocks.get(blockHash));
+            }
+        };
+        final NameLookupByBlockHeightHashCache heightLookup = new NameLookupByBlockHeightHashCache(chain, hashLookup) {
+            @Override
+            protected void initBlockHashCache() {
+                blockHashCache = new ConcurrentHashMap<Integer, Sha256Hash>();
+            }
+
+            @Override
+            public Sha256Hash getBlockHash(int height) {
+                return getTestBlockHash(height);
+            }
+        };
+
+        final String restUrlPrefix = folder.getRoot().toURI().toString();
+        api = new NameLookupLatestRestHeightApi(restUrlPrefix, ".json", chain, heightLookup, executor) {
+            @Override
+            protected void verifyHeightTrustworthy(int height) throws Exception {
+                // The test chain has no confirmations to offer
+                if (height < 1) {
+                    throw new Exception("Nonpositive block height; not trustworthy!");
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldFetchEachBlockOnce() throws Exception {
+        final Transaction alpha = getNameUpdateTransaction("d/alpha");
+        final Transaction beta = getNameUpdateTransaction("d/beta");
+        final Transaction gamma = getNameUpdateTransaction("d/gamma");
+        addBlock(5, alpha, beta);
+        addBlock(7, gamma);
+        writeHistory("d/alpha", 5);
+        writeHistory("d/beta", 5);
+        writeHistory("d/gamma", 7);
+
+        final Map<String, ListenableFuture<Transaction>> results =
+            api.getNameTransactionsAsync(Arrays.asList("d/alpha", "d/beta", "d/gamma", "d/alpha"), "identity");
+
+        assertEquals(3, results.size());
+        assertEquals(alpha.getHash(), results.get("d/alpha").get(10, TimeUnit.SECONDS).getHash());
+        assertEquals(beta.getHash(), results.get("d/beta").get(10, TimeUnit.SECONDS).getHash());
+        assertEquals(gamma.getHash(), results.get("d/gamma").get(10, TimeUnit.SECONDS).getHash());
+        assertEquals(5, results.get("d/alpha").get().getConfidence().getAppearedAtChainHeight());
+        assertEquals(2, blockFetches.get());
+    }
+
+    @Test
+    public void shouldFailNameMissingFromBlock() throws Exception {
+        addBlock(5, getNameUpdateTransaction("d/alpha"));
+        writeHistory("d/alpha", 5);
+        writeHistory("d/beta", 5);
+
+        final Map<String, ListenableFuture<Transaction>> results =
+            api.getNameTransactionsAsync(Arrays.asList("d/alpha", "d/beta"), "identity");
+
+        results.get("d/alpha").get(10, TimeUnit.SECONDS);
+        try {
+            results.get("d/beta").get(10, TimeUnit.SECONDS);
+            fail("Expected the name not to be found");
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause().getMessage(), x.getCause().getMessage().contains("d/beta"));
+        }
+        assertEquals(1, blockFetches.get());
+    }
+
+    @Test
+    public void shouldFailNameWithoutHistory() throws Exception {
+        try {
+            api.getNameTransactionAsync("d/unknown", "identity").get(10, TimeUnit.SECONDS);
+            fail("Expected the REST lookup to fail");
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause() instanceof IOException);
+        }
+        assertEquals(0, blockFetches.get());
+    }
+
+    private static Sha256Hash getTestBlockHash(int height) {
+        return Sha256Hash.of(new byte[] { (byte) height });
+    }
+
+    private void addBlock(int height, Transaction... txs) {
+        final List<Transaction> transactions = new ArrayList<Transaction>(Arrays.asList(txs));
+        blocks.put(getTestBlockHash(height), new Block(params, Block.BLOCK_VERSION_GENESIS, Sha256Hash.ZERO_HASH,
+            Sha256Hash.ZERO_HASH, 0, Block.EASIEST_DIFFICULTY_TARGET, 0, transactions));
+    }
+
+    private static Transaction getNameUpdateTransaction(String name) throws IOException {
+        final Transaction tx = new Transaction(params);
+        tx.addOutput(new TransactionOutput(params, tx, Coin.CENT, new ScriptBuilder()
+            .op(NameScript.OP_NAME_UPDATE)
+            .data(name.getBytes("ISO-8859-1"))
+            .data(("value of " + name).getBytes("ISO-8859-1"))
+            .op(OP_2DROP)
+            .op(OP_DROP)
+            .op(OP_RETURN)
+            .build().getProgram()));
+        return tx;
+    }
+
+    // Names are looked up at prefix + name + suffix, so "d/alpha" lives in the "d" directory.
+    private void writeHistory(String name, int height) throws IOException {
+        final File file = new File(folder.getRoot(), name + ".json");
+        file.getParentFile().mkdirs();
+        final String json = "[{\"name\":\"" + name + "\",\"value\":\"value of " + name
+            + "\",\"txid\":\"\",\"address\":\"\",\"expires_in\":30000,\"height\":" + height + "}]";
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(json.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
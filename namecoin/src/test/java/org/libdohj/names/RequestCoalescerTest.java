@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.names;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Check that requests in flight are shared, and forgotten once they complete.
+ */
+public class RequestCoalescerTest {
+    private final RequestCoalescer<String, String> coalescer = new RequestCoalescer<String, String>();
+
+    @Test
+    public void shouldShareRequestInFlight() throws Exception {
+        final SettableFuture<String> work = SettableFuture.create();
+        final AtomicInteger starts = new AtomicInteger();
+        final Callable<ListenableFuture<String>> start = new Callable<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> call() {
+                starts.incrementAndGet();
+                return work;
+            }
+        };
+
+        final ListenableFuture<String> first = coalescer.coalesce("key", start);
+        final ListenableFuture<String> second = coalescer.coalesce("key", start);
+        assertSame(first, second);
+        assertEquals(1, starts.get());
+
+        work.set("value");
+        assertEquals("value", first.get());
+    }
+
+    @Test
+    public void shouldStartAgainOnceComplete() throws Exception {
+        final AtomicInteger starts = new AtomicInteger();
+        final Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() {
+                return "value" + starts.incrementAndGet();
+            }
+        };
+
+        assertEquals("value1", coalescer.submit("key", MoreExecutors.newDirectExecutorService(), task).get());
+        assertEquals("value2", coalescer.submit("key", MoreExecutors.newDirectExecutorService(), task).get());
+    }
+
+    @Test
+    public void shouldFailWhenStartThrows() throws Exception {
+        final ListenableFuture<String> future = coalescer.coalesce("key", new Callable<ListenableFuture<String>>() {
+            @Override
+            public ListenableFuture<String> call() throws Exception {
+                throw new Exception("No peers");
+            }
+        });
+
+        try {
+            future.get();
+            fail("Expected the request to fail");
+        } catch (ExecutionException x) {
+            assertEquals("No peers", x.getCause().getMessage());
+        }
+        // The failed request is not left in flight
+        assertNull(coalescer.claim("key", SettableFuture.<String>create()));
+    }
+
+    @Test
+    public void shouldReturnClaimedRequest() throws Exception {
+        final SettableFuture<String> owned = SettableFuture.create();
+        assertNull(coalescer.claim("key", owned));
+        assertSame(owned, coalescer.claim("key", SettableFuture.<String>create()));
+
+        coalescer.setException("key", owned, new Exception("Failed"));
+        assertTrue(owned.isDone());
+        assertNull(coalescer.claim("key", SettableFuture.<String>create()));
+    }
+}